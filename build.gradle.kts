@@ -6,6 +6,7 @@ buildscript {
 
 plugins {
     id("com.github.sherter.google-java-format") version "0.9"
+    id("me.champeau.jmh") version "0.6.8"
     `java-library`
     `maven-publish`
     signing
@@ -28,10 +29,44 @@ tasks.withType<Test> {
     }
 }
 
+tasks.test {
+    useJUnitPlatform {
+        excludeTags("load")
+    }
+}
+
+// ./gradlew loadTest [-Dnewrelic.loadTest.maxCpuMicrosPerMetric=5]
+val loadTest by tasks.registering(Test::class) {
+    description = "Runs full harvests against an in-process ingest endpoint."
+    group = "verification"
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    useJUnitPlatform {
+        includeTags("load")
+    }
+    testLogging {
+        showStandardStreams = true
+    }
+    System.getProperty("newrelic.loadTest.maxCpuMicrosPerMetric")?.let {
+        systemProperty("newrelic.loadTest.maxCpuMicrosPerMetric", it)
+    }
+}
+
 googleJavaFormat {
     exclude(".**")
 }
 
+// ./gradlew jmh [-PjmhIncludes=HarvestBenchmark]
+jmh {
+    jmhVersion.set("1.36")
+    // allocation rate matters as much as throughput for harvests, so always profile the GC
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    // the benchmarks harvest the same registries as the load test
+    includeTests.set(true)
+    (project.findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
+
 dependencies {
     api("io.dropwizard.metrics:metrics-core:4.2.18")
     api("com.newrelic.telemetry:telemetry-core:0.15.0")
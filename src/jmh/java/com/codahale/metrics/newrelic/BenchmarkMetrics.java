@@ -0,0 +1,148 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static java.util.Collections.emptySet;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.newrelic.transformer.CounterTransformer;
+import com.codahale.metrics.newrelic.transformer.GaugeTransformer;
+import com.codahale.metrics.newrelic.transformer.HistogramTransformer;
+import com.codahale.metrics.newrelic.transformer.MeterTransformer;
+import com.codahale.metrics.newrelic.transformer.TimerTransformer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
+import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
+import com.codahale.metrics.newrelic.transformer.interfaces.SamplingTransformer;
+import com.codahale.metrics.newrelic.util.GaugeReader;
+import com.codahale.metrics.newrelic.util.TimeTracker;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.MetricBatch;
+import java.util.concurrent.TimeUnit;
+
+/** Registries, customizers and reporters shared by the benchmarks. */
+public class BenchmarkMetrics {
+
+  public enum Customization {
+    NONE,
+    UNCACHED,
+    CACHED
+  }
+
+  /** Strips tags encoded as {@code name[key:value,...]}, like the example in the README. */
+  public static final MetricNameCustomizer TAG_STRIPPER =
+      name -> {
+        int start = name.indexOf('[');
+        return start < 0 ? name : name.substring(0, start);
+      };
+
+  /** Turns tags encoded as {@code name[key:value,...]} into attributes. */
+  public static final MetricAttributesCustomizer TAG_PARSER =
+      (name, metric, attributes) -> {
+        int start = name.indexOf('[');
+        if (start < 0) {
+          return attributes;
+        }
+        for (String tag : name.substring(start + 1, name.indexOf(']')).split(",")) {
+          String[] keyValue = tag.split(":");
+          attributes.put(keyValue[0], keyValue[1]);
+        }
+        return attributes;
+      };
+
+  public static MetricCustomizations customizations(Customization customization) {
+    switch (customization) {
+      case UNCACHED:
+        return MetricCustomizations.uncached(TAG_STRIPPER, TAG_PARSER);
+      case CACHED:
+        return MetricCustomizations.cached(TAG_STRIPPER, TAG_PARSER);
+      default:
+        return MetricCustomizations.uncached(
+            MetricNameCustomizer.DEFAULT, MetricAttributesCustomizer.DEFAULT);
+    }
+  }
+
+  public static String name(String type, int index, Customization customization) {
+    return RegistryFixture.name(type, index, customization != Customization.NONE);
+  }
+
+  /** Fills a registry with {@code count} metrics, shared with the load test. */
+  public static MetricRegistry registry(int count, Customization customization) {
+    return RegistryFixture.registry(count, customization != Customization.NONE);
+  }
+
+  /**
+   * Builds a reporter the way {@link NewRelicReporterBuilder} does, but with a client that discards
+   * batches. Its transformers are registered as listeners without scheduling any harvests.
+   */
+  public static NewRelicReporter reporter(MetricRegistry registry, Customization customization) {
+    MetricCustomizations customizations = customizations(customization);
+    TimeTracker timeTracker = new TimeTracker(Clock.defaultClock());
+    long rateFactor = TimeUnit.SECONDS.toSeconds(1);
+    double durationFactor = TimeUnit.MILLISECONDS.toNanos(1);
+
+    HistogramTransformer histogramTransformer =
+        HistogramTransformer.build(
+            new SamplingTransformer(timeTracker, 1L), timeTracker, customizations);
+    GaugeTransformer gaugeTransformer =
+        new GaugeTransformer(
+            Clock.defaultClock(), customizations, new Counter(), GaugeReader.DIRECT);
+    CounterTransformer counterTransformer = new CounterTransformer(customizations);
+    MeterTransformer meterTransformer =
+        MeterTransformer.build(
+            new MeteredTransformer(rateFactor, attribute -> true), timeTracker, customizations);
+    TimerTransformer timerTransformer =
+        TimerTransformer.build(
+            new SamplingTransformer(timeTracker, durationFactor),
+            new MeteredTransformer(rateFactor, attribute -> true),
+            timeTracker,
+            customizations);
+
+    registry.addListener(histogramTransformer);
+    registry.addListener(gaugeTransformer);
+    registry.addListener(counterTransformer);
+    registry.addListener(meterTransformer);
+    registry.addListener(timerTransformer);
+
+    return new NewRelicReporter(
+        timeTracker,
+        registry,
+        "benchmark",
+        MetricFilter.ALL,
+        TimeUnit.SECONDS,
+        TimeUnit.MILLISECONDS,
+        new DiscardingBatchSender(),
+        new Attributes(),
+        histogramTransformer,
+        gaugeTransformer,
+        counterTransformer,
+        meterTransformer,
+        timerTransformer,
+        emptySet(),
+        new ReporterOptions());
+  }
+
+  /** Drops every batch, so that the benchmarks measure the harvest rather than the network. */
+  static class DiscardingBatchSender implements BatchSender {
+
+    // keeps the batch reachable so the harvest can't be optimized away
+    volatile MetricBatch lastBatch;
+
+    @Override
+    public void sendBatch(MetricBatch batch) {
+      lastBatch = batch;
+    }
+
+    @Override
+    public void shutdown() {}
+  }
+}
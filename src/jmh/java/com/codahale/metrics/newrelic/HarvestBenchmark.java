@@ -0,0 +1,85 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.newrelic.BenchmarkMetrics.Customization;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full {@link NewRelicReporter} harvest of a registry, excluding the network. {@link #harvest()}
+ * measures the transformation alone, {@link #harvestFromRegistry()} includes copying the metrics out
+ * of the registry as {@link com.codahale.metrics.ScheduledReporter} does on every report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HarvestBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int metricCount;
+
+  @Param({"NONE", "UNCACHED", "CACHED"})
+  public Customization customization;
+
+  private MetricRegistry registry;
+  private NewRelicReporter reporter;
+  private SortedMap<String, Gauge> gauges;
+  private SortedMap<String, Counter> counters;
+  private SortedMap<String, Histogram> histograms;
+  private SortedMap<String, Meter> meters;
+  private SortedMap<String, Timer> timers;
+
+  @Setup
+  public void setUp() {
+    registry = BenchmarkMetrics.registry(metricCount, customization);
+    reporter = BenchmarkMetrics.reporter(registry, customization);
+    gauges = registry.getGauges(MetricFilter.ALL);
+    counters = registry.getCounters(MetricFilter.ALL);
+    histograms = registry.getHistograms(MetricFilter.ALL);
+    meters = registry.getMeters(MetricFilter.ALL);
+    timers = registry.getTimers(MetricFilter.ALL);
+  }
+
+  @TearDown
+  public void tearDown() {
+    reporter.close();
+  }
+
+  @Benchmark
+  public void harvest() {
+    reporter.report(gauges, counters, histograms, meters, timers);
+  }
+
+  @Benchmark
+  public void harvestFromRegistry() {
+    reporter.report();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.newrelic.BenchmarkMetrics;
+import com.codahale.metrics.newrelic.BenchmarkMetrics.Customization;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
+import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
+import com.codahale.metrics.newrelic.transformer.interfaces.SamplingTransformer;
+import com.codahale.metrics.newrelic.util.GaugeReader;
+import com.codahale.metrics.newrelic.util.TimeTracker;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Transforms a single metric of each type, the unit of work of every harvest. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformerBenchmark {
+
+  @Param({"NONE", "UNCACHED", "CACHED"})
+  public Customization customization;
+
+  private String gaugeName;
+  private String counterName;
+  private String histogramName;
+  private String meterName;
+  private String timerName;
+  private Gauge<?> gauge;
+  private Counter counter;
+  private Histogram histogram;
+  private Meter meter;
+  private Timer timer;
+
+  private GaugeTransformer gaugeTransformer;
+  private CounterTransformer counterTransformer;
+  private HistogramTransformer histogramTransformer;
+  private MeterTransformer meterTransformer;
+  private TimerTransformer timerTransformer;
+  private Consumer<Metric> sink;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    // the first ten metrics of the benchmark registry cover every type
+    MetricRegistry registry = BenchmarkMetrics.registry(10, customization);
+    gaugeName = BenchmarkMetrics.name("gauge", 4, customization);
+    counterName = BenchmarkMetrics.name("counter", 0, customization);
+    timerName = BenchmarkMetrics.name("timer", 6, customization);
+    meterName = BenchmarkMetrics.name("meter", 8, customization);
+    histogramName = BenchmarkMetrics.name("histogram", 9, customization);
+    gauge = registry.getGauges().get(gaugeName);
+    counter = registry.counter(counterName);
+    timer = registry.timer(timerName);
+    meter = registry.meter(meterName);
+    histogram = registry.histogram(histogramName);
+
+    MetricCustomizations customizations = BenchmarkMetrics.customizations(customization);
+    TimeTracker timeTracker = new TimeTracker(Clock.defaultClock());
+    gaugeTransformer =
+        new GaugeTransformer(
+            Clock.defaultClock(), customizations, new Counter(), GaugeReader.DIRECT);
+    counterTransformer = new CounterTransformer(customizations);
+    histogramTransformer =
+        HistogramTransformer.build(
+            new SamplingTransformer(timeTracker, 1L), timeTracker, customizations);
+    meterTransformer =
+        MeterTransformer.build(
+            new MeteredTransformer(1L, attribute -> true), timeTracker, customizations);
+    timerTransformer =
+        TimerTransformer.build(
+            new SamplingTransformer(timeTracker, 1_000_000d),
+            new MeteredTransformer(1L, attribute -> true),
+            timeTracker,
+            customizations);
+    registry.addListener(gaugeTransformer);
+    registry.addListener(counterTransformer);
+    registry.addListener(histogramTransformer);
+    registry.addListener(meterTransformer);
+    registry.addListener(timerTransformer);
+
+    sink = blackhole::consume;
+  }
+
+  @Benchmark
+  public void gauge() {
+    gaugeTransformer.transform(gaugeName, gauge, sink);
+  }
+
+  @Benchmark
+  public void counter() {
+    counterTransformer.transform(counterName, counter, sink);
+  }
+
+  @Benchmark
+  public void histogram() {
+    histogramTransformer.transform(histogramName, histogram, sink);
+  }
+
+  @Benchmark
+  public void meter() {
+    meterTransformer.transform(meterName, meter, sink);
+  }
+
+  @Benchmark
+  public void timer() {
+    timerTransformer.transform(timerName, timer, sink);
+  }
+}
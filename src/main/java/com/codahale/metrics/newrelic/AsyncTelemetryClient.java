@@ -0,0 +1,413 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.newrelic.util.SpillBuffer;
+import com.newrelic.telemetry.TelemetryClient;
+import com.newrelic.telemetry.exceptions.DiscardBatchException;
+import com.newrelic.telemetry.exceptions.ResponseException;
+import com.newrelic.telemetry.exceptions.RetryWithBackoffException;
+import com.newrelic.telemetry.exceptions.RetryWithRequestedWaitException;
+import com.newrelic.telemetry.exceptions.RetryWithSplitException;
+import com.newrelic.telemetry.metrics.MetricBatch;
+import com.newrelic.telemetry.metrics.MetricBatchSender;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends metric batches in place of the {@link TelemetryClient} of the SDK, by handing them to a
+ * bounded queue, which a fixed number of worker threads drain by posting the batches with a {@link
+ * MetricBatchSender}. The harvest only waits for the queue, never for the network, and a {@link
+ * BackpressurePolicy} decides what happens when the queue is full.
+ *
+ * <p>Like the {@link TelemetryClient} of the SDK, the workers retry batches that the endpoint asks
+ * to retry, waiting as requested or with an exponential backoff, and split batches that it rejects
+ * as too large. Batches that still fail to send are logged and dropped after a few retries, so that
+ * a slow endpoint can't make the queue grow without bound. {@link BackpressurePolicy#COALESCE}
+ * merges batches up to {@code maxCoalescedMetrics} metrics, and drops the newest queued batch
+ * instead once a merged batch would be larger. The queue depth and the number of sent, dropped and
+ * failed batches are available as gauges through {@link #getMetrics()}; the reporter registers
+ * them with its self metrics.
+ *
+ * <p>With a {@link SpillBuffer}, batches that fail to send and batches that {@link
+ * BackpressurePolicy#DROP_OLDEST} pushes out of the queue are spilled to disk instead. After each
+ * successful send, up to {@code replayConcurrency} workers at a time replay the spilled batches
+ * until the buffer is empty or a replay fails, in which case the batch is spilled again. Batches
+ * that the endpoint rejects for good, such as malformed batches or single metrics that are too
+ * large, are dropped rather than spilled, so that they are not replayed forever.
+ */
+public class AsyncTelemetryClient implements BatchSender, MetricSet {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncTelemetryClient.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+  private static final int MAX_RETRIES = 3;
+  private static final long INITIAL_BACKOFF_MILLIS = 1000;
+  static final int DEFAULT_MAX_COALESCED_METRICS = 100_000;
+
+  private final MetricBatchSender metricBatchSender;
+  private final BlockingDeque<MetricBatch> queue;
+  private final BackpressurePolicy backpressurePolicy;
+  private final int maxCoalescedMetrics;
+  private final ExecutorService workers;
+  private final AtomicLong sentBatches = new AtomicLong();
+  private final AtomicLong droppedBatches = new AtomicLong();
+  private final AtomicLong failedBatches = new AtomicLong();
+  // null unless batches are spilled to disk
+  private final SpillBuffer spillBuffer;
+  private final Semaphore replayPermits;
+  private final AtomicLong spilledBatches = new AtomicLong();
+  private final AtomicLong replayedBatches = new AtomicLong();
+  private volatile boolean running = true;
+
+  public AsyncTelemetryClient(
+      MetricBatchSender metricBatchSender,
+      int queueCapacity,
+      int workerCount,
+      BackpressurePolicy backpressurePolicy) {
+    this(metricBatchSender, queueCapacity, workerCount, backpressurePolicy, null, 0);
+  }
+
+  public AsyncTelemetryClient(
+      MetricBatchSender metricBatchSender,
+      int queueCapacity,
+      int workerCount,
+      BackpressurePolicy backpressurePolicy,
+      SpillBuffer spillBuffer,
+      int replayConcurrency) {
+    this(
+        metricBatchSender,
+        queueCapacity,
+        workerCount,
+        backpressurePolicy,
+        spillBuffer,
+        replayConcurrency,
+        DEFAULT_MAX_COALESCED_METRICS);
+  }
+
+  public AsyncTelemetryClient(
+      MetricBatchSender metricBatchSender,
+      int queueCapacity,
+      int workerCount,
+      BackpressurePolicy backpressurePolicy,
+      SpillBuffer spillBuffer,
+      int replayConcurrency,
+      int maxCoalescedMetrics) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+    }
+    if (workerCount < 1) {
+      throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+    }
+    if (spillBuffer != null && replayConcurrency < 1) {
+      throw new IllegalArgumentException(
+          "replayConcurrency must be positive: " + replayConcurrency);
+    }
+    if (maxCoalescedMetrics < 1) {
+      throw new IllegalArgumentException(
+          "maxCoalescedMetrics must be positive: " + maxCoalescedMetrics);
+    }
+    this.metricBatchSender = metricBatchSender;
+    this.queue = new LinkedBlockingDeque<>(queueCapacity);
+    this.backpressurePolicy = backpressurePolicy;
+    this.maxCoalescedMetrics = maxCoalescedMetrics;
+    this.spillBuffer = spillBuffer;
+    this.replayPermits = new Semaphore(replayConcurrency);
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.workers =
+        Executors.newFixedThreadPool(
+            workerCount,
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "newrelic-batch-sender-" + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    for (int i = 0; i < workerCount; i++) {
+      workers.execute(this::drain);
+    }
+  }
+
+  @Override
+  public void sendBatch(MetricBatch batch) {
+    if (!running) {
+      LOG.warn("Dropping a batch of {} metrics because the sender is shut down", batch.size());
+      droppedBatches.incrementAndGet();
+      return;
+    }
+    switch (backpressurePolicy) {
+      case BLOCK:
+        try {
+          queue.putLast(batch);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          droppedBatches.incrementAndGet();
+        }
+        break;
+      case COALESCE:
+        while (!queue.offerLast(batch)) {
+          MetricBatch newest = queue.pollLast();
+          if (newest == null) {
+            continue;
+          }
+          if (newest.size() + batch.size() <= maxCoalescedMetrics) {
+            batch = merge(newest, batch);
+          } else {
+            spillOrDrop(newest);
+          }
+        }
+        break;
+      default:
+        while (!queue.offerLast(batch)) {
+          MetricBatch oldest = queue.pollFirst();
+          if (oldest != null) {
+            spillOrDrop(oldest);
+          }
+        }
+    }
+  }
+
+  private static MetricBatch merge(MetricBatch older, MetricBatch newer) {
+    List<com.newrelic.telemetry.metrics.Metric> metrics =
+        new ArrayList<>(older.size() + newer.size());
+    metrics.addAll(older.getTelemetry());
+    metrics.addAll(newer.getTelemetry());
+    return new MetricBatch(metrics, newer.getCommonAttributes());
+  }
+
+  private void drain() {
+    while (running || !queue.isEmpty()) {
+      try {
+        MetricBatch batch = queue.pollFirst(100, TimeUnit.MILLISECONDS);
+        if (batch != null) {
+          send(batch);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        // a worker that died would leave the queue to the others, or to no one
+        LOG.warn("Unexpected failure of a batch sender worker", e);
+      }
+    }
+  }
+
+  private void send(MetricBatch batch) {
+    if (post(batch)) {
+      sentBatches.incrementAndGet();
+      replaySpilled();
+    }
+  }
+
+  /**
+   * Posts the batch, splitting it while the endpoint rejects it as too large, and spills the parts
+   * that fail to send when there is a spill buffer.
+   *
+   * @return whether all of the batch was sent
+   */
+  private boolean post(MetricBatch batch) {
+    try {
+      sendWithRetries(batch);
+      return true;
+    } catch (RetryWithSplitException e) {
+      if (batch.size() > 1) {
+        List<MetricBatch> halves = split(batch);
+        boolean first = post(halves.get(0));
+        boolean second = post(halves.get(1));
+        return first && second;
+      }
+      return failed(batch, e);
+    } catch (ResponseException | RuntimeException e) {
+      return failed(batch, e);
+    }
+  }
+
+  private boolean failed(MetricBatch batch, Exception e) {
+    failedBatches.incrementAndGet();
+    LOG.warn("Failed to send a batch of {} metrics", batch.size(), e);
+    if (spillBuffer != null && !rejected(e)) {
+      spillOrDrop(batch);
+    }
+    return false;
+  }
+
+  /** @return whether the endpoint would reject the batch again however often it is sent */
+  private static boolean rejected(Exception e) {
+    return e instanceof DiscardBatchException || e instanceof RetryWithSplitException;
+  }
+
+  private static List<MetricBatch> split(MetricBatch batch) {
+    List<com.newrelic.telemetry.metrics.Metric> metrics = new ArrayList<>(batch.getTelemetry());
+    int middle = metrics.size() / 2;
+    return Arrays.asList(
+        new MetricBatch(metrics.subList(0, middle), batch.getCommonAttributes()),
+        new MetricBatch(metrics.subList(middle, metrics.size()), batch.getCommonAttributes()));
+  }
+
+  /**
+   * Sends the batch, retrying it after the wait the endpoint asks for or with an exponential
+   * backoff, at most {@link #MAX_RETRIES} times.
+   */
+  private void sendWithRetries(MetricBatch batch) throws ResponseException {
+    long backoffMillis = INITIAL_BACKOFF_MILLIS;
+    for (int attempt = 0; ; attempt++) {
+      ResponseException failure;
+      long waitMillis;
+      try {
+        metricBatchSender.sendBatch(batch);
+        return;
+      } catch (RetryWithRequestedWaitException e) {
+        failure = e;
+        waitMillis = e.getTimeUnit().toMillis(e.getWaitTime());
+      } catch (RetryWithBackoffException e) {
+        failure = e;
+        waitMillis = backoffMillis;
+        backoffMillis *= 2;
+      }
+      // batches are no longer retried once the client is shutting down
+      if (attempt == MAX_RETRIES || !running) {
+        throw failure;
+      }
+      try {
+        Thread.sleep(waitMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw failure;
+      }
+    }
+  }
+
+  private void spillOrDrop(MetricBatch batch) {
+    if (spillBuffer != null && spillBuffer.append(batch)) {
+      spilledBatches.incrementAndGet();
+    } else {
+      droppedBatches.incrementAndGet();
+    }
+  }
+
+  private void replaySpilled() {
+    if (spillBuffer == null || spillBuffer.getBatches() == 0 || !replayPermits.tryAcquire()) {
+      return;
+    }
+    try {
+      MetricBatch spilled;
+      while (running && (spilled = spillBuffer.poll()) != null) {
+        try {
+          metricBatchSender.sendBatch(spilled);
+          replayedBatches.incrementAndGet();
+        } catch (RetryWithSplitException e) {
+          if (spilled.size() > 1) {
+            // the halves are replayed later in this loop
+            split(spilled).forEach(this::spillOrDrop);
+          } else {
+            dropRejected(spilled, e);
+          }
+        } catch (DiscardBatchException e) {
+          dropRejected(spilled, e);
+        } catch (ResponseException | RuntimeException e) {
+          LOG.warn("Failed to replay a spilled batch of {} metrics", spilled.size(), e);
+          spillOrDrop(spilled);
+          return;
+        }
+      }
+    } finally {
+      replayPermits.release();
+    }
+  }
+
+  private void dropRejected(MetricBatch spilled, ResponseException e) {
+    LOG.warn("Dropping a spilled batch of {} metrics that was rejected", spilled.size(), e);
+    droppedBatches.incrementAndGet();
+  }
+
+  /**
+   * Sends the batches that are still queued, waiting at most 10 seconds, then stops the worker
+   * threads.
+   */
+  @Override
+  public void shutdown() {
+    running = false;
+    workers.shutdown();
+    try {
+      if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("{} batches were still queued on shutdown", queue.size());
+        workers.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      workers.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+    if (spillBuffer != null) {
+      // batches that could not be sent in time are replayed after the next start
+      for (MetricBatch batch = queue.pollFirst(); batch != null; batch = queue.pollFirst()) {
+        spillOrDrop(batch);
+      }
+      try {
+        spillBuffer.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close the spill buffer", e);
+      }
+    }
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public long getSentBatches() {
+    return sentBatches.get();
+  }
+
+  public long getDroppedBatches() {
+    return droppedBatches.get();
+  }
+
+  public long getFailedBatches() {
+    return failedBatches.get();
+  }
+
+  public long getSpilledBatches() {
+    return spilledBatches.get();
+  }
+
+  public long getReplayedBatches() {
+    return replayedBatches.get();
+  }
+
+  @Override
+  public Map<String, Metric> getMetrics() {
+    Map<String, Metric> metrics = new HashMap<>();
+    metrics.put("queue.depth", (Gauge<Integer>) this::getQueueDepth);
+    metrics.put("batches.sent", (Gauge<Long>) this::getSentBatches);
+    metrics.put("batches.dropped", (Gauge<Long>) this::getDroppedBatches);
+    metrics.put("batches.failed", (Gauge<Long>) this::getFailedBatches);
+    if (spillBuffer != null) {
+      metrics.put("batches.spilled", (Gauge<Long>) this::getSpilledBatches);
+      metrics.put("batches.replayed", (Gauge<Long>) this::getReplayedBatches);
+      metrics.put("spill.batches", (Gauge<Integer>) spillBuffer::getBatches);
+      metrics.put("spill.bytes", (Gauge<Long>) spillBuffer::getBytes);
+      metrics.put("spill.evicted", (Gauge<Long>) spillBuffer::getEvictedBatches);
+    }
+    return metrics;
+  }
+}
@@ -0,0 +1,18 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+/** What an {@link AsyncTelemetryClient} does with a new batch when its send queue is full. */
+public enum BackpressurePolicy {
+  /** Drops the oldest queued batch to make room for the new one. */
+  DROP_OLDEST,
+  /** Blocks the harvest until a worker has taken a batch off the queue. */
+  BLOCK,
+  /** Merges the new batch into the most recently queued one. */
+  COALESCE
+}
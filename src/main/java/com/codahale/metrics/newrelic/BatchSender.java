@@ -0,0 +1,37 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.newrelic.telemetry.TelemetryClient;
+import com.newrelic.telemetry.metrics.MetricBatch;
+
+/**
+ * Takes the batches of a reporter off its hands, either the {@link TelemetryClient} of the SDK or
+ * an {@link AsyncTelemetryClient}.
+ */
+interface BatchSender {
+
+  static BatchSender of(TelemetryClient telemetryClient) {
+    return new BatchSender() {
+      @Override
+      public void sendBatch(MetricBatch batch) {
+        telemetryClient.sendBatch(batch);
+      }
+
+      @Override
+      public void shutdown() {
+        telemetryClient.shutdown();
+      }
+    };
+  }
+
+  void sendBatch(MetricBatch batch);
+
+  /** Stops sending and releases the threads of the sender. */
+  void shutdown();
+}
@@ -0,0 +1,50 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.newrelic.util.TimeTracker;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Decides which metric types are harvested by each report when some types are only reported every
+ * few reporter periods. Each such type has its own {@link TimeTracker}, which is only ticked when
+ * the type is harvested, so that its counts cover the time since the type was last reported.
+ */
+class HarvestSchedule {
+
+  private final Map<MetricType, Integer> periods;
+  private final Map<MetricType, TimeTracker> timeTrackers;
+  private long harvest;
+
+  /**
+   * @param periods the number of reporter periods between harvests of each type. Types that are not
+   *     in the map are harvested on every report.
+   * @param timeTrackers the time tracker used by the transformer of each type in {@code periods}
+   */
+  HarvestSchedule(Map<MetricType, Integer> periods, Map<MetricType, TimeTracker> timeTrackers) {
+    this.periods = new EnumMap<>(periods);
+    this.timeTrackers = new EnumMap<>(timeTrackers);
+  }
+
+  boolean isDue(MetricType type) {
+    Integer period = periods.get(type);
+    return period == null || harvest % period == 0;
+  }
+
+  /** Ticks the time trackers of the types harvested by this report and moves on to the next. */
+  void endHarvest() {
+    timeTrackers.forEach(
+        (type, timeTracker) -> {
+          if (isDue(type)) {
+            timeTracker.tick();
+          }
+        });
+    harvest++;
+  }
+}
@@ -0,0 +1,17 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+/** The types of DropWizard metrics that the reporter harvests. */
+public enum MetricType {
+  GAUGE,
+  COUNTER,
+  HISTOGRAM,
+  METER,
+  TIMER
+}
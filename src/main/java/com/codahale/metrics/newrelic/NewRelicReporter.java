@@ -7,9 +7,6 @@
 
 package com.codahale.metrics.newrelic;
 
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.toList;
-
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
@@ -25,20 +22,30 @@ import com.codahale.metrics.newrelic.transformer.GaugeTransformer;
 import com.codahale.metrics.newrelic.transformer.HistogramTransformer;
 import com.codahale.metrics.newrelic.transformer.MeterTransformer;
 import com.codahale.metrics.newrelic.transformer.TimerTransformer;
+import com.codahale.metrics.newrelic.util.BatchSplitter;
+import com.codahale.metrics.newrelic.util.CardinalityLimiter;
+import com.codahale.metrics.newrelic.util.ChangedMetricsFilter;
+import com.codahale.metrics.newrelic.util.MetricAggregator;
 import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.TelemetryClient;
 import com.newrelic.telemetry.metrics.Metric;
 import com.newrelic.telemetry.metrics.MetricBatch;
 import com.newrelic.telemetry.metrics.MetricBatchSender;
-import java.util.Collection;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,10 +53,11 @@ import org.slf4j.LoggerFactory;
 public class NewRelicReporter extends ScheduledReporter {
 
   private static final Logger LOG = LoggerFactory.getLogger(NewRelicReporter.class);
-  private static final String implementationVersion;
+  static final String implementationVersion;
 
   private final TimeTracker timeTracker;
-  private final TelemetryClient sender;
+  // null when the payloads are streamed
+  private final BatchSender sender;
   private final Attributes commonAttributes;
   private final HistogramTransformer histogramTransformer;
   private final GaugeTransformer gaugeTransformer;
@@ -57,6 +65,23 @@ public class NewRelicReporter extends ScheduledReporter {
   private final MeterTransformer meterTransformer;
   private final TimerTransformer timerTransformer;
   private final MetricRegistry registry;
+  // the optional stages below are null unless they have been enabled on the builder
+  private final Executor harvestExecutor;
+  private final int harvestChunkSize;
+  private final ChangedMetricsFilter changedMetricsFilter;
+  private final BatchSplitter batchSplitter;
+  private final MetricAggregator metricAggregator;
+  private final HarvestSchedule harvestSchedule;
+  private final RegistryIndex registryIndex;
+  private final ReporterMetrics reporterMetrics;
+  private final StreamingSender streamingSender;
+  private final CardinalityLimiter cardinalityLimiter;
+  private final StateSweeper stateSweeper;
+  private final List<Closeable> closeables;
+  // whether the registry index is listening to the registry, i.e. the reporter has been started
+  private volatile boolean indexing;
+  // size of the previous batch, used to pre-size the next one
+  private int lastBatchSize = 16;
 
   static {
     Package thisPackage = NewRelicReporter.class.getPackage();
@@ -79,6 +104,74 @@ public class NewRelicReporter extends ScheduledReporter {
       MeterTransformer meterTransformer,
       TimerTransformer timerTransformer,
       Set<MetricAttribute> disabledMetricAttributes) {
+    this(
+        timeTracker,
+        registry,
+        name,
+        filter,
+        rateUnit,
+        durationUnit,
+        sender,
+        commonAttributes,
+        histogramTransformer,
+        gaugeTransformer,
+        counterTransformer,
+        meterTransformer,
+        timerTransformer,
+        disabledMetricAttributes,
+        new ReporterOptions());
+  }
+
+  NewRelicReporter(
+      TimeTracker timeTracker,
+      MetricRegistry registry,
+      String name,
+      MetricFilter filter,
+      TimeUnit rateUnit,
+      TimeUnit durationUnit,
+      TelemetryClient sender,
+      Attributes commonAttributes,
+      HistogramTransformer histogramTransformer,
+      GaugeTransformer gaugeTransformer,
+      CounterTransformer counterTransformer,
+      MeterTransformer meterTransformer,
+      TimerTransformer timerTransformer,
+      Set<MetricAttribute> disabledMetricAttributes,
+      ReporterOptions options) {
+    this(
+        timeTracker,
+        registry,
+        name,
+        filter,
+        rateUnit,
+        durationUnit,
+        sender == null ? null : BatchSender.of(sender),
+        commonAttributes,
+        histogramTransformer,
+        gaugeTransformer,
+        counterTransformer,
+        meterTransformer,
+        timerTransformer,
+        disabledMetricAttributes,
+        options);
+  }
+
+  NewRelicReporter(
+      TimeTracker timeTracker,
+      MetricRegistry registry,
+      String name,
+      MetricFilter filter,
+      TimeUnit rateUnit,
+      TimeUnit durationUnit,
+      BatchSender sender,
+      Attributes commonAttributes,
+      HistogramTransformer histogramTransformer,
+      GaugeTransformer gaugeTransformer,
+      CounterTransformer counterTransformer,
+      MeterTransformer meterTransformer,
+      TimerTransformer timerTransformer,
+      Set<MetricAttribute> disabledMetricAttributes,
+      ReporterOptions options) {
     super(registry, name, filter, rateUnit, durationUnit, null, true, disabledMetricAttributes);
     this.registry = registry;
     this.timeTracker = timeTracker;
@@ -94,11 +187,28 @@ public class NewRelicReporter extends ScheduledReporter {
     this.counterTransformer = counterTransformer;
     this.meterTransformer = meterTransformer;
     this.timerTransformer = timerTransformer;
+    this.harvestExecutor = options.getHarvestExecutor();
+    this.harvestChunkSize = options.getHarvestChunkSize();
+    this.changedMetricsFilter = options.getChangedMetricsFilter();
+    this.batchSplitter = options.getBatchSplitter();
+    this.registryIndex = options.getRegistryIndex();
+    this.metricAggregator = options.getMetricAggregator();
+    this.harvestSchedule = options.getHarvestSchedule();
+    this.reporterMetrics = options.getReporterMetrics();
+    this.streamingSender = options.getStreamingSender();
+    this.cardinalityLimiter = options.getCardinalityLimiter();
+    this.stateSweeper = options.getStateSweeper();
+    this.closeables = new ArrayList<>(options.getCloseables());
   }
 
   @Override
   public synchronized void start(long initialDelay, long period, TimeUnit unit) {
     allMetricTransformers().forEach(registry::addListener);
+    if (registryIndex != null) {
+      // adding the listener replays the metrics already in the registry
+      registry.addListener(registryIndex);
+      indexing = true;
+    }
     LOG.info("New Relic Reporter: Version " + implementationVersion + " is starting");
     super.start(initialDelay, period, unit);
   }
@@ -106,6 +216,11 @@ public class NewRelicReporter extends ScheduledReporter {
   @Override
   public void stop() {
     allMetricTransformers().forEach(registry::removeListener);
+    if (registryIndex != null) {
+      indexing = false;
+      registry.removeListener(registryIndex);
+      registryIndex.clear();
+    }
     super.stop();
   }
 
@@ -119,6 +234,26 @@ public class NewRelicReporter extends ScheduledReporter {
         counterTransformer);
   }
 
+  /**
+   * Reports the metrics of the registry index when it is enabled and the reporter is started, and
+   * otherwise lets {@link ScheduledReporter} copy the filtered metrics out of the registry.
+   */
+  @Override
+  public void report() {
+    if (!indexing) {
+      super.report();
+      return;
+    }
+    synchronized (this) {
+      report(
+          registryIndex.gauges(),
+          registryIndex.counters(),
+          registryIndex.histograms(),
+          registryIndex.meters(),
+          registryIndex.timers());
+    }
+  }
+
   @Override
   public void report(
       SortedMap<String, Gauge> gauges,
@@ -126,32 +261,214 @@ public class NewRelicReporter extends ScheduledReporter {
       SortedMap<String, Histogram> histograms,
       SortedMap<String, Meter> meters,
       SortedMap<String, Timer> timers) {
+    long reportStart = reporterMetrics == null ? 0 : System.nanoTime();
+    if (harvestSchedule != null) {
+      gauges = due(MetricType.GAUGE, gauges);
+      counters = due(MetricType.COUNTER, counters);
+      histograms = due(MetricType.HISTOGRAM, histograms);
+      meters = due(MetricType.METER, meters);
+      timers = due(MetricType.TIMER, timers);
+    }
+    if (stateSweeper != null) {
+      stateSweeper.harvested(MetricType.GAUGE, gauges.keySet());
+      stateSweeper.harvested(MetricType.COUNTER, counters.keySet());
+      stateSweeper.harvested(MetricType.HISTOGRAM, histograms.keySet());
+      stateSweeper.harvested(MetricType.METER, meters.keySet());
+      stateSweeper.harvested(MetricType.TIMER, timers.keySet());
+    }
+    gaugeTransformer.startHarvest(gauges);
+    if (streamingSender != null) {
+      reportStreaming(gauges, counters, histograms, meters, timers, reportStart);
+      return;
+    }
+
+    // The batch is handed off to the sender asynchronously, so a fresh list is needed every
+    // harvest. Sizing it from the previous harvest avoids regrowing it for stable registries.
+    List<Metric> metrics = new ArrayList<>(lastBatchSize);
+    long now = timeTracker.getCurrentTime();
+    if (harvestExecutor == null) {
+      Consumer<Metric> sink = sink(metrics::add, now);
+      transformAll(MetricType.GAUGE, gauges, gaugeTransformer, sink, metrics::size);
+      transformAll(MetricType.HISTOGRAM, histograms, histogramTransformer, sink, metrics::size);
+      transformAll(MetricType.COUNTER, counters, counterTransformer, sink, metrics::size);
+      transformAll(MetricType.METER, meters, meterTransformer, sink, metrics::size);
+      transformAll(MetricType.TIMER, timers, timerTransformer, sink, metrics::size);
+      flushOverflow(metrics::add, now);
+    } else {
+      List<CompletableFuture<List<Metric>>> chunks = new ArrayList<>();
+      submitChunks(MetricType.GAUGE, gauges, gaugeTransformer, now, chunks);
+      submitChunks(MetricType.HISTOGRAM, histograms, histogramTransformer, now, chunks);
+      submitChunks(MetricType.COUNTER, counters, counterTransformer, now, chunks);
+      submitChunks(MetricType.METER, meters, meterTransformer, now, chunks);
+      submitChunks(MetricType.TIMER, timers, timerTransformer, now, chunks);
+      // joining in submission order keeps the batch identical to a sequential harvest
+      chunks.forEach(chunk -> metrics.addAll(chunk.join()));
+      flushOverflow(metrics::add, now);
+    }
+    lastBatchSize = metrics.size();
+    List<Metric> batch = metrics;
+    if (metricAggregator != null) {
+      // duplicates are merged before the changed-only filter sees them, so that it compares the
+      // merged values
+      batch = new ArrayList<>(metrics.size());
+      metricAggregator.aggregate(metrics, filtered(batch::add, now));
+    }
+    endHarvest();
+    if (batchSplitter == null) {
+      send(batch);
+    } else {
+      // the shards share the common attributes, which are only serialized once per payload
+      for (List<Metric> shard : batchSplitter.split(batch)) {
+        send(shard);
+      }
+    }
+    if (reporterMetrics != null) {
+      reporterMetrics.reported(System.nanoTime() - reportStart);
+    }
+  }
+
+  /**
+   * Writes the metrics straight into the payloads of the streaming sender as they are transformed,
+   * instead of collecting them in a batch.
+   */
+  private void reportStreaming(
+      SortedMap<String, Gauge> gauges,
+      SortedMap<String, Counter> counters,
+      SortedMap<String, Histogram> histograms,
+      SortedMap<String, Meter> meters,
+      SortedMap<String, Timer> timers,
+      long reportStart) {
+    long now = timeTracker.getCurrentTime();
+    streamingSender.begin(commonAttributes);
+    Consumer<Metric> sink = filtered(streamingSender, now);
+    IntSupplier written = streamingSender::getMetrics;
+    transformAll(MetricType.GAUGE, gauges, gaugeTransformer, sink, written);
+    transformAll(MetricType.HISTOGRAM, histograms, histogramTransformer, sink, written);
+    transformAll(MetricType.COUNTER, counters, counterTransformer, sink, written);
+    transformAll(MetricType.METER, meters, meterTransformer, sink, written);
+    transformAll(MetricType.TIMER, timers, timerTransformer, sink, written);
+    if (cardinalityLimiter != null) {
+      cardinalityLimiter.flushOverflow(filtered(streamingSender, now));
+    }
+    endHarvest();
+
+    long sendStart = reporterMetrics == null ? 0 : System.nanoTime();
+    streamingSender.send();
+    if (reporterMetrics != null) {
+      long end = System.nanoTime();
+      reporterMetrics.sent(
+          streamingSender.getMetrics(), streamingSender.getUncompressedBytes(), end - sendStart);
+      reporterMetrics.reported(end - reportStart);
+    }
+  }
 
-    List<Metric> metrics =
-        Stream.of(
-                transform(gauges, gaugeTransformer::transform),
-                transform(histograms, histogramTransformer::transform),
-                transform(counters, counterTransformer::transform),
-                transform(meters, meterTransformer::transform),
-                transform(timers, timerTransformer::transform))
-            .flatMap(identity())
-            .collect(toList());
-
-    sender.sendBatch(new MetricBatch(metrics, commonAttributes));
-    // set the previous harvest time in the tracker.
+  private void endHarvest() {
+    if (changedMetricsFilter != null) {
+      changedMetricsFilter.endHarvest();
+    }
+    if (cardinalityLimiter != null) {
+      cardinalityLimiter.endHarvest();
+    }
+    if (stateSweeper != null) {
+      stateSweeper.endHarvest();
+    }
+
+    // set the previous harvest time in the tracker before handing off the batch, so that a sender
+    // that blocks doesn't stretch the interval of the next counts.
     timeTracker.tick();
+    if (harvestSchedule != null) {
+      harvestSchedule.endHarvest();
+    }
+  }
+
+  private void send(List<Metric> batch) {
+    if (reporterMetrics == null) {
+      sender.sendBatch(new MetricBatch(batch, commonAttributes));
+      return;
+    }
+    long start = System.nanoTime();
+    sender.sendBatch(new MetricBatch(batch, commonAttributes));
+    reporterMetrics.handedOff(batch, System.nanoTime() - start);
+  }
+
+  private <T extends com.codahale.metrics.Metric> void transformAll(
+      MetricType type,
+      SortedMap<String, T> metrics,
+      DropWizardMetricTransformer<T> transformer,
+      Consumer<Metric> sink,
+      IntSupplier emitted) {
+    if (reporterMetrics == null) {
+      metrics.forEach((name, metric) -> transformer.transform(name, metric, sink));
+      return;
+    }
+    long start = System.nanoTime();
+    int emittedBefore = emitted.getAsInt();
+    metrics.forEach((name, metric) -> transformer.transform(name, metric, sink));
+    reporterMetrics.harvested(type, System.nanoTime() - start, emitted.getAsInt() - emittedBefore);
+  }
+
+  private <T extends com.codahale.metrics.Metric> SortedMap<String, T> due(
+      MetricType type, SortedMap<String, T> metrics) {
+    return harvestSchedule.isDue(type) ? metrics : Collections.<String, T>emptySortedMap();
+  }
+
+  private <T extends com.codahale.metrics.Metric> void submitChunks(
+      MetricType type,
+      SortedMap<String, T> metrics,
+      DropWizardMetricTransformer<T> transformer,
+      long now,
+      List<CompletableFuture<List<Metric>>> chunks) {
+    List<Map.Entry<String, T>> entries = new ArrayList<>(metrics.entrySet());
+    for (int start = 0; start < entries.size(); start += harvestChunkSize) {
+      List<Map.Entry<String, T>> chunk =
+          entries.subList(start, Math.min(start + harvestChunkSize, entries.size()));
+      chunks.add(
+          CompletableFuture.supplyAsync(
+              () -> {
+                long chunkStart = reporterMetrics == null ? 0 : System.nanoTime();
+                List<Metric> result = new ArrayList<>(chunk.size());
+                Consumer<Metric> sink = sink(result::add, now);
+                chunk.forEach(
+                    entry -> transformer.transform(entry.getKey(), entry.getValue(), sink));
+                if (reporterMetrics != null) {
+                  // parallel harvests record one duration per chunk
+                  reporterMetrics.harvested(type, System.nanoTime() - chunkStart, result.size());
+                }
+                return result;
+              },
+              harvestExecutor));
+    }
+  }
+
+  // the sink for the transformers, which only filters when metrics are not aggregated afterwards
+  private Consumer<Metric> sink(Consumer<Metric> batch, long now) {
+    return metricAggregator == null ? filtered(batch, now) : batch;
+  }
+
+  // the transformers hand the metrics beyond the cardinality limit to the limiter instead
+  private void flushOverflow(Consumer<Metric> batch, long now) {
+    if (cardinalityLimiter != null) {
+      cardinalityLimiter.flushOverflow(metricAggregator == null ? filtered(batch, now) : batch);
+    }
+  }
+
+  private Consumer<Metric> filtered(Consumer<Metric> batch, long now) {
+    return changedMetricsFilter == null ? batch : changedMetricsFilter.filter(batch, now);
   }
 
   @Override
   public void close() {
     super.close();
-    sender.shutdown();
-  }
-
-  private <T> Stream<Metric> transform(
-      Map<String, T> metrics, BiFunction<String, T, Collection<Metric>> supplier) {
-    return metrics.entrySet().stream()
-        .flatMap(entry -> supplier.apply(entry.getKey(), entry.getValue()).stream());
+    if (sender != null) {
+      sender.shutdown();
+    }
+    for (Closeable closeable : closeables) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close {}", closeable, e);
+      }
+    }
   }
 
   public static NewRelicReporterBuilder build(MetricRegistry registry, MetricBatchSender sender) {
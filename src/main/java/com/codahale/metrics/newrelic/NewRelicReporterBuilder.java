@@ -8,29 +8,61 @@
 package com.codahale.metrics.newrelic;
 
 import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricAttribute;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
 import com.codahale.metrics.newrelic.transformer.CounterTransformer;
+import com.codahale.metrics.newrelic.transformer.DropWizardMetricTransformer;
 import com.codahale.metrics.newrelic.transformer.GaugeTransformer;
 import com.codahale.metrics.newrelic.transformer.HistogramTransformer;
 import com.codahale.metrics.newrelic.transformer.MeterTransformer;
 import com.codahale.metrics.newrelic.transformer.TimerTransformer;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
+import com.codahale.metrics.newrelic.transformer.interfaces.ExponentialBuckets;
+import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
+import com.codahale.metrics.newrelic.transformer.interfaces.SamplingTransformer;
+import com.codahale.metrics.newrelic.transformer.interfaces.SnapshotSum;
+import com.codahale.metrics.newrelic.util.BatchSplitter;
+import com.codahale.metrics.newrelic.util.CardinalityLimiter;
+import com.codahale.metrics.newrelic.util.ChangedMetricsFilter;
+import com.codahale.metrics.newrelic.util.GaugeReader;
+import com.codahale.metrics.newrelic.util.GaugeValueCache;
+import com.codahale.metrics.newrelic.util.MetricAggregator;
+import com.codahale.metrics.newrelic.util.MetricAggregator.GaugeAggregation;
+import com.codahale.metrics.newrelic.util.SpillBuffer;
 import com.codahale.metrics.newrelic.util.TimeTracker;
+import com.codahale.metrics.newrelic.util.TimedGaugeReader;
 import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.SenderConfiguration;
 import com.newrelic.telemetry.TelemetryClient;
 import com.newrelic.telemetry.metrics.MetricBatchSender;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 public class NewRelicReporterBuilder {
 
   private final MetricRegistry registry;
+  // null when the payloads are streamed
   private final MetricBatchSender metricBatchSender;
+  // null unless the payloads are streamed
+  private final SenderConfiguration streamingConfiguration;
   private String name = "newRelicReporter";
   private MetricFilter filter = MetricFilter.ALL;
   private TimeUnit rateUnit = TimeUnit.SECONDS;
@@ -39,15 +71,73 @@ public class NewRelicReporterBuilder {
   private Set<MetricAttribute> disabledMetricAttributes = Collections.emptySet();
   private MetricNameCustomizer nameCustomizer = MetricNameCustomizer.DEFAULT;
   private MetricAttributesCustomizer attributeCustomizer = MetricAttributesCustomizer.DEFAULT;
+  private boolean cacheCustomizations = false;
+  private boolean reuseAttributes = false;
+  private SnapshotSum snapshotSum = SnapshotSum.EXACT;
+  private double[] percentiles = SamplingTransformer.defaultPercentiles();
+  // null unless bucket export is enabled
+  private ExponentialBuckets buckets = null;
+  private Executor harvestExecutor = null;
+  private int harvestChunkSize = 1000;
+  // negative unless changed-only reporting is enabled
+  private long maxStalenessMillis = -1;
+  private boolean indexRegistry = false;
+  private final Map<MetricType, Integer> reportPeriods = new EnumMap<>(MetricType.class);
+  // null unless duplicate series are aggregated
+  private GaugeAggregation gaugeAggregation = null;
+  // 0 when the number of series per name is not limited
+  private int maxSeriesPerName = 0;
+  private GaugeAggregation overflowGaugeAggregation = GaugeAggregation.MAX;
+  private int sweepHarvests = 0;
+  private int maxBatchSize = Integer.MAX_VALUE;
+  private long maxBatchBytes = Long.MAX_VALUE;
+  // null unless asynchronous sending is enabled
+  private BackpressurePolicy backpressurePolicy = null;
+  private int sendQueueCapacity;
+  private int sendWorkerCount;
+  // null unless unsent batches are spilled to disk
+  private Path spillFile = null;
+  private int spillCapacityBytes;
+  private int replayConcurrency;
+  // zero unless gauges are read with a timeout
+  private int gaugeReadThreads = 0;
+  private long gaugeTimeoutNanos;
+  private boolean serveLastGaugeValue;
+  // zero unless gauge values are cached by default
+  private long gaugeCacheTtlNanos = 0;
+  private final Map<Pattern, Long> gaugeCacheTtlOverrides = new LinkedHashMap<>();
+  // null unless the reporter records metrics about itself
+  private MetricRegistry selfMetricsRegistry = null;
+  // null unless a test replaces the client that batches are sent with
+  private BatchSender customBatchSender = null;
 
   public static NewRelicReporterBuilder forRegistry(
       MetricRegistry registry, MetricBatchSender metricBatchSender) {
-    return new NewRelicReporterBuilder(registry, metricBatchSender);
+    return new NewRelicReporterBuilder(registry, metricBatchSender, null);
   }
 
-  private NewRelicReporterBuilder(MetricRegistry registry, MetricBatchSender newRelicSender) {
+  /**
+   * Creates a builder for a reporter that writes the metrics of each harvest straight into gzipped
+   * JSON payloads as they are transformed, instead of collecting them in a batch for a {@link
+   * MetricBatchSender}. The heap used by a harvest is then bounded by the compressed payload rather
+   * than by the number of metrics. Payloads are posted on the reporter thread with the HTTP poster,
+   * endpoint, key, audit logging and secondary user agent of {@code configuration}, and are rolled
+   * over before they reach the size limit of the Metric API. Streaming can't be combined with
+   * asynchronous sending, spilling, batch splitting, aggregation of duplicates or parallel
+   * harvests.
+   */
+  public static NewRelicReporterBuilder forStreaming(
+      MetricRegistry registry, SenderConfiguration configuration) {
+    return new NewRelicReporterBuilder(registry, null, configuration);
+  }
+
+  private NewRelicReporterBuilder(
+      MetricRegistry registry,
+      MetricBatchSender newRelicSender,
+      SenderConfiguration streamingConfiguration) {
     this.registry = registry;
     this.metricBatchSender = newRelicSender;
+    this.streamingConfiguration = streamingConfiguration;
   }
 
   public NewRelicReporterBuilder name(String name) {
@@ -92,29 +182,502 @@ public class NewRelicReporterBuilder {
     return this;
   }
 
+  /**
+   * Computes the customized name and attributes of each metric once, when it is added to the
+   * registry, instead of on every harvest. Only enable this if the customizers depend solely on the
+   * metric name.
+   */
+  public NewRelicReporterBuilder cacheCustomizations(boolean cacheCustomizations) {
+    this.cacheCustomizations = cacheCustomizations;
+    return this;
+  }
+
+  /**
+   * Reuses the attributes of the percentiles, rates and buckets reported for timers, meters and
+   * histograms across harvests instead of copying the attributes of the metric for each of them on
+   * every harvest. This cuts most of the garbage of a harvest of a stable registry. It requires
+   * {@link #cacheCustomizations(boolean)}, as the reused attributes are looked up by the cached
+   * attributes of the metric itself. The metrics sent still share these attributes, so a {@link
+   * TelemetryClient} must not modify the attributes of the batches it sends.
+   */
+  public NewRelicReporterBuilder reuseAttributes(boolean reuseAttributes) {
+    this.reuseAttributes = reuseAttributes;
+    return this;
+  }
+
+  /**
+   * How the sum reported for timers and histograms is computed from their snapshot. Defaults to
+   * {@link SnapshotSum#EXACT}; {@link SnapshotSum#MEAN_TIMES_SIZE} avoids copying the values of
+   * large reservoirs.
+   */
+  public NewRelicReporterBuilder snapshotSum(SnapshotSum snapshotSum) {
+    this.snapshotSum = snapshotSum;
+    return this;
+  }
+
+  /**
+   * The percentiles reported for timers and histograms, as quantiles between 0 and 1 (0.5 for the
+   * median, 0.99 for the 99th percentile). Defaults to 0.5, 0.75, 0.95, 0.98, 0.99 and 0.999. Pass
+   * no percentiles to only report the summary of each timer and histogram.
+   */
+  public NewRelicReporterBuilder percentiles(double... percentiles) {
+    this.percentiles = percentiles.clone();
+    return this;
+  }
+
+  /**
+   * Also reports the distribution of the values of each timer and histogram as the number of
+   * values in exponential buckets whose bounds grow by {@code base} (2 gives buckets up to 1, 2, 4,
+   * 8 and so on, in the duration unit for timers). Unlike percentiles, the bucket counts of several
+   * instances can be added up. Only timers and histograms with uniform or sliding window reservoirs
+   * are bucketed, as the samples of exponentially decaying reservoirs are weighted. Each non-empty
+   * bucket is a gauge of its own, so buckets make payloads larger, even when combined with {@code
+   * percentiles()} to report them instead of the percentiles.
+   */
+  public NewRelicReporterBuilder exponentialBuckets(double base) {
+    this.buckets = new ExponentialBuckets(base);
+    return this;
+  }
+
+  /**
+   * Transforms the registry on the given executor (a {@link java.util.concurrent.ForkJoinPool}
+   * works well) instead of on the reporter thread. Each metric type is split into chunks of {@link
+   * #harvestChunkSize(int)} metrics that are transformed concurrently and merged back in registry
+   * order, so the resulting batch is the same as for a sequential harvest. The executor is not
+   * shut down by the reporter.
+   */
+  public NewRelicReporterBuilder harvestExecutor(Executor harvestExecutor) {
+    this.harvestExecutor = harvestExecutor;
+    return this;
+  }
+
+  /** The number of metrics per parallel harvest task. Defaults to 1000. */
+  public NewRelicReporterBuilder harvestChunkSize(int harvestChunkSize) {
+    if (harvestChunkSize < 1) {
+      throw new IllegalArgumentException("harvestChunkSize must be positive: " + harvestChunkSize);
+    }
+    this.harvestChunkSize = harvestChunkSize;
+    return this;
+  }
+
+  /**
+   * Only reports metrics whose value changed since they were last reported: counts with a non-zero
+   * delta, and gauges and summaries with a new value. Unchanged metrics are still reported once
+   * every {@code maxStaleness}, so that dashboards don't show gaps.
+   */
+  public NewRelicReporterBuilder reportChangedOnly(long maxStaleness, TimeUnit unit) {
+    if (maxStaleness < 0) {
+      throw new IllegalArgumentException("maxStaleness must not be negative: " + maxStaleness);
+    }
+    this.maxStalenessMillis = unit.toMillis(maxStaleness);
+    return this;
+  }
+
+  /**
+   * Keeps an index of the filtered metrics, updated as metrics are added to and removed from the
+   * registry, instead of copying and filtering the whole registry on every report. Only enable this
+   * if the filter depends solely on the metric name and type, as it is evaluated once per metric.
+   */
+  public NewRelicReporterBuilder indexRegistry(boolean indexRegistry) {
+    this.indexRegistry = indexRegistry;
+    return this;
+  }
+
+  /**
+   * Reports at most {@code maxSeriesPerName} distinct attribute sets per metric name, as a guard
+   * against attribute customizers that turn unbounded values such as request ids into attributes.
+   * The limit applies to the customized attributes of each DropWizard metric. Metrics with any
+   * further attribute set are reported as a whole with the attribute {@code series=other}, so their
+   * percentiles, rates and buckets stay apart, and are merged into one series per name, in which
+   * the highest value of overflowing gauges is reported. With {@link #selfMetrics(MetricRegistry)},
+   * the number of merged DropWizard metrics is counted in {@code series.overflow}.
+   */
+  public NewRelicReporterBuilder limitCardinality(int maxSeriesPerName) {
+    return limitCardinality(maxSeriesPerName, GaugeAggregation.MAX);
+  }
+
+  /**
+   * Like {@link #limitCardinality(int)}, but combines the values of overflowing gauges according
+   * to {@code gaugeAggregation}.
+   */
+  public NewRelicReporterBuilder limitCardinality(
+      int maxSeriesPerName, GaugeAggregation gaugeAggregation) {
+    if (maxSeriesPerName < 1) {
+      throw new IllegalArgumentException("maxSeriesPerName must be positive: " + maxSeriesPerName);
+    }
+    this.maxSeriesPerName = maxSeriesPerName;
+    this.overflowGaugeAggregation = gaugeAggregation;
+    return this;
+  }
+
+  /**
+   * Forgets the state that the reporter keeps per metric, such as previous counts, cached
+   * customizations and reported series, for metrics that were not reported for {@code harvests}
+   * harvests of their type. This bounds the memory of the reporter when metrics disappear without
+   * being removed from the registry, for example when the filter or a wrapped registry stops
+   * returning them. A metric that comes back is reported as if it was new. With {@link
+   * #selfMetrics(MetricRegistry)}, the number of forgotten metrics is counted in {@code
+   * state.evicted}, and the number of kept entries and an estimate of their heap usage are reported
+   * in {@code state.entries} and {@code state.bytes}.
+   */
+  public NewRelicReporterBuilder sweepStateAfter(int harvests) {
+    if (harvests < 1) {
+      throw new IllegalArgumentException("harvests must be positive: " + harvests);
+    }
+    this.sweepHarvests = harvests;
+    return this;
+  }
+
+  /**
+   * Merges metrics that end up with the same name and attributes, for example because the name
+   * customizer strips instance ids, into a single metric per harvest. Counts are added up,
+   * summaries are combined and gauges are combined according to {@code gaugeAggregation}.
+   */
+  public NewRelicReporterBuilder aggregateDuplicates(GaugeAggregation gaugeAggregation) {
+    this.gaugeAggregation = gaugeAggregation;
+    return this;
+  }
+
+  /**
+   * Splits each harvest into batches of at most {@code maxBatchSize} metrics. The batches are sent
+   * separately, and concurrently when {@link #asyncSend} is used with several workers.
+   */
+  public NewRelicReporterBuilder maxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+    }
+    this.maxBatchSize = maxBatchSize;
+    return this;
+  }
+
+  /**
+   * Splits each harvest into batches whose JSON payload is estimated to be at most {@code
+   * maxBatchBytes} bytes before compression. Can be combined with {@link #maxBatchSize(int)}.
+   */
+  public NewRelicReporterBuilder maxBatchBytes(long maxBatchBytes) {
+    if (maxBatchBytes < 1) {
+      throw new IllegalArgumentException("maxBatchBytes must be positive: " + maxBatchBytes);
+    }
+    this.maxBatchBytes = maxBatchBytes;
+    return this;
+  }
+
+  /**
+   * Hands batches to a bounded queue that {@code workerCount} threads drain, so that the harvest
+   * never waits for the network. When the queue holds {@code queueCapacity} batches, new batches
+   * are handled according to the {@code backpressurePolicy}. {@link BackpressurePolicy#COALESCE}
+   * merges batches up to {@link #maxBatchSize(int)} metrics, or 100,000 by default. With {@link
+   * #selfMetrics(MetricRegistry)}, the queue depth and the number of sent, dropped and failed
+   * batches are registered as gauges prefixed with {@code newrelic.reporter.sender}.
+   */
+  public NewRelicReporterBuilder asyncSend(
+      int queueCapacity, int workerCount, BackpressurePolicy backpressurePolicy) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+    }
+    if (workerCount < 1) {
+      throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+    }
+    this.sendQueueCapacity = queueCapacity;
+    this.sendWorkerCount = workerCount;
+    this.backpressurePolicy = backpressurePolicy;
+    return this;
+  }
+
+  /**
+   * Keeps the batches that fail to send, or that {@link BackpressurePolicy#DROP_OLDEST} pushes out
+   * of the send queue, in a memory-mapped ring buffer of {@code capacityBytes} bytes in {@code
+   * file} rather than dropping them. The oldest spilled batches are evicted when the buffer is
+   * full. Once sending succeeds again, up to {@code replayConcurrency} workers replay the spilled
+   * batches. Requires {@link #asyncSend(int, int, BackpressurePolicy)}.
+   */
+  public NewRelicReporterBuilder spillTo(Path file, int capacityBytes, int replayConcurrency) {
+    if (capacityBytes < 1) {
+      throw new IllegalArgumentException("capacityBytes must be positive: " + capacityBytes);
+    }
+    if (replayConcurrency < 1) {
+      throw new IllegalArgumentException(
+          "replayConcurrency must be positive: " + replayConcurrency);
+    }
+    this.spillFile = file;
+    this.spillCapacityBytes = capacityBytes;
+    this.replayConcurrency = replayConcurrency;
+    return this;
+  }
+
+  /**
+   * Only reports metrics of the given type every {@code periods} reporter periods, for example to
+   * report expensive timers less often than counters. Counts of that type then cover the time since
+   * the type was last reported.
+   */
+  public NewRelicReporterBuilder reportEvery(MetricType type, int periods) {
+    if (periods < 1) {
+      throw new IllegalArgumentException("periods must be positive: " + periods);
+    }
+    if (periods == 1) {
+      reportPeriods.remove(type);
+    } else {
+      reportPeriods.put(type, periods);
+    }
+    return this;
+  }
+
+  /**
+   * Records metrics about the reporter itself in {@code selfMetricsRegistry}, prefixed with {@code
+   * newrelic.reporter}: the harvest duration and number of emitted metrics per metric type, the
+   * duration of each report, how long sending each batch blocks the report, the size and estimated
+   * uncompressed payload bytes of each batch, and the number of gauges dropped because of null or
+   * non-numeric values. Passing the reported registry sends these metrics to New Relic as well.
+   */
+  public NewRelicReporterBuilder selfMetrics(MetricRegistry selfMetricsRegistry) {
+    this.selfMetricsRegistry = selfMetricsRegistry;
+    return this;
+  }
+
+  /**
+   * Reads gauge values on a pool of {@code threads} threads and waits at most {@code timeout} for
+   * each of them, so that a gauge that blocks can't delay the rest of the harvest. A gauge that
+   * times out is reported with the last value it returned in time if {@code serveLastValue} is set,
+   * and skipped otherwise. Timeouts are counted in the {@link #selfMetrics(MetricRegistry) self
+   * metrics}.
+   */
+  public NewRelicReporterBuilder gaugeTimeout(
+      long timeout, TimeUnit unit, int threads, boolean serveLastValue) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    this.gaugeTimeoutNanos = unit.toNanos(timeout);
+    this.gaugeReadThreads = threads;
+    this.serveLastGaugeValue = serveLastValue;
+    return this;
+  }
+
+  /**
+   * Caches the values of gauges for {@code ttl}, so that expensive gauges aren't called on every
+   * harvest. Values that harvests keep reading are refreshed in the background every three
+   * quarters of {@code ttl}.
+   */
+  public NewRelicReporterBuilder cacheGaugeValues(long ttl, TimeUnit unit) {
+    if (ttl < 0) {
+      throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+    }
+    this.gaugeCacheTtlNanos = unit.toNanos(ttl);
+    return this;
+  }
+
+  /**
+   * Caches the values of the gauges whose registry name matches the regular expression {@code
+   * namePattern} for {@code ttl} instead of the default of {@link #cacheGaugeValues(long,
+   * TimeUnit)}. A ttl of zero disables caching for those gauges. Patterns are matched in the order
+   * they were added.
+   */
+  public NewRelicReporterBuilder cacheGaugeValues(String namePattern, long ttl, TimeUnit unit) {
+    if (ttl < 0) {
+      throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+    }
+    gaugeCacheTtlOverrides.put(Pattern.compile(namePattern), unit.toNanos(ttl));
+    return this;
+  }
+
+  // exists for testing
+  NewRelicReporterBuilder batchSender(BatchSender batchSender) {
+    this.customBatchSender = batchSender;
+    return this;
+  }
+
   public NewRelicReporter build() {
+    if (reuseAttributes && !cacheCustomizations) {
+      throw new IllegalStateException("reuseAttributes requires cacheCustomizations");
+    }
+    ReporterMetrics reporterMetrics =
+        selfMetricsRegistry == null ? null : new ReporterMetrics(selfMetricsRegistry);
+    // series of types that are reported less often must be remembered between their harvests
+    int keptHarvests = reportPeriods.values().stream().mapToInt(Integer::intValue).max().orElse(1);
+    CardinalityLimiter cardinalityLimiter =
+        maxSeriesPerName == 0
+            ? null
+            : new CardinalityLimiter(
+                maxSeriesPerName,
+                keptHarvests,
+                overflowGaugeAggregation,
+                reporterMetrics == null ? new Counter() : reporterMetrics.overflowedSeries());
+    // registry names are unique across metric types, so all transformers can share one cache
+    MetricCustomizations customizations =
+        cacheCustomizations
+            ? MetricCustomizations.cached(nameCustomizer, attributeCustomizer)
+            : MetricCustomizations.uncached(nameCustomizer, attributeCustomizer);
+    if (cardinalityLimiter != null) {
+      // the transformers check each metric against the limit before deriving anything from it
+      customizations = customizations.limitCardinality(cardinalityLimiter);
+    }
+
     long rateFactor = rateUnit.toSeconds(1);
     double durationFactor = durationUnit.toNanos(1);
     Predicate<MetricAttribute> metricAttributePredicate =
         attr -> !disabledMetricAttributes.contains(attr);
 
     TimeTracker timeTracker = new TimeTracker(Clock.defaultClock());
+    // types that are reported less often track the time since they were last reported themselves
+    Map<MetricType, TimeTracker> timeTrackers = new EnumMap<>(MetricType.class);
+    for (MetricType type : reportPeriods.keySet()) {
+      timeTrackers.put(type, new TimeTracker(Clock.defaultClock()));
+    }
+    TimeTracker histogramTimeTracker = timeTrackers.getOrDefault(MetricType.HISTOGRAM, timeTracker);
+    TimeTracker meterTimeTracker = timeTrackers.getOrDefault(MetricType.METER, timeTracker);
+    TimeTracker timerTimeTracker = timeTrackers.getOrDefault(MetricType.TIMER, timeTracker);
+
+    ExponentialBuckets reportedBuckets =
+        buckets == null ? null : new ExponentialBuckets(buckets.getBase(), reuseAttributes);
+    SamplingTransformer timerSamplingTransformer =
+        new SamplingTransformer(
+            timerTimeTracker,
+            durationFactor,
+            snapshotSum,
+            percentiles,
+            reportedBuckets,
+            reuseAttributes);
+    SamplingTransformer histogramSamplingTransformer =
+        new SamplingTransformer(
+            histogramTimeTracker, 1L, snapshotSum, percentiles, reportedBuckets, reuseAttributes);
     MeterTransformer meterTransformer =
         MeterTransformer.build(
-            timeTracker, rateFactor, metricAttributePredicate, nameCustomizer, attributeCustomizer);
+            new MeteredTransformer(rateFactor, metricAttributePredicate, reuseAttributes),
+            meterTimeTracker,
+            customizations);
     TimerTransformer timerTransformer =
         TimerTransformer.build(
-            timeTracker,
-            rateFactor,
-            durationFactor,
-            metricAttributePredicate,
-            nameCustomizer,
-            attributeCustomizer);
-    GaugeTransformer gaugeTransformer = new GaugeTransformer(nameCustomizer, attributeCustomizer);
-    CounterTransformer counterTransformer =
-        new CounterTransformer(nameCustomizer, attributeCustomizer);
+            timerSamplingTransformer,
+            new MeteredTransformer(rateFactor, metricAttributePredicate, reuseAttributes),
+            timerTimeTracker,
+            customizations);
+    TimedGaugeReader timedGaugeReader =
+        gaugeReadThreads == 0
+            ? null
+            : new TimedGaugeReader(
+                gaugeReadThreads,
+                gaugeTimeoutNanos,
+                TimeUnit.NANOSECONDS,
+                serveLastGaugeValue,
+                reporterMetrics == null ? new Counter() : reporterMetrics.timedOutGauges());
+    GaugeReader gaugeReader = timedGaugeReader == null ? GaugeReader.DIRECT : timedGaugeReader;
+    GaugeValueCache gaugeValueCache = null;
+    if (gaugeCacheTtlNanos > 0 || !gaugeCacheTtlOverrides.isEmpty()) {
+      // cached values are refreshed through the timed reader, off the harvesting thread
+      gaugeValueCache =
+          new GaugeValueCache(gaugeReader, gaugeCacheTtlNanos, gaugeCacheTtlOverrides);
+      gaugeReader = gaugeValueCache;
+    }
+    GaugeTransformer gaugeTransformer =
+        new GaugeTransformer(
+            Clock.defaultClock(),
+            customizations,
+            reporterMetrics == null ? new Counter() : reporterMetrics.droppedGauges(),
+            gaugeReader);
+    CounterTransformer counterTransformer = new CounterTransformer(customizations);
     HistogramTransformer histogramTransformer =
-        HistogramTransformer.build(timeTracker, nameCustomizer, attributeCustomizer);
+        HistogramTransformer.build(
+            histogramSamplingTransformer, histogramTimeTracker, customizations);
+
+    ChangedMetricsFilter changedMetricsFilter =
+        maxStalenessMillis < 0 ? null : new ChangedMetricsFilter(maxStalenessMillis, keptHarvests);
+    StateSweeper stateSweeper = null;
+    if (sweepHarvests > 0) {
+      Map<MetricType, DropWizardMetricTransformer<?>> transformers =
+          new EnumMap<>(MetricType.class);
+      transformers.put(MetricType.GAUGE, gaugeTransformer);
+      transformers.put(MetricType.COUNTER, counterTransformer);
+      transformers.put(MetricType.HISTOGRAM, histogramTransformer);
+      transformers.put(MetricType.METER, meterTransformer);
+      transformers.put(MetricType.TIMER, timerTransformer);
+      List<IntSupplier> stateSizes = new ArrayList<>();
+      stateSizes.add(customizations::size);
+      if (changedMetricsFilter != null) {
+        stateSizes.add(changedMetricsFilter::size);
+      }
+      if (cardinalityLimiter != null) {
+        stateSizes.add(cardinalityLimiter::size);
+      }
+      // the sweeper counts reporter periods, while types that are reported less often are only
+      // harvested every few of them
+      stateSweeper =
+          new StateSweeper(
+              sweepHarvests * keptHarvests,
+              transformers,
+              stateSizes,
+              reporterMetrics == null ? new Counter() : reporterMetrics.evictedState());
+      if (reporterMetrics != null) {
+        reporterMetrics.trackState(stateSweeper);
+      }
+    }
+
+    if (spillFile != null && backpressurePolicy == null) {
+      throw new IllegalStateException("spillTo requires asyncSend");
+    }
+    if (streamingConfiguration != null
+        && (backpressurePolicy != null
+            || maxBatchSize != Integer.MAX_VALUE
+            || maxBatchBytes != Long.MAX_VALUE
+            || gaugeAggregation != null
+            || harvestExecutor != null)) {
+      throw new IllegalStateException(
+          "forStreaming can't be combined with asyncSend, maxBatchSize, maxBatchBytes,"
+              + " aggregateDuplicates or harvestExecutor");
+    }
+    // a streaming reporter posts its payloads itself
+    BatchSender batchSender = null;
+    if (streamingConfiguration == null && customBatchSender != null) {
+      batchSender = customBatchSender;
+    } else if (streamingConfiguration == null) {
+      batchSender =
+          backpressurePolicy == null
+              ? BatchSender.of(new TelemetryClient(metricBatchSender, null, null, null))
+              : new AsyncTelemetryClient(
+                  metricBatchSender,
+                  sendQueueCapacity,
+                  sendWorkerCount,
+                  backpressurePolicy,
+                  spillBuffer(),
+                  replayConcurrency,
+                  maxBatchSize == Integer.MAX_VALUE
+                      ? AsyncTelemetryClient.DEFAULT_MAX_COALESCED_METRICS
+                      : maxBatchSize);
+    }
+    if (reporterMetrics != null && batchSender instanceof MetricSet) {
+      reporterMetrics.trackSender((MetricSet) batchSender);
+    }
+
+    ReporterOptions options =
+        new ReporterOptions()
+            .harvestExecutor(harvestExecutor, harvestChunkSize)
+            .changedMetricsFilter(changedMetricsFilter)
+            .reporterMetrics(reporterMetrics)
+            .cardinalityLimiter(cardinalityLimiter)
+            .stateSweeper(stateSweeper);
+    if (maxBatchSize != Integer.MAX_VALUE || maxBatchBytes != Long.MAX_VALUE) {
+      options.batchSplitter(new BatchSplitter(maxBatchSize, maxBatchBytes));
+    }
+    if (indexRegistry) {
+      options.registryIndex(new RegistryIndex(filter));
+    }
+    if (gaugeAggregation != null) {
+      options.metricAggregator(new MetricAggregator(gaugeAggregation));
+    }
+    if (!reportPeriods.isEmpty()) {
+      options.harvestSchedule(new HarvestSchedule(reportPeriods, timeTrackers));
+    }
+    if (streamingConfiguration != null) {
+      options.streamingSender(new StreamingSender(streamingConfiguration));
+    }
+    // the cache stops refreshing before the reader it refreshes through is closed
+    if (gaugeValueCache != null) {
+      options.closeOnClose(gaugeValueCache);
+    }
+    if (timedGaugeReader != null) {
+      options.closeOnClose(timedGaugeReader);
+    }
 
     return new NewRelicReporter(
         timeTracker,
@@ -123,13 +686,25 @@ public class NewRelicReporterBuilder {
         filter,
         rateUnit,
         durationUnit,
-        new TelemetryClient(metricBatchSender, null, null, null),
+        batchSender,
         commonAttributes,
         histogramTransformer,
         gaugeTransformer,
         counterTransformer,
         meterTransformer,
         timerTransformer,
-        disabledMetricAttributes);
+        disabledMetricAttributes,
+        options);
+  }
+
+  private SpillBuffer spillBuffer() {
+    if (spillFile == null) {
+      return null;
+    }
+    try {
+      return new SpillBuffer(spillFile, spillCapacityBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open the spill file " + spillFile, e);
+    }
   }
 }
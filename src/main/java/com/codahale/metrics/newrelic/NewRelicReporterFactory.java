@@ -29,6 +29,18 @@ public class NewRelicReporterFactory extends BaseReporterFactory {
   @Valid @NotNull @JsonProperty
   private EnumSet<MetricAttribute> disabledMetricAttributes = EnumSet.noneOf(MetricAttribute.class);
 
+  // quantiles between 0 and 1; null for the reporter's default percentiles
+  @JsonProperty private double[] percentiles = null;
+
+  // null unless the distribution should be reported in exponential buckets
+  @JsonProperty private Double exponentialBucketBase = null;
+
+  // whether payloads are written while metrics are transformed instead of sent as batches
+  @JsonProperty private boolean streaming = false;
+
+  // null unless the number of series per metric name is limited
+  @JsonProperty private Integer maxSeriesPerName = null;
+
   @Override
   @NotNull
   public ScheduledReporter build(final MetricRegistry registry) {
@@ -49,14 +61,29 @@ public class NewRelicReporterFactory extends BaseReporterFactory {
           attributes.put(entry.getKey(), (Boolean) entry.getValue());
       }
     }
-    MetricBatchSender metricBatchSender = MetricBatchSender.create(config.build());
-    return NewRelicReporterBuilder.forRegistry(registry, metricBatchSender)
+    // a streaming reporter posts its payloads itself, without a MetricBatchSender
+    SenderConfiguration senderConfiguration = config.build();
+    NewRelicReporterBuilder builder =
+        streaming
+            ? NewRelicReporterBuilder.forStreaming(registry, senderConfiguration)
+            : NewRelicReporterBuilder.forRegistry(
+                registry, MetricBatchSender.create(senderConfiguration));
+    builder
         .durationUnit(getDurationUnit())
         .rateUnit(getRateUnit())
         .filter(getFilter())
         .commonAttributes(attributes)
-        .disabledMetricAttributes(disabledMetricAttributes)
-        .build();
+        .disabledMetricAttributes(disabledMetricAttributes);
+    if (percentiles != null) {
+      builder.percentiles(percentiles);
+    }
+    if (exponentialBucketBase != null) {
+      builder.exponentialBuckets(exponentialBucketBase);
+    }
+    if (maxSeriesPerName != null) {
+      builder.limitCardinality(maxSeriesPerName);
+    }
+    return builder.build();
   }
 
   private SenderConfiguration.SenderConfigurationBuilder configureEndpoint(
@@ -0,0 +1,123 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.newrelic.transformer.RegistryListener;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The filtered metrics of a registry, kept up to date from registry events so that a harvest can
+ * walk them directly instead of copying and filtering the whole registry into new maps. The filter
+ * is applied once, when a metric is added, so it must only depend on the metric's name and type.
+ */
+class RegistryIndex implements RegistryListener {
+
+  private final MetricFilter filter;
+  private final SortedMap<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+  private final SortedMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+  private final SortedMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+  private final SortedMap<String, Meter> meters = new ConcurrentSkipListMap<>();
+  private final SortedMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+  RegistryIndex(MetricFilter filter) {
+    this.filter = filter == null ? MetricFilter.ALL : filter;
+  }
+
+  SortedMap<String, Gauge> gauges() {
+    return gauges;
+  }
+
+  SortedMap<String, Counter> counters() {
+    return counters;
+  }
+
+  SortedMap<String, Histogram> histograms() {
+    return histograms;
+  }
+
+  SortedMap<String, Meter> meters() {
+    return meters;
+  }
+
+  SortedMap<String, Timer> timers() {
+    return timers;
+  }
+
+  /** Forgets every metric, for when the index stops listening to the registry. */
+  void clear() {
+    gauges.clear();
+    counters.clear();
+    histograms.clear();
+    meters.clear();
+    timers.clear();
+  }
+
+  private <T extends Metric> void add(SortedMap<String, T> metrics, String name, T metric) {
+    if (filter.matches(name, metric)) {
+      metrics.put(name, metric);
+    }
+  }
+
+  @Override
+  public void onGaugeAdded(String name, Gauge<?> gauge) {
+    add(gauges, name, gauge);
+  }
+
+  @Override
+  public void onGaugeRemoved(String name) {
+    gauges.remove(name);
+  }
+
+  @Override
+  public void onCounterAdded(String name, Counter counter) {
+    add(counters, name, counter);
+  }
+
+  @Override
+  public void onCounterRemoved(String name) {
+    counters.remove(name);
+  }
+
+  @Override
+  public void onHistogramAdded(String name, Histogram histogram) {
+    add(histograms, name, histogram);
+  }
+
+  @Override
+  public void onHistogramRemoved(String name) {
+    histograms.remove(name);
+  }
+
+  @Override
+  public void onMeterAdded(String name, Meter meter) {
+    add(meters, name, meter);
+  }
+
+  @Override
+  public void onMeterRemoved(String name) {
+    meters.remove(name);
+  }
+
+  @Override
+  public void onTimerAdded(String name, Timer timer) {
+    add(timers, name, timer);
+  }
+
+  @Override
+  public void onTimerRemoved(String name) {
+    timers.remove(name);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.newrelic.util.BatchSplitter;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics that the reporter records about itself, registered in a registry of the user's
+ * choice. The reporter only records them when self metrics are enabled on the builder.
+ */
+class ReporterMetrics {
+
+  static final String PREFIX = "newrelic.reporter";
+
+  private final Map<MetricType, Timer> harvestTimers = new EnumMap<>(MetricType.class);
+  private final Map<MetricType, Counter> emittedMetrics = new EnumMap<>(MetricType.class);
+  private final Timer reportTimer;
+  private final Timer handoffTimer;
+  private final Timer sendTimer;
+  private final Histogram batchSize;
+  private final Histogram batchBytes;
+  private final Counter droppedGauges;
+  private final Counter timedOutGauges;
+  private final Counter overflowedSeries;
+  private final Counter evictedState;
+  private final MetricRegistry registry;
+
+  ReporterMetrics(MetricRegistry registry) {
+    for (MetricType type : MetricType.values()) {
+      String typeName = type.name().toLowerCase(Locale.ROOT);
+      harvestTimers.put(type, registry.timer(MetricRegistry.name(PREFIX, "harvest", typeName)));
+      emittedMetrics.put(
+          type, registry.counter(MetricRegistry.name(PREFIX, "metrics.emitted", typeName)));
+    }
+    reportTimer = registry.timer(MetricRegistry.name(PREFIX, "report"));
+    handoffTimer = registry.timer(MetricRegistry.name(PREFIX, "handoff"));
+    sendTimer = registry.timer(MetricRegistry.name(PREFIX, "send"));
+    batchSize = registry.histogram(MetricRegistry.name(PREFIX, "batch.size"));
+    batchBytes = registry.histogram(MetricRegistry.name(PREFIX, "batch.bytes"));
+    droppedGauges = registry.counter(MetricRegistry.name(PREFIX, "gauges.dropped"));
+    timedOutGauges = registry.counter(MetricRegistry.name(PREFIX, "gauges.timeouts"));
+    overflowedSeries = registry.counter(MetricRegistry.name(PREFIX, "series.overflow"));
+    evictedState = registry.counter(MetricRegistry.name(PREFIX, "state.evicted"));
+    this.registry = registry;
+  }
+
+  /** Counts the gauges that are skipped because their value is null or not a number. */
+  Counter droppedGauges() {
+    return droppedGauges;
+  }
+
+  /** Counts the gauge reads that miss their deadline when gauges are read with a timeout. */
+  Counter timedOutGauges() {
+    return timedOutGauges;
+  }
+
+  /** Counts the metrics collapsed into the other series of their name by the cardinality limit. */
+  Counter overflowedSeries() {
+    return overflowedSeries;
+  }
+
+  /** Counts the metrics whose state is forgotten because they were no longer harvested. */
+  Counter evictedState() {
+    return evictedState;
+  }
+
+  /** Registers gauges for the size of the per-metric state of the reporter. */
+  void trackState(StateSweeper stateSweeper) {
+    registry.gauge(
+        MetricRegistry.name(PREFIX, "state.entries"),
+        () -> (Gauge<Long>) stateSweeper::getEntries);
+    registry.gauge(
+        MetricRegistry.name(PREFIX, "state.bytes"),
+        () -> (Gauge<Long>) stateSweeper::getEstimatedBytes);
+  }
+
+  /** Registers the gauges that a sender, such as {@link AsyncTelemetryClient}, has about itself. */
+  void trackSender(MetricSet sender) {
+    sender
+        .getMetrics()
+        .forEach(
+            (name, metric) ->
+                registry.gauge(
+                    MetricRegistry.name(PREFIX, "sender", name), () -> (Gauge<?>) metric));
+  }
+
+  void harvested(MetricType type, long durationNanos, int metrics) {
+    harvestTimers.get(type).update(durationNanos, TimeUnit.NANOSECONDS);
+    emittedMetrics.get(type).inc(metrics);
+  }
+
+  /**
+   * Records a batch handed to the {@code TelemetryClient}, which sends it on its own threads, so
+   * the duration is how long the hand-off blocked the reporter rather than how long the send took.
+   *
+   * @param batch the metrics of the batch
+   * @param durationNanos how long the sender blocked the reporter
+   */
+  void handedOff(List<Metric> batch, long durationNanos) {
+    handoffTimer.update(durationNanos, TimeUnit.NANOSECONDS);
+    batch(batch.size(), BatchSplitter.estimateBytes(batch));
+  }
+
+  /**
+   * Records the payloads that the reporter posted itself when streaming.
+   *
+   * @param durationNanos how long posting the payloads took, retries included
+   */
+  void sent(int metrics, long bytes, long durationNanos) {
+    sendTimer.update(durationNanos, TimeUnit.NANOSECONDS);
+    batch(metrics, bytes);
+  }
+
+  private void batch(int metrics, long bytes) {
+    batchSize.update(metrics);
+    batchBytes.update(bytes);
+  }
+
+  void reported(long durationNanos) {
+    reportTimer.update(durationNanos, TimeUnit.NANOSECONDS);
+  }
+}
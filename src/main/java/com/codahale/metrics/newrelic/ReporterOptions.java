@@ -0,0 +1,144 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.newrelic.util.BatchSplitter;
+import com.codahale.metrics.newrelic.util.CardinalityLimiter;
+import com.codahale.metrics.newrelic.util.ChangedMetricsFilter;
+import com.codahale.metrics.newrelic.util.MetricAggregator;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The optional stages of a {@link NewRelicReporter}, as set up by {@link NewRelicReporterBuilder}.
+ * Every stage is disabled unless it is set, so a reporter built with {@code new ReporterOptions()}
+ * harvests sequentially and sends each harvest as one batch.
+ */
+class ReporterOptions {
+
+  private Executor harvestExecutor;
+  private int harvestChunkSize;
+  private ChangedMetricsFilter changedMetricsFilter;
+  private BatchSplitter batchSplitter;
+  private RegistryIndex registryIndex;
+  private MetricAggregator metricAggregator;
+  private HarvestSchedule harvestSchedule;
+  private ReporterMetrics reporterMetrics;
+  private StreamingSender streamingSender;
+  private CardinalityLimiter cardinalityLimiter;
+  private StateSweeper stateSweeper;
+  private final List<Closeable> closeables = new ArrayList<>();
+
+  /** Transforms chunks of {@code chunkSize} metrics concurrently on {@code executor}. */
+  ReporterOptions harvestExecutor(Executor executor, int chunkSize) {
+    this.harvestExecutor = executor;
+    this.harvestChunkSize = chunkSize;
+    return this;
+  }
+
+  ReporterOptions changedMetricsFilter(ChangedMetricsFilter changedMetricsFilter) {
+    this.changedMetricsFilter = changedMetricsFilter;
+    return this;
+  }
+
+  ReporterOptions batchSplitter(BatchSplitter batchSplitter) {
+    this.batchSplitter = batchSplitter;
+    return this;
+  }
+
+  ReporterOptions registryIndex(RegistryIndex registryIndex) {
+    this.registryIndex = registryIndex;
+    return this;
+  }
+
+  ReporterOptions metricAggregator(MetricAggregator metricAggregator) {
+    this.metricAggregator = metricAggregator;
+    return this;
+  }
+
+  ReporterOptions harvestSchedule(HarvestSchedule harvestSchedule) {
+    this.harvestSchedule = harvestSchedule;
+    return this;
+  }
+
+  ReporterOptions reporterMetrics(ReporterMetrics reporterMetrics) {
+    this.reporterMetrics = reporterMetrics;
+    return this;
+  }
+
+  ReporterOptions streamingSender(StreamingSender streamingSender) {
+    this.streamingSender = streamingSender;
+    return this;
+  }
+
+  ReporterOptions cardinalityLimiter(CardinalityLimiter cardinalityLimiter) {
+    this.cardinalityLimiter = cardinalityLimiter;
+    return this;
+  }
+
+  ReporterOptions stateSweeper(StateSweeper stateSweeper) {
+    this.stateSweeper = stateSweeper;
+    return this;
+  }
+
+  /** Closes a resource created for the reporter when the reporter is closed. */
+  ReporterOptions closeOnClose(Closeable closeable) {
+    closeables.add(closeable);
+    return this;
+  }
+
+  Executor getHarvestExecutor() {
+    return harvestExecutor;
+  }
+
+  int getHarvestChunkSize() {
+    return harvestChunkSize;
+  }
+
+  ChangedMetricsFilter getChangedMetricsFilter() {
+    return changedMetricsFilter;
+  }
+
+  BatchSplitter getBatchSplitter() {
+    return batchSplitter;
+  }
+
+  RegistryIndex getRegistryIndex() {
+    return registryIndex;
+  }
+
+  MetricAggregator getMetricAggregator() {
+    return metricAggregator;
+  }
+
+  HarvestSchedule getHarvestSchedule() {
+    return harvestSchedule;
+  }
+
+  ReporterMetrics getReporterMetrics() {
+    return reporterMetrics;
+  }
+
+  StreamingSender getStreamingSender() {
+    return streamingSender;
+  }
+
+  CardinalityLimiter getCardinalityLimiter() {
+    return cardinalityLimiter;
+  }
+
+  StateSweeper getStateSweeper() {
+    return stateSweeper;
+  }
+
+  List<Closeable> getCloseables() {
+    return closeables;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.newrelic.transformer.DropWizardMetricTransformer;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+/**
+ * Forgets the per-metric state of the reporter for metrics that were not harvested for a number of
+ * harvests. This is a backstop for removals that the registry listeners never see, which would
+ * otherwise keep the state of a metric forever: the sweeper calls the removal listener method of
+ * the transformer of the metric's type itself, which forgets everything kept under the metric's
+ * registry name.
+ *
+ * <p>All methods are called by the reporter thread, between or at the end of harvests.
+ */
+class StateSweeper {
+
+  // a rough estimate of the heap used by the state of one metric in one of the reporter's maps:
+  // the map node, the key and the state object
+  static final int ESTIMATED_BYTES_PER_ENTRY = 128;
+
+  private final int keptHarvests;
+  private final Map<MetricType, DropWizardMetricTransformer<?>> transformers;
+  // the sizes of the other per-metric state, which is included in the estimate
+  private final List<IntSupplier> stateSizes;
+  private final Counter evicted;
+  private final Map<String, LastHarvest> lastHarvests = new ConcurrentHashMap<>();
+  private long harvest;
+
+  /**
+   * @param keptHarvests the number of harvests after which a metric that was not harvested is
+   *     forgotten. Must be at least the number of reporter periods between harvests of any metric
+   *     type.
+   * @param stateSizes the sizes of per-metric state that isn't kept by the transformers
+   * @param evicted counts the metrics forgotten
+   */
+  StateSweeper(
+      int keptHarvests,
+      Map<MetricType, DropWizardMetricTransformer<?>> transformers,
+      List<IntSupplier> stateSizes,
+      Counter evicted) {
+    if (keptHarvests < 1) {
+      throw new IllegalArgumentException("keptHarvests must be positive: " + keptHarvests);
+    }
+    this.keptHarvests = keptHarvests;
+    this.transformers = new EnumMap<>(transformers);
+    this.stateSizes = stateSizes;
+    this.evicted = evicted;
+  }
+
+  /** Records that the metrics were harvested by the current harvest. */
+  void harvested(MetricType type, Set<String> names) {
+    long currentHarvest = harvest;
+    for (String name : names) {
+      LastHarvest lastHarvest = lastHarvests.get(name);
+      if (lastHarvest == null || lastHarvest.type != type) {
+        lastHarvests.put(name, new LastHarvest(type, currentHarvest));
+      } else {
+        lastHarvest.harvest = currentHarvest;
+      }
+    }
+  }
+
+  /**
+   * Forgets the metrics that were not harvested by the last {@code keptHarvests} harvests and
+   * moves on to the next harvest.
+   */
+  void endHarvest() {
+    long currentHarvest = harvest;
+    for (Iterator<Map.Entry<String, LastHarvest>> entries = lastHarvests.entrySet().iterator();
+        entries.hasNext(); ) {
+      Map.Entry<String, LastHarvest> entry = entries.next();
+      LastHarvest lastHarvest = entry.getValue();
+      if (currentHarvest - lastHarvest.harvest >= keptHarvests) {
+        entries.remove();
+        forget(lastHarvest.type, entry.getKey());
+        evicted.inc();
+      }
+    }
+    harvest = currentHarvest + 1;
+  }
+
+  /** @return the number of entries in the per-metric state of the reporter */
+  long getEntries() {
+    long entries = lastHarvests.size();
+    for (DropWizardMetricTransformer<?> transformer : transformers.values()) {
+      entries += transformer.stateSize();
+    }
+    for (IntSupplier stateSize : stateSizes) {
+      entries += stateSize.getAsInt();
+    }
+    return entries;
+  }
+
+  /** @return a rough estimate of the heap used by the per-metric state of the reporter */
+  long getEstimatedBytes() {
+    return getEntries() * ESTIMATED_BYTES_PER_ENTRY;
+  }
+
+  private void forget(MetricType type, String name) {
+    DropWizardMetricTransformer<?> transformer = transformers.get(type);
+    if (transformer == null) {
+      return;
+    }
+    switch (type) {
+      case GAUGE:
+        transformer.onGaugeRemoved(name);
+        break;
+      case COUNTER:
+        transformer.onCounterRemoved(name);
+        break;
+      case HISTOGRAM:
+        transformer.onHistogramRemoved(name);
+        break;
+      case METER:
+        transformer.onMeterRemoved(name);
+        break;
+      case TIMER:
+        transformer.onTimerRemoved(name);
+        break;
+    }
+  }
+
+  private static class LastHarvest {
+    private final MetricType type;
+    private long harvest;
+
+    private LastHarvest(MetricType type, long harvest) {
+      this.type = type;
+      this.harvest = harvest;
+    }
+  }
+}
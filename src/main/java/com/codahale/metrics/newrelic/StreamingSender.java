@@ -0,0 +1,183 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.newrelic.util.MetricJsonWriter;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.SenderConfiguration;
+import com.newrelic.telemetry.http.HttpPoster;
+import com.newrelic.telemetry.http.HttpResponse;
+import com.newrelic.telemetry.metrics.Metric;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the metrics of a harvest into gzipped Metric API payloads with a {@link
+ * MetricJsonWriter} and posts them on the reporter thread, with the HTTP poster, endpoint, key,
+ * audit logging and user agent of a {@link SenderConfiguration}. The writer's buffer is reused by
+ * the next payload, so a payload is sent as soon as it is rolled over or the harvest ends.
+ *
+ * <p>Payloads are rolled over once their compressed size reaches a threshold below the 1 MB limit
+ * of the Metric API. A payload that is rejected as too large anyway is split in halves, which are
+ * sent on their own. Failures with a status of 429 or 5xx, or without a response, are retried a few
+ * times with exponential backoff; other payloads that fail to send are logged and dropped.
+ */
+class StreamingSender implements Consumer<Metric> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamingSender.class);
+  private static final String MEDIA_TYPE = "application/json; charset=utf-8";
+  private static final int PAYLOAD_TOO_LARGE = 413;
+  private static final int TOO_MANY_REQUESTS = 429;
+  // the compressed size lags by what the writer and the compressor still buffer, tens of KB at most
+  static final long MAX_PAYLOAD_BYTES = 900_000;
+  static final int MAX_RETRIES = 3;
+  private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+  private final HttpPoster httpPoster;
+  private final URL endpoint;
+  private final boolean auditLoggingEnabled;
+  private final long maxPayloadBytes;
+  private final long initialBackoffMillis;
+  private final Map<String, String> headers = new HashMap<>();
+  private final MetricJsonWriter writer = new MetricJsonWriter();
+  private Attributes commonAttributes;
+  // totals of the payloads of the current harvest that have been sent
+  private int sentMetrics;
+  private long sentUncompressedBytes;
+
+  StreamingSender(SenderConfiguration configuration) {
+    this(configuration, MAX_PAYLOAD_BYTES, INITIAL_BACKOFF_MILLIS);
+  }
+
+  StreamingSender(
+      SenderConfiguration configuration, long maxPayloadBytes, long initialBackoffMillis) {
+    this.httpPoster = configuration.getHttpPoster();
+    this.endpoint = configuration.getEndpointUrl();
+    this.auditLoggingEnabled = configuration.isAuditLoggingEnabled();
+    this.maxPayloadBytes = maxPayloadBytes;
+    this.initialBackoffMillis = initialBackoffMillis;
+    headers.put(
+        configuration.useLicenseKey() ? "X-License-Key" : "Api-Key", configuration.getApiKey());
+    headers.put("Content-Encoding", "gzip");
+    String userAgent = "dropwizard-metrics-newrelic/" + NewRelicReporter.implementationVersion;
+    String secondaryUserAgent = configuration.getSecondaryUserAgent();
+    if (secondaryUserAgent != null && !secondaryUserAgent.isEmpty()) {
+      userAgent += " " + secondaryUserAgent;
+    }
+    headers.put("User-Agent", userAgent);
+  }
+
+  /** Starts the payloads of a new harvest. */
+  void begin(Attributes commonAttributes) {
+    this.commonAttributes = commonAttributes;
+    sentMetrics = 0;
+    sentUncompressedBytes = 0;
+    writer.begin(commonAttributes);
+  }
+
+  /** Writes the metric into the current payload, sending the payload once it is large enough. */
+  @Override
+  public void accept(Metric metric) {
+    writer.accept(metric);
+    if (writer.getCompressedBytes() >= maxPayloadBytes) {
+      sendPayload();
+      writer.begin(commonAttributes);
+    }
+  }
+
+  /** Finishes and posts the last payload of the harvest. */
+  void send() {
+    // a harvest without any metrics still sends its empty payload
+    if (writer.getMetrics() > 0 || sentMetrics == 0) {
+      sendPayload();
+    }
+  }
+
+  /** @return the number of metrics written in the current harvest */
+  int getMetrics() {
+    return sentMetrics + writer.getMetrics();
+  }
+
+  /** @return the size before compression of the payloads sent in the current harvest */
+  long getUncompressedBytes() {
+    return sentUncompressedBytes;
+  }
+
+  private void sendPayload() {
+    byte[] payload = writer.finish();
+    if (auditLoggingEnabled && LOG.isDebugEnabled()) {
+      LOG.debug("Sending json: {}", writer.json());
+    }
+    post(payload, 0, writer.getMetrics());
+    sentMetrics += writer.getMetrics();
+    sentUncompressedBytes += writer.getUncompressedBytes();
+  }
+
+  /** Posts a payload with the metrics {@code from} to {@code to} of the finished payload. */
+  private void post(byte[] payload, int from, int to) {
+    int code = postWithRetries(payload, to - from);
+    if (code == PAYLOAD_TOO_LARGE && to - from > 1) {
+      LOG.debug("A payload of {} metrics is too large, splitting it", to - from);
+      int middle = (from + to) >>> 1;
+      post(writer.slice(from, middle), from, middle);
+      post(writer.slice(middle, to), middle, to);
+    }
+  }
+
+  /**
+   * @return the status code of the last attempt to post the payload, or -1 if it failed without a
+   *     response
+   */
+  private int postWithRetries(byte[] payload, int metrics) {
+    long backoffMillis = initialBackoffMillis;
+    for (int attempt = 0; ; attempt++) {
+      int code;
+      try {
+        HttpResponse response = httpPoster.post(endpoint, headers, payload, MEDIA_TYPE);
+        code = response.getCode();
+        if (code >= 200 && code < 300) {
+          return code;
+        }
+        if (code == PAYLOAD_TOO_LARGE && metrics > 1) {
+          return code;
+        }
+        if (!retriable(code) || attempt == MAX_RETRIES) {
+          LOG.warn(
+              "Failed to send a payload of {} metrics: {} {}",
+              metrics,
+              code,
+              response.getMessage());
+          return code;
+        }
+      } catch (IOException | RuntimeException e) {
+        code = -1;
+        if (attempt == MAX_RETRIES) {
+          LOG.warn("Failed to send a payload of {} metrics", metrics, e);
+          return code;
+        }
+      }
+      try {
+        Thread.sleep(backoffMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted while retrying a payload of {} metrics", metrics);
+        return code;
+      }
+      backoffMillis *= 2;
+    }
+  }
+
+  private static boolean retriable(int code) {
+    return code == TOO_MANY_REQUESTS || code >= 500;
+  }
+}
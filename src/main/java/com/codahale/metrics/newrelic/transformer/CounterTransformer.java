@@ -7,23 +7,21 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.Collections.singleton;
-
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 public class CounterTransformer implements DropWizardMetricTransformer<Counter> {
 
   private final Clock clock;
-  private final MetricNameCustomizer nameCustomizer;
-  private final MetricAttributesCustomizer attributeCustomizer;
+  private final MetricCustomizations customizations;
 
   public CounterTransformer() {
     this(Clock.defaultClock());
@@ -34,6 +32,10 @@ public class CounterTransformer implements DropWizardMetricTransformer<Counter>
     this(Clock.defaultClock(), nameCustomizer, attributeCustomizer);
   }
 
+  public CounterTransformer(MetricCustomizations customizations) {
+    this(Clock.defaultClock(), customizations);
+  }
+
   // exists for testing
   CounterTransformer(Clock clock) {
     this(clock, MetricNameCustomizer.DEFAULT, MetricAttributesCustomizer.DEFAULT);
@@ -43,17 +45,37 @@ public class CounterTransformer implements DropWizardMetricTransformer<Counter>
       Clock clock,
       MetricNameCustomizer nameCustomizer,
       MetricAttributesCustomizer attributeCustomizer) {
+    this(
+        clock,
+        MetricCustomizations.uncached(
+            Objects.requireNonNull(nameCustomizer), Objects.requireNonNull(attributeCustomizer)));
+  }
+
+  CounterTransformer(Clock clock, MetricCustomizations customizations) {
     this.clock = clock;
-    this.nameCustomizer = Objects.requireNonNull(nameCustomizer);
-    this.attributeCustomizer = Objects.requireNonNull(attributeCustomizer);
+    this.customizations = Objects.requireNonNull(customizations);
   }
 
   @Override
-  public Collection<Metric> transform(String name, Counter counter) {
-    String customizedName = nameCustomizer.customizeMetricName(name);
-    Attributes customizedAttributes =
-        attributeCustomizer.customizeMetricAttributes(name, counter, new Attributes());
-    return singleton(
+  public void transform(String name, Counter counter, Consumer<Metric> sink) {
+    String customizedName = customizations.customizeName(name);
+    Attributes customizedAttributes = customizations.customizeAttributes(name, counter);
+    if (!customizations.withinCardinalityLimit(customizedName, customizedAttributes)) {
+      // the metric goes to the other series of its name
+      customizedAttributes = customizations.overflowAttributes();
+      sink = customizations.overflow();
+    }
+    sink.accept(
         new Gauge(customizedName, counter.getCount(), clock.getTime(), customizedAttributes));
   }
+
+  @Override
+  public void onCounterAdded(String name, Counter counter) {
+    customizations.register(name, counter);
+  }
+
+  @Override
+  public void onCounterRemoved(String name) {
+    customizations.evict(name);
+  }
 }
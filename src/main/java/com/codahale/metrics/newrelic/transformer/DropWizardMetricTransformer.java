@@ -9,9 +9,26 @@ package com.codahale.metrics.newrelic.transformer;
 
 import com.newrelic.telemetry.metrics.Metric;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.function.Consumer;
 
 public interface DropWizardMetricTransformer<T extends com.codahale.metrics.Metric>
     extends RegistryListener {
 
-  Collection<Metric> transform(String name, T metric);
+  default Collection<Metric> transform(String name, T metric) {
+    Collection<Metric> result = new HashSet<>();
+    transform(name, metric, result::add);
+    return result;
+  }
+
+  /**
+   * Transforms a DropWizard metric, handing every resulting New Relic metric straight to {@code
+   * sink} instead of collecting them. This is the path used by the reporter on every harvest.
+   */
+  void transform(String name, T metric, Consumer<Metric> sink);
+
+  /** @return the number of metrics that this transformer keeps state for between harvests */
+  default int stateSize() {
+    return 0;
+  }
 }
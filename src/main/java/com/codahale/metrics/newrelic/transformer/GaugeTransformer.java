@@ -7,17 +7,18 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.Collections.emptySet;
-import static java.util.Collections.singleton;
-
 import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
+import com.codahale.metrics.newrelic.util.GaugeReader;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,8 +26,10 @@ public class GaugeTransformer implements DropWizardMetricTransformer<Gauge> {
 
   private static final Logger LOG = LoggerFactory.getLogger(GaugeTransformer.class);
   private final Clock clock;
-  private final MetricNameCustomizer nameCustomizer;
-  private final MetricAttributesCustomizer attributeCustomizer;
+  private final MetricCustomizations customizations;
+  // counts the gauges skipped because of null or non-numeric values
+  private final Counter droppedGauges;
+  private final GaugeReader gaugeReader;
 
   public GaugeTransformer() {
     this(MetricNameCustomizer.DEFAULT, MetricAttributesCustomizer.DEFAULT);
@@ -46,36 +49,76 @@ public class GaugeTransformer implements DropWizardMetricTransformer<Gauge> {
       Clock clock,
       MetricNameCustomizer nameCustomizer,
       MetricAttributesCustomizer attributeCustomizer) {
+    this(
+        clock,
+        MetricCustomizations.uncached(
+            Objects.requireNonNull(nameCustomizer), Objects.requireNonNull(attributeCustomizer)),
+        new Counter(),
+        GaugeReader.DIRECT);
+  }
+
+  public GaugeTransformer(
+      Clock clock,
+      MetricCustomizations customizations,
+      Counter droppedGauges,
+      GaugeReader gaugeReader) {
     this.clock = clock;
-    this.nameCustomizer = Objects.requireNonNull(nameCustomizer);
-    this.attributeCustomizer = Objects.requireNonNull(attributeCustomizer);
+    this.customizations = Objects.requireNonNull(customizations);
+    this.droppedGauges = droppedGauges;
+    this.gaugeReader = Objects.requireNonNull(gaugeReader);
+  }
+
+  /** Lets the gauge reader start reading the gauges of a harvest before they are transformed. */
+  public void startHarvest(Map<String, Gauge> gauges) {
+    gaugeReader.startHarvest(gauges);
   }
 
   @Override
-  public Collection<Metric> transform(String name, Gauge gauge) {
-    String customizedName = nameCustomizer.customizeMetricName(name);
-    Attributes customizedAttributes =
-        attributeCustomizer.customizeMetricAttributes(name, gauge, new Attributes());
+  public void transform(String name, Gauge gauge, Consumer<Metric> sink) {
+    String customizedName = customizations.customizeName(name);
+    Attributes customizedAttributes = customizations.customizeAttributes(name, gauge);
+    if (!customizations.withinCardinalityLimit(customizedName, customizedAttributes)) {
+      // the metric goes to the other series of its name
+      customizedAttributes = customizations.overflowAttributes();
+      sink = customizations.overflow();
+    }
     long timestamp = clock.getTime();
-    Object gaugeValue = gauge.getValue();
+    Object gaugeValue = gaugeReader.read(name, gauge);
+    if (gaugeValue == GaugeReader.TIMED_OUT) {
+      // already counted as a timeout by the reader
+      return;
+    }
     if (gaugeValue == null) {
+      droppedGauges.inc();
       LOG.debug(
           "Ignoring gauge with null value. Gauge name: {}, Gauge attributes: {}",
           customizedName,
           customizedAttributes);
-      return emptySet();
+      return;
     }
     if (gaugeValue instanceof Number) {
       Metric metric =
           new com.newrelic.telemetry.metrics.Gauge(
               customizedName, ((Number) gaugeValue).doubleValue(), timestamp, customizedAttributes);
-      return singleton(metric);
+      sink.accept(metric);
+      return;
     }
+    droppedGauges.inc();
     LOG.debug(
         "Ignoring gauge [name: {}, Attributes: {}] with value of type {} (non-numeric gauges are unsupported)",
         customizedName,
         customizedAttributes,
         gaugeValue.getClass().getName());
-    return emptySet();
+  }
+
+  @Override
+  public void onGaugeAdded(String name, Gauge<?> gauge) {
+    customizations.register(name, gauge);
+  }
+
+  @Override
+  public void onGaugeRemoved(String name) {
+    customizations.evict(name);
+    gaugeReader.forget(name);
   }
 }
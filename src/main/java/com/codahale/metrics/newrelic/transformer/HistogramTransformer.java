@@ -7,29 +7,23 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.stream.Collectors.toSet;
-import static java.util.stream.Stream.concat;
-
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
 import com.codahale.metrics.newrelic.transformer.interfaces.CountingTransformer;
 import com.codahale.metrics.newrelic.transformer.interfaces.SamplingTransformer;
 import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
 import java.util.Objects;
-import java.util.function.Supplier;
+import java.util.function.Consumer;
 
 public class HistogramTransformer implements DropWizardMetricTransformer<Histogram> {
 
-  static final Supplier<Attributes> ATTRIBUTES_SUPPLIER = Attributes::new;
-
   private final CountingTransformer countingTransformer;
   private final SamplingTransformer samplingTransformer;
-  private final MetricNameCustomizer nameCustomizer;
-  private final MetricAttributesCustomizer attributeCustomizer;
+  private final MetricCustomizations customizations;
 
   public static HistogramTransformer build(TimeTracker timeTracker) {
     return build(timeTracker, MetricNameCustomizer.DEFAULT, MetricAttributesCustomizer.DEFAULT);
@@ -46,15 +40,33 @@ public class HistogramTransformer implements DropWizardMetricTransformer<Histogr
         attributeCustomizer);
   }
 
+  public static HistogramTransformer build(
+      SamplingTransformer samplingTransformer,
+      TimeTracker timeTracker,
+      MetricCustomizations customizations) {
+    return new HistogramTransformer(
+        new CountingTransformer(timeTracker), samplingTransformer, customizations);
+  }
+
   HistogramTransformer(
       CountingTransformer countingTransformer,
       SamplingTransformer samplingTransformer,
       MetricNameCustomizer nameCustomizer,
       MetricAttributesCustomizer attributeCustomizer) {
+    this(
+        countingTransformer,
+        samplingTransformer,
+        MetricCustomizations.uncached(
+            Objects.requireNonNull(nameCustomizer), Objects.requireNonNull(attributeCustomizer)));
+  }
+
+  HistogramTransformer(
+      CountingTransformer countingTransformer,
+      SamplingTransformer samplingTransformer,
+      MetricCustomizations customizations) {
     this.countingTransformer = countingTransformer;
     this.samplingTransformer = samplingTransformer;
-    this.nameCustomizer = Objects.requireNonNull(nameCustomizer);
-    this.attributeCustomizer = Objects.requireNonNull(attributeCustomizer);
+    this.customizations = Objects.requireNonNull(customizations);
   }
 
   HistogramTransformer(
@@ -67,26 +79,33 @@ public class HistogramTransformer implements DropWizardMetricTransformer<Histogr
   }
 
   @Override
-  public Collection<Metric> transform(String name, Histogram histogram) {
-    String customizedName = nameCustomizer.customizeMetricName(name);
-    Supplier<Attributes> customizedAttributeSupplier =
-        () ->
-            attributeCustomizer.customizeMetricAttributes(
-                name, histogram, ATTRIBUTES_SUPPLIER.get());
+  public void transform(String name, Histogram histogram, Consumer<Metric> sink) {
+    String customizedName = customizations.customizeName(name);
+    Attributes customizedAttributes = customizations.customizeAttributes(name, histogram);
+    if (!customizations.withinCardinalityLimit(customizedName, customizedAttributes)) {
+      // the whole metric goes to the other series of its name, keeping its derived attributes
+      customizedAttributes = customizations.overflowAttributes();
+      sink = customizations.overflow();
+    }
 
-    Collection<Metric> counts =
-        countingTransformer.transform(customizedName, histogram, customizedAttributeSupplier);
+    countingTransformer.transform(name, customizedName, histogram, customizedAttributes, sink);
+    samplingTransformer.transform(customizedName, histogram, customizedAttributes, sink);
+  }
 
-    return concat(
-            counts.stream(),
-            samplingTransformer
-                .transform(customizedName, histogram, customizedAttributeSupplier)
-                .stream())
-        .collect(toSet());
+  @Override
+  public void onHistogramAdded(String name, Histogram histogram) {
+    customizations.register(name, histogram);
+    countingTransformer.register(name);
   }
 
   @Override
   public void onHistogramRemoved(String name) {
-    countingTransformer.remove(nameCustomizer.customizeMetricName(name));
+    customizations.evict(name);
+    countingTransformer.remove(name);
+  }
+
+  @Override
+  public int stateSize() {
+    return countingTransformer.size();
   }
 }
@@ -7,28 +7,22 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.stream.Collectors.toSet;
-import static java.util.stream.Stream.concat;
-
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricAttribute;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
 import com.codahale.metrics.newrelic.transformer.interfaces.CountingTransformer;
 import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
 import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 
 public class MeterTransformer implements DropWizardMetricTransformer<Meter> {
 
-  static final Supplier<Attributes> BASE_ATTRIBUTES = Attributes::new;
-
-  private final MetricNameCustomizer nameCustomizer;
-  private final MetricAttributesCustomizer attributeCustomizer;
+  private final MetricCustomizations customizations;
 
   public static MeterTransformer build(
       TimeTracker timeTracker,
@@ -43,6 +37,14 @@ public class MeterTransformer implements DropWizardMetricTransformer<Meter> {
         attributeCustomizer);
   }
 
+  public static MeterTransformer build(
+      MeteredTransformer meteredTransformer,
+      TimeTracker timeTracker,
+      MetricCustomizations customizations) {
+    return new MeterTransformer(
+        meteredTransformer, new CountingTransformer(timeTracker), customizations);
+  }
+
   public static MeterTransformer build(
       TimeTracker timeTracker,
       long rateFactor,
@@ -63,10 +65,19 @@ public class MeterTransformer implements DropWizardMetricTransformer<Meter> {
       CountingTransformer countingTransformer,
       MetricNameCustomizer nameCustomizer,
       MetricAttributesCustomizer attributeCustomizer) {
+    this(
+        meteredTransformer,
+        countingTransformer,
+        MetricCustomizations.uncached(nameCustomizer, attributeCustomizer));
+  }
+
+  MeterTransformer(
+      MeteredTransformer meteredTransformer,
+      CountingTransformer countingTransformer,
+      MetricCustomizations customizations) {
     this.meteredTransformer = meteredTransformer;
     this.countingTransformer = countingTransformer;
-    this.nameCustomizer = nameCustomizer;
-    this.attributeCustomizer = attributeCustomizer;
+    this.customizations = customizations;
   }
 
   MeterTransformer(MeteredTransformer meteredTransformer, CountingTransformer countingTransformer) {
@@ -78,22 +89,32 @@ public class MeterTransformer implements DropWizardMetricTransformer<Meter> {
   }
 
   @Override
-  public Collection<Metric> transform(String name, Meter meter) {
-    String customizedName = nameCustomizer.customizeMetricName(name);
-    Supplier<Attributes> customizedAttributeSupplier =
-        () -> attributeCustomizer.customizeMetricAttributes(name, meter, BASE_ATTRIBUTES.get());
-    return concat(
-            countingTransformer
-                .transform(customizedName, meter, customizedAttributeSupplier)
-                .stream(),
-            meteredTransformer
-                .transform(customizedName, meter, customizedAttributeSupplier)
-                .stream())
-        .collect(toSet());
+  public void transform(String name, Meter meter, Consumer<Metric> sink) {
+    String customizedName = customizations.customizeName(name);
+    Attributes customizedAttributes = customizations.customizeAttributes(name, meter);
+    if (!customizations.withinCardinalityLimit(customizedName, customizedAttributes)) {
+      // the whole metric goes to the other series of its name, keeping its derived attributes
+      customizedAttributes = customizations.overflowAttributes();
+      sink = customizations.overflow();
+    }
+    countingTransformer.transform(name, customizedName, meter, customizedAttributes, sink);
+    meteredTransformer.transform(customizedName, meter, customizedAttributes, sink);
+  }
+
+  @Override
+  public void onMeterAdded(String name, Meter meter) {
+    customizations.register(name, meter);
+    countingTransformer.register(name);
   }
 
   @Override
   public void onMeterRemoved(String name) {
-    countingTransformer.remove(nameCustomizer.customizeMetricName(name));
+    customizations.evict(name);
+    countingTransformer.remove(name);
+  }
+
+  @Override
+  public int stateSize() {
+    return countingTransformer.size();
   }
 }
@@ -7,11 +7,10 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.stream.Collectors.toSet;
-
 import com.codahale.metrics.MetricAttribute;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
 import com.codahale.metrics.newrelic.transformer.interfaces.CountingTransformer;
 import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
@@ -19,20 +18,15 @@ import com.codahale.metrics.newrelic.transformer.interfaces.SamplingTransformer;
 import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
-import java.util.stream.Stream;
 
 public class TimerTransformer implements DropWizardMetricTransformer<Timer> {
 
-  static final Supplier<Attributes> ATTRIBUTES_SUPPLIER = Attributes::new;
-
   private final SamplingTransformer samplingTransformer;
   private final MeteredTransformer meteredTransformer;
   private final CountingTransformer countingTransformer;
-  private final MetricNameCustomizer nameCustomizer;
-  private final MetricAttributesCustomizer attributeCustomizer;
+  private final MetricCustomizations customizations;
 
   public static TimerTransformer build(
       TimeTracker timeTracker,
@@ -49,6 +43,18 @@ public class TimerTransformer implements DropWizardMetricTransformer<Timer> {
         attributeCustomizer);
   }
 
+  public static TimerTransformer build(
+      SamplingTransformer samplingTransformer,
+      MeteredTransformer meteredTransformer,
+      TimeTracker timeTracker,
+      MetricCustomizations customizations) {
+    return new TimerTransformer(
+        samplingTransformer,
+        meteredTransformer,
+        new CountingTransformer(timeTracker),
+        customizations);
+  }
+
   TimerTransformer(
       SamplingTransformer samplingTransformer,
       MeteredTransformer meteredTransformer,
@@ -67,28 +73,52 @@ public class TimerTransformer implements DropWizardMetricTransformer<Timer> {
       CountingTransformer countingTransformer,
       MetricNameCustomizer nameCustomizer,
       MetricAttributesCustomizer attributeCustomizer) {
+    this(
+        samplingTransformer,
+        meteredTransformer,
+        countingTransformer,
+        MetricCustomizations.uncached(nameCustomizer, attributeCustomizer));
+  }
+
+  TimerTransformer(
+      SamplingTransformer samplingTransformer,
+      MeteredTransformer meteredTransformer,
+      CountingTransformer countingTransformer,
+      MetricCustomizations customizations) {
     this.samplingTransformer = samplingTransformer;
     this.meteredTransformer = meteredTransformer;
     this.countingTransformer = countingTransformer;
-    this.nameCustomizer = nameCustomizer;
-    this.attributeCustomizer = attributeCustomizer;
+    this.customizations = customizations;
+  }
+
+  @Override
+  public void transform(String name, Timer timer, Consumer<Metric> sink) {
+    String customizedName = customizations.customizeName(name);
+    Attributes customizedAttributes = customizations.customizeAttributes(name, timer);
+    if (!customizations.withinCardinalityLimit(customizedName, customizedAttributes)) {
+      // the whole metric goes to the other series of its name, keeping its derived attributes
+      customizedAttributes = customizations.overflowAttributes();
+      sink = customizations.overflow();
+    }
+    samplingTransformer.transform(customizedName, timer, customizedAttributes, sink);
+    meteredTransformer.transform(customizedName, timer, customizedAttributes, sink);
+    countingTransformer.transform(name, customizedName, timer, customizedAttributes, sink);
   }
 
   @Override
-  public Collection<Metric> transform(String name, Timer timer) {
-    String customizedName = nameCustomizer.customizeMetricName(name);
-    Supplier<Attributes> customizedAttributeSupplier =
-        () -> attributeCustomizer.customizeMetricAttributes(name, timer, ATTRIBUTES_SUPPLIER.get());
-    return Stream.of(
-            samplingTransformer.transform(customizedName, timer, customizedAttributeSupplier),
-            meteredTransformer.transform(customizedName, timer, customizedAttributeSupplier),
-            countingTransformer.transform(customizedName, timer, customizedAttributeSupplier))
-        .flatMap(Collection::stream)
-        .collect(toSet());
+  public void onTimerAdded(String name, Timer timer) {
+    customizations.register(name, timer);
+    countingTransformer.register(name);
   }
 
   @Override
   public void onTimerRemoved(String name) {
-    countingTransformer.remove(nameCustomizer.customizeMetricName(name));
+    customizations.evict(name);
+    countingTransformer.remove(name);
+  }
+
+  @Override
+  public int stateSize() {
+    return countingTransformer.size();
   }
 }
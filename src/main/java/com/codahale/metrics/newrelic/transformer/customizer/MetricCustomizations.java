@@ -0,0 +1,145 @@
+package com.codahale.metrics.newrelic.transformer.customizer;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.newrelic.util.CardinalityLimiter;
+import com.newrelic.telemetry.Attributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * {@code MetricCustomizations} applies a {@link MetricNameCustomizer} and a {@link
+ * MetricAttributesCustomizer} on behalf of the metric transformers.
+ *
+ * <p>When caching is enabled, the customized name and attributes of each metric are computed once,
+ * when the metric is {@link #register registered}, and reused on every harvest until the metric is
+ * {@link #evict evicted}. This avoids re-running expensive customizers (for example ones that parse
+ * tags out of metric names), but means the customizers must only depend on the metric name and not
+ * on the metric's current state. Metrics that were never registered are customized on every call.
+ *
+ * <p>When the cardinality is {@link #limitCardinality limited}, the transformers also check each
+ * customized metric against the {@link CardinalityLimiter} before deriving anything from it.
+ */
+public class MetricCustomizations {
+
+  private final MetricNameCustomizer nameCustomizer;
+  private final MetricAttributesCustomizer attributeCustomizer;
+  // null when caching is disabled
+  private final Map<String, CustomizedMetric> cache;
+  // null unless the cardinality is limited
+  private final CardinalityLimiter cardinalityLimiter;
+
+  public static MetricCustomizations uncached(
+      MetricNameCustomizer nameCustomizer, MetricAttributesCustomizer attributeCustomizer) {
+    return new MetricCustomizations(nameCustomizer, attributeCustomizer, null, null);
+  }
+
+  public static MetricCustomizations cached(
+      MetricNameCustomizer nameCustomizer, MetricAttributesCustomizer attributeCustomizer) {
+    return new MetricCustomizations(
+        nameCustomizer, attributeCustomizer, new ConcurrentHashMap<>(), null);
+  }
+
+  private MetricCustomizations(
+      MetricNameCustomizer nameCustomizer,
+      MetricAttributesCustomizer attributeCustomizer,
+      Map<String, CustomizedMetric> cache,
+      CardinalityLimiter cardinalityLimiter) {
+    this.nameCustomizer = nameCustomizer;
+    this.attributeCustomizer = attributeCustomizer;
+    this.cache = cache;
+    this.cardinalityLimiter = cardinalityLimiter;
+  }
+
+  /**
+   * @return customizations that are cached like these ones, and whose metrics are checked against
+   *     the cardinality limiter
+   */
+  public MetricCustomizations limitCardinality(CardinalityLimiter cardinalityLimiter) {
+    return new MetricCustomizations(
+        nameCustomizer, attributeCustomizer, cache, Objects.requireNonNull(cardinalityLimiter));
+  }
+
+  /**
+   * @param name the name that a metric is registered under in the effective {@link MetricRegistry}
+   * @return the customized name of the metric
+   */
+  public String customizeName(String name) {
+    CustomizedMetric customized = cached(name);
+    return customized == null ? nameCustomizer.customizeMetricName(name) : customized.name;
+  }
+
+  /**
+   * @param name the name that a metric is registered under in the effective {@link MetricRegistry}
+   * @param metric the registered metric
+   * @return the customized attributes of the metric. These may be shared between harvests and must
+   *     be copied before being modified.
+   */
+  public Attributes customizeAttributes(String name, Metric metric) {
+    CustomizedMetric customized = cached(name);
+    return customized == null
+        ? attributeCustomizer.customizeMetricAttributes(name, metric, new Attributes())
+        : customized.attributes;
+  }
+
+  /**
+   * @param customizedName the customized name of a metric
+   * @param customizedAttributes the customized attributes of the metric
+   * @return whether the metric is within the cardinality limit, if any. The metrics derived from a
+   *     metric beyond it must use the {@link #overflowAttributes()} and go to the {@link
+   *     #overflow()}.
+   */
+  public boolean withinCardinalityLimit(String customizedName, Attributes customizedAttributes) {
+    return cardinalityLimiter == null
+        || cardinalityLimiter.admit(customizedName, customizedAttributes);
+  }
+
+  /** @return the shared attributes of the metrics beyond the cardinality limit */
+  public Attributes overflowAttributes() {
+    return CardinalityLimiter.otherAttributes();
+  }
+
+  /** @return the sink for the metrics derived from metrics beyond the cardinality limit */
+  public Consumer<com.newrelic.telemetry.metrics.Metric> overflow() {
+    return cardinalityLimiter.overflow();
+  }
+
+  /** Computes and caches the customizations for a metric added to the registry. */
+  public void register(String name, Metric metric) {
+    if (cache != null) {
+      String customizedName = nameCustomizer.customizeMetricName(name);
+      // copied so that later changes to the customizer's return value can't leak into the cache
+      Attributes attributes =
+          attributeCustomizer.customizeMetricAttributes(name, metric, new Attributes()).copy();
+      cache.put(name, new CustomizedMetric(customizedName, attributes));
+    }
+  }
+
+  /** Drops the cached customizations for a metric removed from the registry. */
+  public void evict(String name) {
+    if (cache != null) {
+      cache.remove(name);
+    }
+  }
+
+  /** @return the number of metrics whose customizations are cached */
+  public int size() {
+    return cache == null ? 0 : cache.size();
+  }
+
+  private CustomizedMetric cached(String name) {
+    return cache == null ? null : cache.get(name);
+  }
+
+  private static class CustomizedMetric {
+    private final String name;
+    private final Attributes attributes;
+
+    private CustomizedMetric(String name, Attributes attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+  }
+}
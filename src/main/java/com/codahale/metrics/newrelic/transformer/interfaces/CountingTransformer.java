@@ -7,47 +7,117 @@
 
 package com.codahale.metrics.newrelic.transformer.interfaces;
 
-import static java.util.Collections.singleton;
-
 import com.codahale.metrics.Counting;
 import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Count;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
+import java.util.function.Consumer;
 
+/**
+ * Reports the change in a {@link Counting}'s count since the previous harvest. The previous count
+ * of each metric lives in a mutable slot that is created once, when the metric is {@link #register
+ * registered} (or first transformed), so that steady-state harvests neither box the count nor
+ * re-insert it into the map.
+ *
+ * <p>The slot also holds the start of the metric's next interval: the time its count was last
+ * reported, or the time it was registered. Each count therefore covers exactly the time since the
+ * previous count of the same metric, no matter when the metric was added, how long the previous
+ * batch took to send or whether other metrics are transformed concurrently. The intervals don't
+ * depend on when the {@link TimeTracker} is ticked: a metric that was never registered, because
+ * nothing was listening to the registry when it was added, starts its first interval when the
+ * transformer was created.
+ */
 public class CountingTransformer implements DropWizardComponentTransformer<Counting> {
 
   private final TimeTracker timeTracker;
-  private final Map<String, Long> previousValues = new ConcurrentHashMap<>();
+  // the start of the first interval of metrics that were never registered
+  private final long createdTime;
+  private final Map<String, PreviousCount> previousCounts = new ConcurrentHashMap<>();
 
   public CountingTransformer(TimeTracker timeTracker) {
     this.timeTracker = timeTracker;
+    this.createdTime = timeTracker.getCurrentTime();
   }
 
   @Override
-  public Collection<Metric> transform(
-      String name, Counting counting, Supplier<Attributes> baseAttributes) {
-    long count = counting.getCount();
-    Long previousValue = previousValues.put(name, count);
-    // if the previous value is higher than the current one, then we assume the counter has been
-    // reset, and we send the current as the delta.
-    if ((previousValue != null) && (previousValue <= count)) {
-      count = count - previousValue;
+  public void transform(
+      String name, Counting counting, Attributes baseAttributes, Consumer<Metric> sink) {
+    transform(name, name, counting, baseAttributes, sink);
+  }
+
+  /**
+   * Reports the change in the count of the metric registered as {@code registryName} under its
+   * customized {@code name}. The previous count is kept per registry name, since several metrics
+   * may share a customized name.
+   */
+  public void transform(
+      String registryName,
+      String name,
+      Counting counting,
+      Attributes baseAttributes,
+      Consumer<Metric> sink) {
+    PreviousCount previousCount = previousCounts.get(registryName);
+    if (previousCount == null) {
+      previousCount =
+          previousCounts.computeIfAbsent(registryName, key -> new PreviousCount(createdTime));
     }
-    return singleton(
-        new Count(
-            name,
-            count,
-            timeTracker.getPreviousTime(),
-            timeTracker.getCurrentTime(),
-            baseAttributes.get()));
+    long now = timeTracker.getCurrentTime();
+    long startTime = previousCount.startTime(now);
+    sink.accept(
+        new Count(name, previousCount.delta(counting.getCount()), startTime, now, baseAttributes));
   }
 
+  /**
+   * Creates the slot for a metric added to the registry under {@code metricName}, starting its
+   * first interval now.
+   */
+  public void register(String metricName) {
+    previousCounts.computeIfAbsent(
+        metricName, key -> new PreviousCount(timeTracker.getCurrentTime()));
+  }
+
+  /** Forgets the previous count of the metric registered under {@code metricName}. */
   public void remove(String metricName) {
-    previousValues.remove(metricName);
+    previousCounts.remove(metricName);
+  }
+
+  /** @return the number of metrics that a previous count is kept for */
+  public int size() {
+    return previousCounts.size();
+  }
+
+  // A metric is only transformed by one thread at a time, and harvests are ordered by the reporter,
+  // so the slot doesn't need to be synchronized.
+  private static class PreviousCount {
+    private static final long NONE = Long.MIN_VALUE;
+
+    private long value = NONE;
+    // the end of the last reported interval, or the registration time before the first one
+    private long startTime;
+
+    private PreviousCount(long registrationTime) {
+      this.startTime = registrationTime;
+    }
+
+    /** @return the start of the interval that ends now, which becomes the start of the next one */
+    private long startTime(long now) {
+      long start = startTime;
+      startTime = now;
+      return start;
+    }
+
+    private long delta(long count) {
+      long previousValue = value;
+      value = count;
+      // if the previous value is higher than the current one, then we assume the counter has been
+      // reset, and we send the current as the delta.
+      if ((previousValue != NONE) && (previousValue <= count)) {
+        return count - previousValue;
+      }
+      return count;
+    }
   }
 }
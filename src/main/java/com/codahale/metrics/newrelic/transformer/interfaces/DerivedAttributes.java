@@ -0,0 +1,182 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer.interfaces;
+
+import com.newrelic.telemetry.Attributes;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Produces the attribute sets that a component transformer derives from the base attributes of a
+ * metric, such as the base attributes plus the {@code percentile} of one snapshot value. Each
+ * derived set is identified by a slot number, for example the index of the percentile.
+ *
+ * <p>When reuse is enabled, the derived sets are kept per base attribute set and slot, so a stable
+ * registry allocates them on its first harvest and reuses them on every following one. Base sets
+ * are told apart by identity rather than by their contents, so that a lookup doesn't hash every
+ * attribute; this relies on each metric passing the same instance on every harvest, as the cached
+ * customizations of {@code MetricCustomizations} do, and on that instance not being modified.
+ * Reused sets are shared between harvests and must not be modified either.
+ *
+ * <p>The base sets are only weakly referenced, so the derived sets of a metric are dropped once its
+ * cached customizations are evicted and collected. The number of base sets kept is bounded as
+ * well: past the limit, the sets of further base sets are derived on every call until others have
+ * been dropped.
+ */
+public final class DerivedAttributes {
+
+  /** The default number of base attribute sets to keep the derived sets of. */
+  public static final int DEFAULT_MAX_BASE_ATTRIBUTES = 100_000;
+
+  /** Slots from this one on are derived on every call, even when reuse is enabled. */
+  public static final int MAX_SLOTS = 1024;
+
+  /** Derives one attribute set from the base attributes of a metric. */
+  @FunctionalInterface
+  public interface Derivation {
+    /** @return a new attribute set, which must not modify the base attributes */
+    Attributes derive(Attributes baseAttributes, int slot);
+  }
+
+  private final Derivation derivation;
+  private final int maxBaseAttributes;
+  // keyed by BaseKey and looked up by Lookup; null when reuse is disabled
+  private final ConcurrentMap<Object, AtomicReferenceArray<Attributes>> derived;
+  private final ReferenceQueue<Attributes> collected = new ReferenceQueue<>();
+
+  private DerivedAttributes(Derivation derivation, boolean reuse, int maxBaseAttributes) {
+    if (maxBaseAttributes < 1) {
+      throw new IllegalArgumentException(
+          "maxBaseAttributes must be positive: " + maxBaseAttributes);
+    }
+    this.derivation = derivation;
+    this.maxBaseAttributes = maxBaseAttributes;
+    this.derived = reuse ? new ConcurrentHashMap<>() : null;
+  }
+
+  /** Derives a new attribute set on every call. */
+  public static DerivedAttributes fresh(Derivation derivation) {
+    return new DerivedAttributes(derivation, false, DEFAULT_MAX_BASE_ATTRIBUTES);
+  }
+
+  /** Reuses the derived attribute sets across harvests. */
+  public static DerivedAttributes reused(Derivation derivation) {
+    return reused(derivation, DEFAULT_MAX_BASE_ATTRIBUTES);
+  }
+
+  /**
+   * Reuses the derived attribute sets across harvests.
+   *
+   * @param maxBaseAttributes the number of base attribute sets to keep the derived sets of, past
+   *     which the sets of further base sets are not kept
+   */
+  public static DerivedAttributes reused(Derivation derivation, int maxBaseAttributes) {
+    return new DerivedAttributes(derivation, true, maxBaseAttributes);
+  }
+
+  /** @return the attribute set derived from the base attributes for the slot */
+  public Attributes get(Attributes baseAttributes, int slot) {
+    if (derived == null || slot < 0 || slot >= MAX_SLOTS) {
+      return derivation.derive(baseAttributes, slot);
+    }
+    AtomicReferenceArray<Attributes> slots = derived.get(new Lookup(baseAttributes));
+    if (slots == null || slots.length() <= slot) {
+      slots = grow(baseAttributes, slots, slot);
+      if (slots == null) {
+        return derivation.derive(baseAttributes, slot);
+      }
+    }
+    Attributes attributes = slots.get(slot);
+    if (attributes == null) {
+      attributes = derivation.derive(baseAttributes, slot);
+      // a racing thread may derive the same set, in which case either one is kept
+      slots.lazySet(slot, attributes);
+    }
+    return attributes;
+  }
+
+  /** @return the number of base attribute sets that derived sets are kept for */
+  public int size() {
+    if (derived == null) {
+      return 0;
+    }
+    expunge();
+    return derived.size();
+  }
+
+  // null when the base attributes are new and the limit has been reached
+  private AtomicReferenceArray<Attributes> grow(
+      Attributes baseAttributes, AtomicReferenceArray<Attributes> slots, int slot) {
+    expunge();
+    if (slots == null && derived.size() >= maxBaseAttributes) {
+      return null;
+    }
+    AtomicReferenceArray<Attributes> grown = new AtomicReferenceArray<>(slot + 1);
+    if (slots != null) {
+      for (int i = 0; i < slots.length(); i++) {
+        grown.set(i, slots.get(i));
+      }
+    }
+    derived.put(new BaseKey(baseAttributes, collected), grown);
+    return grown;
+  }
+
+  private void expunge() {
+    for (Reference<?> key = collected.poll(); key != null; key = collected.poll()) {
+      derived.remove(key);
+    }
+  }
+
+  private static final class BaseKey extends WeakReference<Attributes> {
+    private final int hash;
+
+    private BaseKey(Attributes baseAttributes, ReferenceQueue<Attributes> collected) {
+      super(baseAttributes, collected);
+      this.hash = System.identityHashCode(baseAttributes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      Attributes baseAttributes = get();
+      return baseAttributes != null
+          && other instanceof BaseKey
+          && ((BaseKey) other).get() == baseAttributes;
+    }
+  }
+
+  // a plain key for lookups, which unlike a reference is cheap to create for every call
+  private static final class Lookup {
+    private final Attributes baseAttributes;
+
+    private Lookup(Attributes baseAttributes) {
+      this.baseAttributes = baseAttributes;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(baseAttributes);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof BaseKey && ((BaseKey) other).get() == baseAttributes;
+    }
+  }
+}
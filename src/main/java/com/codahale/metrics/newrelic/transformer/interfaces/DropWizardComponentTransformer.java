@@ -10,10 +10,23 @@ package com.codahale.metrics.newrelic.transformer.interfaces;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Metric;
 import java.util.Collection;
-import java.util.function.Supplier;
+import java.util.HashSet;
+import java.util.function.Consumer;
 
 interface DropWizardComponentTransformer<T> {
 
-  Collection<Metric> transform(
-      String name, T dropWizardComponent, Supplier<Attributes> baseAttributes);
+  default Collection<Metric> transform(
+      String name, T dropWizardComponent, Attributes baseAttributes) {
+    Collection<Metric> result = new HashSet<>();
+    transform(name, dropWizardComponent, baseAttributes, result::add);
+    return result;
+  }
+
+  /**
+   * Transforms one aspect of a DropWizard metric. {@code baseAttributes} are the customized
+   * attributes of the metric, shared by every component transformer: they may be attached to
+   * emitted metrics as is, but must be copied before adding metric-specific attributes to them.
+   */
+  void transform(
+      String name, T dropWizardComponent, Attributes baseAttributes, Consumer<Metric> sink);
 }
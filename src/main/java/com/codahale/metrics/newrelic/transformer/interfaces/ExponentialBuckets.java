@@ -0,0 +1,168 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer.interfaces;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the distribution of a {@link Snapshot} as the number of values that fall into each
+ * exponential bucket {@code (base^(i-1), base^i]}. Each non-empty bucket becomes a {@code .buckets}
+ * gauge with a {@code gt} attribute holding its lower bound and an {@code le} attribute holding its
+ * upper bound; the counts are not cumulative. Values up to 0 are counted in a bucket with only an
+ * {@code le} bound of 0. Unlike percentiles, bucket counts with the same bounds can be added up
+ * across instances to estimate percentiles over all of them.
+ *
+ * <p>Only {@link UniformSnapshot}s are bucketed, as taken by uniform and sliding window reservoirs,
+ * where every value counts the same. The values of other snapshots, such as the weighted snapshots
+ * of exponentially decaying reservoirs, are not a fair sample on their own, so no buckets are
+ * reported for them.
+ */
+public class ExponentialBuckets {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExponentialBuckets.class);
+  // the slot of the attributes of the bucket that holds values up to 0
+  private static final int ZERO_SLOT = 0;
+
+  private final double base;
+  private final double logBase;
+  private final DerivedAttributes bucketAttributes;
+  // only the first metric without a uniform snapshot is logged
+  private volatile boolean loggedNonUniform;
+
+  /** @param base the ratio between the bounds of consecutive buckets, greater than 1 */
+  public ExponentialBuckets(double base) {
+    this(base, false);
+  }
+
+  /**
+   * @param base the ratio between the bounds of consecutive buckets, greater than 1
+   * @param reuseAttributes whether to reuse the attributes of each bucket across harvests
+   */
+  public ExponentialBuckets(double base, boolean reuseAttributes) {
+    if (!(base > 1) || Double.isInfinite(base)) {
+      throw new IllegalArgumentException("Bucket base must be greater than 1: " + base);
+    }
+    this.base = base;
+    this.logBase = Math.log(base);
+    this.bucketAttributes =
+        reuseAttributes
+            ? DerivedAttributes.reused(this::deriveAttributes)
+            : DerivedAttributes.fresh(this::deriveAttributes);
+  }
+
+  public double getBase() {
+    return base;
+  }
+
+  /**
+   * @param scaleFactor the values are divided by this factor before being bucketed, so that the
+   *     bounds are in the reported unit
+   */
+  void transform(
+      String name,
+      Snapshot snapshot,
+      double scaleFactor,
+      long now,
+      Attributes baseAttributes,
+      Consumer<Metric> sink) {
+    if (!(snapshot instanceof UniformSnapshot)) {
+      if (!loggedNonUniform) {
+        loggedNonUniform = true;
+        LOG.warn(
+            "Not reporting buckets for {} and any other metric whose reservoir weights its samples,"
+                + " use a uniform or sliding window reservoir to report buckets",
+            name);
+      }
+      return;
+    }
+    // uniform snapshots keep their values sorted
+    long[] values = snapshot.getValues();
+    String bucketsName = name + ".buckets";
+    double upperBound = Double.NaN;
+    double exponent = Double.NaN;
+    int slot = ZERO_SLOT;
+    int count = 0;
+    for (long value : values) {
+      double scaled = value / scaleFactor;
+      if (count > 0 && scaled <= upperBound) {
+        count++;
+        continue;
+      }
+      if (count > 0) {
+        sink.accept(bucket(bucketsName, exponent, slot, count, now, baseAttributes));
+      }
+      if (scaled <= 0) {
+        upperBound = 0;
+        slot = ZERO_SLOT;
+      } else {
+        exponent = exponent(scaled);
+        upperBound = Math.pow(base, exponent);
+        slot = slot(exponent);
+      }
+      count = 1;
+    }
+    if (count > 0) {
+      sink.accept(bucket(bucketsName, exponent, slot, count, now, baseAttributes));
+    }
+  }
+
+  double upperBound(double value) {
+    return value <= 0 ? 0 : Math.pow(base, exponent(value));
+  }
+
+  // the exponent of the upper bound of the bucket of a positive value
+  private double exponent(double value) {
+    double exponent = Math.ceil(Math.log(value) / logBase);
+    // correct for the rounding of the logarithm
+    if (Math.pow(base, exponent) < value) {
+      return exponent + 1;
+    } else if (Math.pow(base, exponent - 1) >= value) {
+      return exponent - 1;
+    }
+    return exponent;
+  }
+
+  // interleaves positive and negative exponents after the zero bucket: 0, -1, 1, -2, 2 and so on
+  private static int slot(double exponent) {
+    double slot = exponent >= 0 ? 2 * exponent + 2 : -2 * exponent + 1;
+    // beyond the slots that are reused, the attributes are derived on every harvest
+    return (int) Math.min(slot, DerivedAttributes.MAX_SLOTS);
+  }
+
+  private Attributes deriveAttributes(Attributes baseAttributes, int slot) {
+    // the inverse of slot(exponent), which the zero slot ignores
+    return bounds(baseAttributes, slot, slot % 2 == 0 ? (slot - 2) / 2 : -(slot - 1) / 2);
+  }
+
+  private Attributes bounds(Attributes baseAttributes, int slot, double exponent) {
+    if (slot == ZERO_SLOT) {
+      return baseAttributes.copy().put("le", 0d);
+    }
+    return baseAttributes
+        .copy()
+        .put("gt", Math.pow(base, exponent - 1))
+        .put("le", Math.pow(base, exponent));
+  }
+
+  /** @param exponent the exponent of the upper bound, unless the slot is the zero slot */
+  private Metric bucket(
+      String name, double exponent, int slot, int count, long now, Attributes baseAttributes) {
+    Attributes attributes =
+        slot < DerivedAttributes.MAX_SLOTS
+            ? bucketAttributes.get(baseAttributes, slot)
+            : bounds(baseAttributes, slot, exponent);
+    return new Gauge(name, count, now, attributes);
+  }
+}
@@ -7,91 +7,112 @@
 
 package com.codahale.metrics.newrelic.transformer.interfaces;
 
-import static java.util.stream.Collectors.toSet;
-
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Metered;
 import com.codahale.metrics.MetricAttribute;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
-import java.util.Collection;
-import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
-import java.util.stream.Stream;
 
 public class MeteredTransformer implements DropWizardComponentTransformer<Metered> {
 
+  private static final MetricAttribute[] RATES = MetricAttribute.values();
+
   private final Clock clock;
   private final long rateFactor;
   private final Predicate<MetricAttribute> metricAttributePredicate;
+  private final DerivedAttributes rateAttributes;
 
   public MeteredTransformer(long rateFactor, Predicate<MetricAttribute> metricAttributePredicate) {
-    this(Clock.defaultClock(), rateFactor, metricAttributePredicate);
+    this(rateFactor, metricAttributePredicate, false);
+  }
+
+  /** @param reuseAttributes whether to reuse the attributes of each rate across harvests */
+  public MeteredTransformer(
+      long rateFactor,
+      Predicate<MetricAttribute> metricAttributePredicate,
+      boolean reuseAttributes) {
+    this(Clock.defaultClock(), rateFactor, metricAttributePredicate, reuseAttributes);
   }
 
   // exists for testing
   MeteredTransformer(
       Clock clock, long rateFactor, Predicate<MetricAttribute> metricAttributePredicate) {
+    this(clock, rateFactor, metricAttributePredicate, false);
+  }
+
+  // exists for testing
+  MeteredTransformer(
+      Clock clock,
+      long rateFactor,
+      Predicate<MetricAttribute> metricAttributePredicate,
+      boolean reuseAttributes) {
     this.clock = clock;
     this.rateFactor = rateFactor;
     this.metricAttributePredicate = metricAttributePredicate;
+    this.rateAttributes =
+        reuseAttributes
+            ? DerivedAttributes.reused(MeteredTransformer::deriveRateAttributes)
+            : DerivedAttributes.fresh(MeteredTransformer::deriveRateAttributes);
   }
 
   @Override
-  public Collection<Metric> transform(
-      String name, Metered metered, Supplier<Attributes> baseAttributes) {
+  public void transform(
+      String name, Metered metered, Attributes baseAttributes, Consumer<Metric> sink) {
     long timestamp = clock.getTime();
 
     String ratesName = name + ".rates";
-    Gauge mean =
-        makeGauge(
-            ratesName,
-            timestamp,
-            convertRate(metered.getMeanRate()),
-            MetricAttribute.MEAN_RATE,
-            baseAttributes);
-    Gauge oneMinuteRate =
-        makeGauge(
-            ratesName,
-            timestamp,
-            convertRate(metered.getOneMinuteRate()),
-            MetricAttribute.M1_RATE,
-            baseAttributes);
-    Gauge fiveMinuteRate =
-        makeGauge(
-            ratesName,
-            timestamp,
-            convertRate(metered.getFiveMinuteRate()),
-            MetricAttribute.M5_RATE,
-            baseAttributes);
-    Gauge fifteenMinuteRate =
-        makeGauge(
-            ratesName,
-            timestamp,
-            convertRate(metered.getFifteenMinuteRate()),
-            MetricAttribute.M15_RATE,
-            baseAttributes);
-
-    return Stream.of(mean, oneMinuteRate, fiveMinuteRate, fifteenMinuteRate)
-        .filter(Objects::nonNull)
-        .collect(toSet());
+    emitGauge(
+        ratesName,
+        timestamp,
+        convertRate(metered.getMeanRate()),
+        MetricAttribute.MEAN_RATE,
+        baseAttributes,
+        sink);
+    emitGauge(
+        ratesName,
+        timestamp,
+        convertRate(metered.getOneMinuteRate()),
+        MetricAttribute.M1_RATE,
+        baseAttributes,
+        sink);
+    emitGauge(
+        ratesName,
+        timestamp,
+        convertRate(metered.getFiveMinuteRate()),
+        MetricAttribute.M5_RATE,
+        baseAttributes,
+        sink);
+    emitGauge(
+        ratesName,
+        timestamp,
+        convertRate(metered.getFifteenMinuteRate()),
+        MetricAttribute.M15_RATE,
+        baseAttributes,
+        sink);
   }
 
   private double convertRate(double meanRate) {
     return rateFactor * meanRate;
   }
 
-  private Gauge makeGauge(
+  private void emitGauge(
       String name,
       long timestamp,
       double count,
       MetricAttribute attribute,
-      Supplier<Attributes> attributes) {
+      Attributes baseAttributes,
+      Consumer<Metric> sink) {
     if (!metricAttributePredicate.test(attribute)) {
-      return null;
+      return;
     }
-    return new Gauge(name, count, timestamp, attributes.get().put("rate", attribute.getCode()));
+    sink.accept(
+        new Gauge(name, count, timestamp, rateAttributes.get(baseAttributes, attribute.ordinal())));
+  }
+
+  private static Attributes deriveRateAttributes(Attributes baseAttributes, int rate) {
+    return baseAttributes.copy().put("rate", RATES[rate].getCode());
   }
 }
@@ -7,9 +7,6 @@
 
 package com.codahale.metrics.newrelic.transformer.interfaces;
 
-import static java.util.stream.Collectors.toSet;
-import static java.util.stream.Stream.concat;
-
 import com.codahale.metrics.Sampling;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.newrelic.util.TimeTracker;
@@ -17,55 +14,130 @@ import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
 import com.newrelic.telemetry.metrics.Summary;
-import java.util.Collection;
-import java.util.function.Supplier;
-import java.util.stream.LongStream;
-import java.util.stream.Stream;
+import java.util.function.Consumer;
 
 public class SamplingTransformer implements DropWizardComponentTransformer<Sampling> {
 
+  private static final double[] DEFAULT_PERCENTILES = {0.5d, 0.75d, 0.95d, 0.98d, 0.99d, 0.999d};
+
   private final TimeTracker timeTracker;
   private final double scaleFactor;
+  private final SnapshotSum snapshotSum;
+  private final double[] percentiles;
+  // the attributes that identify each percentile, computed once and merged into the base attributes
+  private final Attributes[] percentileAttributes;
+  // null unless bucket export is enabled
+  private final ExponentialBuckets buckets;
+  private final DerivedAttributes derivedPercentileAttributes;
 
   public SamplingTransformer(TimeTracker timeTracker, double scaleFactor) {
+    this(timeTracker, scaleFactor, SnapshotSum.EXACT);
+  }
+
+  public SamplingTransformer(TimeTracker timeTracker, double scaleFactor, SnapshotSum snapshotSum) {
+    this(timeTracker, scaleFactor, snapshotSum, DEFAULT_PERCENTILES);
+  }
+
+  /**
+   * @param percentiles the percentiles to report as quantiles between 0 and 1, for example 0.99 for
+   *     the 99th percentile. May be empty to only report the summary.
+   */
+  public SamplingTransformer(
+      TimeTracker timeTracker, double scaleFactor, SnapshotSum snapshotSum, double[] percentiles) {
+    this(timeTracker, scaleFactor, snapshotSum, percentiles, null);
+  }
+
+  /**
+   * @param percentiles the percentiles to report as quantiles between 0 and 1, for example 0.99 for
+   *     the 99th percentile. May be empty to only report the summary.
+   * @param buckets the buckets to report the distribution of the values in, or null for none
+   */
+  public SamplingTransformer(
+      TimeTracker timeTracker,
+      double scaleFactor,
+      SnapshotSum snapshotSum,
+      double[] percentiles,
+      ExponentialBuckets buckets) {
+    this(timeTracker, scaleFactor, snapshotSum, percentiles, buckets, false);
+  }
+
+  /**
+   * @param percentiles the percentiles to report as quantiles between 0 and 1, for example 0.99 for
+   *     the 99th percentile. May be empty to only report the summary.
+   * @param buckets the buckets to report the distribution of the values in, or null for none
+   * @param reuseAttributes whether to reuse the attributes of each percentile across harvests
+   */
+  public SamplingTransformer(
+      TimeTracker timeTracker,
+      double scaleFactor,
+      SnapshotSum snapshotSum,
+      double[] percentiles,
+      ExponentialBuckets buckets,
+      boolean reuseAttributes) {
     this.timeTracker = timeTracker;
     this.scaleFactor = scaleFactor;
+    this.snapshotSum = snapshotSum;
+    this.buckets = buckets;
+    this.percentiles = percentiles.clone();
+    this.percentileAttributes = new Attributes[percentiles.length];
+    for (int i = 0; i < percentiles.length; i++) {
+      double percentile = percentiles[i];
+      if (percentile < 0 || percentile > 1 || Double.isNaN(percentile)) {
+        throw new IllegalArgumentException("Percentile must be between 0 and 1: " + percentile);
+      }
+      percentileAttributes[i] = new Attributes().put("percentile", percentile * 100d);
+      if (percentile == .50) {
+        percentileAttributes[i].put("commonName", "median");
+      }
+    }
+    this.derivedPercentileAttributes =
+        reuseAttributes
+            ? DerivedAttributes.reused(this::derivePercentileAttributes)
+            : DerivedAttributes.fresh(this::derivePercentileAttributes);
+  }
+
+  /** @return the percentiles reported by default, as quantiles */
+  public static double[] defaultPercentiles() {
+    return DEFAULT_PERCENTILES.clone();
   }
 
   @Override
-  public Collection<Metric> transform(
-      String name, Sampling sampling, Supplier<Attributes> baseAttributes) {
+  public void transform(
+      String name, Sampling sampling, Attributes baseAttributes, Consumer<Metric> sink) {
     Snapshot snapshot = sampling.getSnapshot();
 
     long now = timeTracker.getCurrentTime();
     long previousTime = timeTracker.getPreviousTime();
-    Summary summary =
+    sink.accept(
         new Summary(
             name,
             snapshot.size(),
-            calculateSum(snapshot),
+            snapshotSum.sum(snapshot),
             scaleLongValue(snapshot.getMin()),
             scaleLongValue(snapshot.getMax()),
             previousTime,
             now,
-            baseAttributes.get());
+            baseAttributes));
 
-    Gauge median =
-        new Gauge(
-            name + ".percentiles",
-            scaleDoubleValue(snapshot.getMedian()),
-            now,
-            buildAttributes(baseAttributes.get(), .50).put("commonName", "median"));
-    Stream<Gauge> gauges =
-        Stream.of(0.75d, 0.95d, 0.98d, 0.99d, 0.999d)
-            .map(
-                percentile ->
-                    new Gauge(
-                        name + ".percentiles",
-                        scaleDoubleValue(snapshot.getValue(percentile)),
-                        now,
-                        buildAttributes(baseAttributes.get(), percentile)));
-    return concat(Stream.of(median, summary), gauges).collect(toSet());
+    if (buckets != null) {
+      buckets.transform(name, snapshot, scaleFactor, now, baseAttributes, sink);
+    }
+    if (percentiles.length == 0) {
+      return;
+    }
+    String percentilesName = name + ".percentiles";
+    for (int i = 0; i < percentiles.length; i++) {
+      sink.accept(
+          new Gauge(
+              percentilesName,
+              scaleDoubleValue(snapshot.getValue(percentiles[i])),
+              now,
+              derivedPercentileAttributes.get(baseAttributes, i)));
+    }
+  }
+
+  private Attributes derivePercentileAttributes(Attributes baseAttributes, int percentile) {
+    return baseAttributes.copy().putAll(percentileAttributes[percentile]);
   }
 
   private double scaleLongValue(long value) {
@@ -75,12 +147,4 @@ public class SamplingTransformer implements DropWizardComponentTransformer<Sampl
   private double scaleDoubleValue(double value) {
     return value / scaleFactor;
   }
-
-  private Attributes buildAttributes(Attributes baseAttributes, Double percentile) {
-    return baseAttributes.put("percentile", percentile * 100d);
-  }
-
-  private double calculateSum(Snapshot snapshot) {
-    return LongStream.of(snapshot.getValues()).asDoubleStream().sum();
-  }
 }
@@ -0,0 +1,59 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer.interfaces;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * Computes the {@code sum} of the {@link com.newrelic.telemetry.metrics.Summary} reported for a
+ * {@link Snapshot}.
+ *
+ * <p>Implementations for custom reservoirs whose snapshots already know their sum can return it
+ * directly and fall back to {@link #EXACT} for any other snapshot.
+ */
+@FunctionalInterface
+public interface SnapshotSum {
+
+  /**
+   * Multiplies the mean by the number of values, which avoids copying the values. For {@link
+   * UniformSnapshot}s (uniform and sliding window reservoirs) this is the sum up to floating point
+   * rounding. For weighted snapshots (exponentially decaying reservoirs) it is the weighted mean
+   * scaled to the reservoir size, an approximation of the sum.
+   */
+  SnapshotSum MEAN_TIMES_SIZE = snapshot -> snapshot.getMean() * snapshot.size();
+
+  /**
+   * Adds up every value of the snapshot in a single pass, without streams or boxing. {@link
+   * Snapshot#getValues()} copies the values, so prefer {@link #EXACT} unless the snapshot type is
+   * known to need it.
+   */
+  SnapshotSum VALUES =
+      snapshot -> {
+        double sum = 0;
+        for (long value : snapshot.getValues()) {
+          sum += value;
+        }
+        return sum;
+      };
+
+  /**
+   * The sum of the values, computed as cheaply as the snapshot type allows. A {@link
+   * UniformSnapshot} (uniform and sliding window reservoirs) already averages its values without
+   * copying them, so its sum is the mean times the size, up to floating point rounding. Any other
+   * snapshot, such as the weighted snapshots of exponentially decaying reservoirs, falls back to
+   * {@link #VALUES}, since its mean is weighted.
+   */
+  SnapshotSum EXACT =
+      snapshot ->
+          snapshot instanceof UniformSnapshot
+              ? MEAN_TIMES_SIZE.sum(snapshot)
+              : VALUES.sum(snapshot);
+
+  double sum(Snapshot snapshot);
+}
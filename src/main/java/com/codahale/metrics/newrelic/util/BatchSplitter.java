@@ -0,0 +1,105 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the metrics of a harvest into consecutive shards of at most {@code maxMetrics} metrics
+ * and roughly {@code maxBytes} bytes of JSON each.
+ *
+ * <p>The size of a metric is estimated from the length of its name and attributes plus a fixed
+ * allowance for its type, value and timestamps. Metrics of the same DropWizard metric usually share
+ * their attributes instance, so the size of each attributes instance is only computed once per
+ * split.
+ */
+public class BatchSplitter {
+
+  // type, value(s), timestamps and JSON punctuation of a single metric
+  static final int METRIC_OVERHEAD_BYTES = 100;
+  // quotes, colon and comma around an attribute
+  private static final int ATTRIBUTE_OVERHEAD_BYTES = 6;
+
+  private final int maxMetrics;
+  private final long maxBytes;
+
+  public BatchSplitter(int maxMetrics, long maxBytes) {
+    if (maxMetrics < 1) {
+      throw new IllegalArgumentException("maxMetrics must be positive: " + maxMetrics);
+    }
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.maxMetrics = maxMetrics;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return views of consecutive ranges of {@code metrics}. Every shard holds at least one metric,
+   *     even if that metric alone is estimated to exceed {@code maxBytes}.
+   */
+  public List<List<Metric>> split(List<Metric> metrics) {
+    if (metrics.size() <= maxMetrics && maxBytes == Long.MAX_VALUE) {
+      return Collections.singletonList(metrics);
+    }
+    List<List<Metric>> shards = new ArrayList<>(metrics.size() / maxMetrics + 1);
+    Map<Attributes, Integer> attributeSizes = new IdentityHashMap<>();
+    int start = 0;
+    long bytes = 0;
+    for (int i = 0; i < metrics.size(); i++) {
+      long size = maxBytes == Long.MAX_VALUE ? 0 : estimateSize(metrics.get(i), attributeSizes);
+      if (i > start && (i - start == maxMetrics || bytes + size > maxBytes)) {
+        shards.add(metrics.subList(start, i));
+        start = i;
+        bytes = 0;
+      }
+      bytes += size;
+    }
+    if (start < metrics.size()) {
+      shards.add(metrics.subList(start, metrics.size()));
+    }
+    return shards;
+  }
+
+  /** @return the estimated size of the metrics as uncompressed JSON, in bytes */
+  public static long estimateBytes(List<Metric> metrics) {
+    Map<Attributes, Integer> attributeSizes = new IdentityHashMap<>();
+    long bytes = 0;
+    for (Metric metric : metrics) {
+      bytes += estimateSize(metric, attributeSizes);
+    }
+    return bytes;
+  }
+
+  private static long estimateSize(Metric metric, Map<Attributes, Integer> attributeSizes) {
+    Attributes attributes = MetricAccessors.attributes(metric);
+    Integer attributesSize = attributeSizes.get(attributes);
+    if (attributesSize == null) {
+      attributesSize = estimateSize(attributes);
+      attributeSizes.put(attributes, attributesSize);
+    }
+    return METRIC_OVERHEAD_BYTES + MetricAccessors.name(metric).length() + attributesSize;
+  }
+
+  private static int estimateSize(Attributes attributes) {
+    int size = 0;
+    for (Map.Entry<String, Object> attribute : attributes.asMap().entrySet()) {
+      size +=
+          attribute.getKey().length()
+              + String.valueOf(attribute.getValue()).length()
+              + ATTRIBUTE_OVERHEAD_BYTES;
+    }
+    return size;
+  }
+}
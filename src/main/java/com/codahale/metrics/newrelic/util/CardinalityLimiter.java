@@ -0,0 +1,206 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.newrelic.util.MetricAggregator.GaugeAggregation;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caps the number of series reported per metric name, to protect the reporter and the account from
+ * attribute customizers that turn unbounded values such as request ids into attributes. A series is
+ * a DropWizard metric, identified by its customized name and attributes before any percentile,
+ * rate or bucket is derived from them. The first {@code maxSeriesPerName} distinct attribute sets
+ * of a name are reported as usual. Metrics with any further attribute set are reported as a whole
+ * with the attribute {@code series=other} instead of their own attributes, so that their derived
+ * metrics keep the attributes that tell them apart. They are merged into one series per name, type
+ * and derived attributes like {@link MetricAggregator} does, and are counted in the {@code
+ * overflow} counter.
+ *
+ * <p>Once a name overflows, the number of its distinct series is estimated with a {@link
+ * HyperLogLog} sketch, which is logged when the overflow starts. Series that were not seen for
+ * {@code keptHarvests} harvests are forgotten and make room for new ones.
+ *
+ * <p>{@link #admit} may be called from several threads during a harvest, in which case the cap may
+ * be exceeded by a few series. {@link #flushOverflow} and then {@link #endHarvest()} must be
+ * called once all of them are done.
+ */
+public class CardinalityLimiter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CardinalityLimiter.class);
+  private static final Attributes OTHER_ATTRIBUTES = new Attributes().put("series", "other");
+
+  private final int maxSeriesPerName;
+  private final int keptHarvests;
+  private final MetricAggregator overflowAggregator;
+  private final Counter overflow;
+  private final Map<String, NameSeries> names = new ConcurrentHashMap<>();
+  private final Queue<Metric> overflowed = new ConcurrentLinkedQueue<>();
+  private final Consumer<Metric> overflowSink = overflowed::add;
+  private volatile long harvest;
+
+  public CardinalityLimiter(int maxSeriesPerName, GaugeAggregation gaugeAggregation) {
+    this(maxSeriesPerName, 1, gaugeAggregation, new Counter());
+  }
+
+  /**
+   * @param keptHarvests the number of harvests after which a series that was not seen is forgotten.
+   *     Must be at least the number of reporter periods between harvests of any metric type.
+   * @param gaugeAggregation how the values of overflowing gauges are combined
+   * @param overflow counts the DropWizard metrics that are reported in the other series
+   */
+  public CardinalityLimiter(
+      int maxSeriesPerName, int keptHarvests, GaugeAggregation gaugeAggregation, Counter overflow) {
+    if (maxSeriesPerName < 1) {
+      throw new IllegalArgumentException("maxSeriesPerName must be positive: " + maxSeriesPerName);
+    }
+    this.maxSeriesPerName = maxSeriesPerName;
+    this.keptHarvests = keptHarvests;
+    this.overflowAggregator = new MetricAggregator(gaugeAggregation);
+    this.overflow = overflow;
+  }
+
+  /**
+   * Looks up the series of a DropWizard metric, before anything is derived from it. The metrics of
+   * a DropWizard metric that is not admitted must be derived from {@link #otherAttributes()} and
+   * passed to {@link #overflow()}.
+   *
+   * @param name the customized name of the metric
+   * @param attributes the customized attributes of the metric
+   * @return whether the series is within the cap of its name
+   */
+  public boolean admit(String name, Attributes attributes) {
+    NameSeries series = names.get(name);
+    if (series == null) {
+      series = names.computeIfAbsent(name, key -> new NameSeries());
+    }
+    if (series.admit(name, attributes, harvest)) {
+      return true;
+    }
+    overflow.inc();
+    return false;
+  }
+
+  /**
+   * @return the attributes that the metrics of series beyond the cap are derived from. They are
+   *     shared and must be copied before being modified.
+   */
+  public static Attributes otherAttributes() {
+    return OTHER_ATTRIBUTES;
+  }
+
+  /** @return the sink for the metrics of series beyond the cap, kept for {@link #flushOverflow} */
+  public Consumer<Metric> overflow() {
+    return overflowSink;
+  }
+
+  /**
+   * Passes the overflow of the harvest, merged into one series per name, type and derived
+   * attributes, to the sink.
+   */
+  public void flushOverflow(Consumer<Metric> sink) {
+    if (overflowed.isEmpty()) {
+      return;
+    }
+    List<Metric> metrics = new ArrayList<>(overflowed);
+    overflowed.clear();
+    overflowAggregator.aggregate(metrics, sink);
+  }
+
+  /** Forgets the series that were not seen for a while, i.e. removed metrics. */
+  public void endHarvest() {
+    long currentHarvest = harvest;
+    names.values().removeIf(series -> series.forget(currentHarvest - keptHarvests));
+    harvest = currentHarvest + 1;
+  }
+
+  /**
+   * @return the estimated number of distinct series seen for the name since it started overflowing,
+   *     or the exact number of its current series if it never overflowed
+   */
+  public long estimatedSeries(String name) {
+    NameSeries series = names.get(name);
+    return series == null ? 0 : series.estimate();
+  }
+
+  /** @return the number of series admitted over all names */
+  public int size() {
+    int size = 0;
+    for (NameSeries series : names.values()) {
+      size += series.admitted.size();
+    }
+    return size;
+  }
+
+  private class NameSeries {
+    private final Map<Attributes, LastSeen> admitted = new ConcurrentHashMap<>();
+    // created when the name first overflows
+    private HyperLogLog sketch;
+
+    private boolean admit(String name, Attributes attributes, long currentHarvest) {
+      LastSeen seen = admitted.get(attributes);
+      if (seen != null) {
+        seen.harvest = currentHarvest;
+        return true;
+      }
+      synchronized (this) {
+        if (admitted.size() < maxSeriesPerName) {
+          admitted.put(attributes, new LastSeen(currentHarvest));
+          if (sketch != null) {
+            sketch.add(attributes.hashCode());
+          }
+          return true;
+        }
+        if (sketch == null) {
+          sketch = new HyperLogLog();
+          admitted.keySet().forEach(known -> sketch.add(known.hashCode()));
+          LOG.warn(
+              "Metric {} has more than {} series, further series are reported as one series with"
+                  + " the attribute series=other",
+              name,
+              maxSeriesPerName);
+        }
+        sketch.add(attributes.hashCode());
+        return false;
+      }
+    }
+
+    /**
+     * Forgets the series last seen in or before the given harvest.
+     *
+     * @return whether no series are left
+     */
+    private boolean forget(long lastForgottenHarvest) {
+      admitted.values().removeIf(seen -> seen.harvest <= lastForgottenHarvest);
+      return admitted.isEmpty();
+    }
+
+    private synchronized long estimate() {
+      return sketch == null ? admitted.size() : sketch.estimate();
+    }
+  }
+
+  // only ever touched by the thread transforming its series
+  private static class LastSeen {
+    private long harvest;
+
+    private LastSeen(long harvest) {
+      this.harvest = harvest;
+    }
+  }
+}
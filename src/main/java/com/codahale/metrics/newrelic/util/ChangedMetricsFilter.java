@@ -0,0 +1,128 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.Summary;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Drops metrics whose value has not changed since they were last sent. A {@link Count} is
+ * unchanged when its value is zero, a {@link Gauge} when its value equals the last one sent and a
+ * {@link Summary} when its count, sum, min and max all do. Unchanged metrics are still sent once
+ * they have not been sent for {@code maxStalenessMillis}, so that dashboards don't show gaps.
+ *
+ * <p>Series are identified by metric type, name and attributes. {@link #filter} may be called from
+ * several threads during a harvest, as long as each series is only seen by one of them, and {@link
+ * #endHarvest()} must be called once all of them are done.
+ */
+public class ChangedMetricsFilter {
+
+  private final long maxStalenessMillis;
+  private final int keptHarvests;
+  private final Map<MetricSeries, LastSent> lastSent = new ConcurrentHashMap<>();
+  private volatile long harvest;
+
+  public ChangedMetricsFilter(long maxStalenessMillis) {
+    this(maxStalenessMillis, 1);
+  }
+
+  /**
+   * @param keptHarvests the number of harvests after which a series that was not seen is forgotten.
+   *     Must be at least the number of reporter periods between harvests of any metric type.
+   */
+  public ChangedMetricsFilter(long maxStalenessMillis, int keptHarvests) {
+    this.maxStalenessMillis = maxStalenessMillis;
+    this.keptHarvests = keptHarvests;
+  }
+
+  /**
+   * @param sink receives the metrics that should be sent
+   * @param now the time of the current harvest, in milliseconds
+   * @return a sink that forwards changed and stale metrics to {@code sink}
+   */
+  public Consumer<Metric> filter(Consumer<Metric> sink, long now) {
+    long currentHarvest = harvest;
+    return metric -> {
+      if (shouldSend(metric, now, currentHarvest)) {
+        sink.accept(metric);
+      }
+    };
+  }
+
+  /** Forgets the series that were not seen for a while, i.e. removed metrics. */
+  public void endHarvest() {
+    long currentHarvest = harvest;
+    lastSent.values().removeIf(sent -> currentHarvest - sent.harvest >= keptHarvests);
+    harvest = currentHarvest + 1;
+  }
+
+  /** @return the number of series whose last sent values are kept */
+  public int size() {
+    return lastSent.size();
+  }
+
+  private boolean shouldSend(Metric metric, long now, long currentHarvest) {
+    LastSent sent =
+        lastSent.computeIfAbsent(
+            new MetricSeries(metric), series -> new LastSent(now, currentHarvest));
+    sent.harvest = currentHarvest;
+    boolean changed = sent.update(metric);
+    if (changed || sent.isNew || now - sent.time >= maxStalenessMillis) {
+      sent.isNew = false;
+      sent.time = now;
+      return true;
+    }
+    return false;
+  }
+
+  // only ever touched by the thread transforming its series
+  private static class LastSent {
+    private long time;
+    private long harvest;
+    private boolean isNew = true;
+    private double value;
+    private double sum;
+    private double min;
+    private double max;
+
+    private LastSent(long time, long harvest) {
+      this.time = time;
+      this.harvest = harvest;
+    }
+
+    /** Records the values of the metric and returns whether they changed. */
+    private boolean update(Metric metric) {
+      if (metric instanceof Count) {
+        return ((Count) metric).getValue() != 0;
+      }
+      if (metric instanceof Gauge) {
+        return set(((Gauge) metric).getValue(), 0, 0, 0);
+      }
+      Summary summary = (Summary) metric;
+      return set(summary.getCount(), summary.getSum(), summary.getMin(), summary.getMax());
+    }
+
+    private boolean set(double value, double sum, double min, double max) {
+      boolean changed =
+          Double.compare(this.value, value) != 0
+              || Double.compare(this.sum, sum) != 0
+              || Double.compare(this.min, min) != 0
+              || Double.compare(this.max, max) != 0;
+      this.value = value;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+      return changed;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.codahale.metrics.Gauge;
+import java.util.Map;
+
+/** Reads the values of gauges on behalf of the {@code GaugeTransformer}. */
+@FunctionalInterface
+public interface GaugeReader {
+
+  /** Calls the gauge on the harvesting thread. */
+  GaugeReader DIRECT = (name, gauge) -> gauge.getValue();
+
+  /**
+   * Read instead of a value when the gauge did not return one in time. The gauge is skipped, and
+   * counted as a timeout by the reader rather than as a dropped gauge.
+   */
+  Object TIMED_OUT = new Object();
+
+  /** Called with all the gauges of a harvest before they are read one by one. */
+  default void startHarvest(Map<String, Gauge> gauges) {}
+
+  /**
+   * @param name the name that the gauge is registered under
+   * @return the value to report for the gauge, or null if there is none
+   */
+  Object read(String name, Gauge<?> gauge);
+
+  /** Drops any state kept for a gauge removed from the registry. */
+  default void forget(String name) {}
+}
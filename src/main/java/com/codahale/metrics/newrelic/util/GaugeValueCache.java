@@ -0,0 +1,233 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the values of gauges for a time to live, so that harvests report the cached value instead
+ * of calling expensive gauges every time. The time to live of a gauge is taken from the first
+ * override whose pattern matches its whole registry name, or the default otherwise; a time to
+ * live of zero disables caching.
+ *
+ * <p>Each cached value is refreshed on the refresher thread once three quarters of its time to
+ * live have passed, so that harvests find a fresh value without reading the gauge themselves. A
+ * value is only refreshed while it is in use: once no harvest read it since its last refresh, it
+ * is left to expire. Only the first value of each gauge, and values that expired with no refresh
+ * in flight, are read on the harvesting thread.
+ */
+public class GaugeValueCache implements GaugeReader, Closeable {
+
+  private final GaugeReader delegate;
+  private final long defaultTtlNanos;
+  private final Map<Pattern, Long> ttlOverridesNanos;
+  private final Scheduler refresher;
+  // null unless the refresher was created by the cache, which then shuts it down when closed
+  private final ExecutorService ownRefresher;
+  private final Clock clock;
+  private final Map<String, CachedValue> values = new ConcurrentHashMap<>();
+
+  /** Refreshes the values on a daemon thread that is stopped when the cache is closed. */
+  public GaugeValueCache(
+      GaugeReader delegate, long defaultTtlNanos, Map<Pattern, Long> ttlOverridesNanos) {
+    this(delegate, defaultTtlNanos, ttlOverridesNanos, newRefresher());
+  }
+
+  private GaugeValueCache(
+      GaugeReader delegate,
+      long defaultTtlNanos,
+      Map<Pattern, Long> ttlOverridesNanos,
+      ScheduledExecutorService ownRefresher) {
+    this(
+        delegate,
+        defaultTtlNanos,
+        ttlOverridesNanos,
+        scheduler(ownRefresher),
+        ownRefresher,
+        Clock.defaultClock());
+  }
+
+  /**
+   * @param delegate reads the values that are cached
+   * @param ttlOverridesNanos times to live by registry name pattern, in the order they are matched
+   * @param refresher runs the refreshes, and is not shut down when the cache is closed
+   */
+  public GaugeValueCache(
+      GaugeReader delegate,
+      long defaultTtlNanos,
+      Map<Pattern, Long> ttlOverridesNanos,
+      ScheduledExecutorService refresher,
+      Clock clock) {
+    this(delegate, defaultTtlNanos, ttlOverridesNanos, scheduler(refresher), null, clock);
+  }
+
+  // exists for testing
+  GaugeValueCache(
+      GaugeReader delegate,
+      long defaultTtlNanos,
+      Map<Pattern, Long> ttlOverridesNanos,
+      Scheduler refresher,
+      ExecutorService ownRefresher,
+      Clock clock) {
+    this.delegate = delegate;
+    this.defaultTtlNanos = defaultTtlNanos;
+    this.ttlOverridesNanos = new LinkedHashMap<>(ttlOverridesNanos);
+    this.refresher = refresher;
+    this.ownRefresher = ownRefresher;
+    this.clock = clock;
+  }
+
+  private static ScheduledExecutorService newRefresher() {
+    return Executors.newSingleThreadScheduledExecutor(
+        runnable -> {
+          Thread thread = new Thread(runnable, "newrelic-gauge-refresher");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private static Scheduler scheduler(ScheduledExecutorService refresher) {
+    return (refresh, delayNanos) -> refresher.schedule(refresh, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Passes on only the gauges that the harvest will read from the delegate. */
+  @Override
+  public void startHarvest(Map<String, Gauge> gauges) {
+    Map<String, Gauge> reads = new LinkedHashMap<>();
+    long now = clock.getTick();
+    gauges.forEach(
+        (name, gauge) -> {
+          CachedValue cached = values.computeIfAbsent(name, this::newCachedValue);
+          if (cached.ttlNanos == 0 || mustLoad(cached, now)) {
+            reads.put(name, gauge);
+          }
+        });
+    delegate.startHarvest(reads);
+  }
+
+  @Override
+  public Object read(String name, Gauge<?> gauge) {
+    CachedValue cached = values.computeIfAbsent(name, this::newCachedValue);
+    if (cached.ttlNanos == 0) {
+      return delegate.read(name, gauge);
+    }
+    cached.inUse = true;
+    Object value = mustLoad(cached, clock.getTick()) ? load(cached, name, gauge) : cached.value;
+    if (cached.scheduled.compareAndSet(false, true)) {
+      long dueAt = cached.loadedAt + refreshAfterNanos(cached);
+      scheduleRefresh(cached, name, gauge, Math.max(0, dueAt - clock.getTick()));
+    }
+    return value;
+  }
+
+  @Override
+  public void forget(String name) {
+    values.remove(name);
+    delegate.forget(name);
+  }
+
+  /**
+   * Stops the refresher if the cache created it. The delegate is not closed, as it is owned by
+   * whoever created it.
+   */
+  @Override
+  public void close() {
+    if (ownRefresher != null) {
+      ownRefresher.shutdownNow();
+    }
+  }
+
+  private CachedValue newCachedValue(String name) {
+    for (Map.Entry<Pattern, Long> override : ttlOverridesNanos.entrySet()) {
+      if (override.getKey().matcher(name).matches()) {
+        return new CachedValue(override.getValue());
+      }
+    }
+    return new CachedValue(defaultTtlNanos);
+  }
+
+  // values that are not loaded yet, or expired with no refresh in flight, are read when harvested
+  private static boolean mustLoad(CachedValue cached, long now) {
+    return !cached.loaded || (now - cached.loadedAt >= cached.ttlNanos && !cached.refreshing);
+  }
+
+  private Object load(CachedValue cached, String name, Gauge<?> gauge) {
+    Object value = delegate.read(name, gauge);
+    // a timed out read is not cached, so that the next harvest reads the gauge again
+    if (value != TIMED_OUT) {
+      cached.value = value;
+      cached.loadedAt = clock.getTick();
+      cached.loaded = true;
+    }
+    return value;
+  }
+
+  private static long refreshAfterNanos(CachedValue cached) {
+    return cached.ttlNanos - cached.ttlNanos / 4;
+  }
+
+  private void scheduleRefresh(CachedValue cached, String name, Gauge<?> gauge, long delayNanos) {
+    try {
+      refresher.schedule(() -> refresh(cached, name, gauge), delayNanos);
+    } catch (RejectedExecutionException e) {
+      // the cache is closed, so harvests load the value once it expires
+      cached.scheduled.set(false);
+    }
+  }
+
+  private void refresh(CachedValue cached, String name, Gauge<?> gauge) {
+    // forgotten values and values that no harvest read since the last refresh are left to expire
+    if (values.get(name) != cached || !cached.inUse) {
+      cached.scheduled.set(false);
+      return;
+    }
+    cached.inUse = false;
+    cached.refreshing = true;
+    try {
+      load(cached, name, gauge);
+    } finally {
+      cached.refreshing = false;
+    }
+    // also after a timed out read, which keeps the previous value until it expires
+    scheduleRefresh(cached, name, gauge, refreshAfterNanos(cached));
+  }
+
+  /** Runs a refresh after a delay. */
+  @FunctionalInterface
+  interface Scheduler {
+    void schedule(Runnable refresh, long delayNanos);
+  }
+
+  private static class CachedValue {
+    private final long ttlNanos;
+    // whether a refresh is scheduled or running
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean refreshing;
+    // whether a harvest read the value since the last refresh
+    private volatile boolean inUse;
+    private volatile Object value;
+    private volatile long loadedAt;
+    private volatile boolean loaded;
+
+    private CachedValue(long ttlNanos) {
+      this.ttlNanos = ttlNanos;
+    }
+  }
+}
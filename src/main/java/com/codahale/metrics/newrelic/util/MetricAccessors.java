@@ -0,0 +1,80 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.Summary;
+
+/** The telemetry SDK's {@link Metric} has no accessors, so these dispatch on the metric type. */
+final class MetricAccessors {
+
+  private MetricAccessors() {}
+
+  static String name(Metric metric) {
+    if (metric instanceof Gauge) {
+      return ((Gauge) metric).getName();
+    }
+    if (metric instanceof Count) {
+      return ((Count) metric).getName();
+    }
+    if (metric instanceof Summary) {
+      return ((Summary) metric).getName();
+    }
+    throw unsupported(metric);
+  }
+
+  static Attributes attributes(Metric metric) {
+    if (metric instanceof Gauge) {
+      return ((Gauge) metric).getAttributes();
+    }
+    if (metric instanceof Count) {
+      return ((Count) metric).getAttributes();
+    }
+    if (metric instanceof Summary) {
+      return ((Summary) metric).getAttributes();
+    }
+    throw unsupported(metric);
+  }
+
+  /** @return a copy of the metric with other attributes */
+  static Metric withAttributes(Metric metric, Attributes attributes) {
+    if (metric instanceof Gauge) {
+      Gauge gauge = (Gauge) metric;
+      return new Gauge(gauge.getName(), gauge.getValue(), gauge.getTimestamp(), attributes);
+    }
+    if (metric instanceof Count) {
+      Count count = (Count) metric;
+      return new Count(
+          count.getName(),
+          count.getValue(),
+          count.getStartTimeMs(),
+          count.getEndTimeMs(),
+          attributes);
+    }
+    if (metric instanceof Summary) {
+      Summary summary = (Summary) metric;
+      return new Summary(
+          summary.getName(),
+          summary.getCount(),
+          summary.getSum(),
+          summary.getMin(),
+          summary.getMax(),
+          summary.getStartTimeMs(),
+          summary.getEndTimeMs(),
+          attributes);
+    }
+    throw unsupported(metric);
+  }
+
+  private static IllegalArgumentException unsupported(Metric metric) {
+    return new IllegalArgumentException("Unsupported metric type: " + metric.getClass());
+  }
+}
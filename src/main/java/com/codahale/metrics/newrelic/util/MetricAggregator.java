@@ -0,0 +1,162 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.Summary;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Merges the metrics of a harvest that have the same type, name and attributes, which happens when
+ * a name customizer maps several DropWizard metrics onto one name. Counts are added up, summaries
+ * are combined (counts and sums added up, the lowest min and highest max kept) and gauges are
+ * combined according to a {@link GaugeAggregation}. Metrics without duplicates are passed through
+ * unchanged, in the order they were first seen.
+ */
+public class MetricAggregator {
+
+  /** How the values of gauges with the same name and attributes are combined. */
+  public enum GaugeAggregation {
+    SUM,
+    MIN,
+    MAX,
+    AVERAGE,
+    /** Keeps the value of the gauge that was harvested last. */
+    LAST
+  }
+
+  private final GaugeAggregation gaugeAggregation;
+
+  public MetricAggregator(GaugeAggregation gaugeAggregation) {
+    this.gaugeAggregation = gaugeAggregation;
+  }
+
+  /** Passes the aggregated {@code metrics} to the {@code sink}. */
+  public void aggregate(List<Metric> metrics, Consumer<Metric> sink) {
+    // values are the metric itself until a duplicate turns them into an Aggregate
+    Map<MetricSeries, Object> series = new LinkedHashMap<>(metrics.size() * 4 / 3 + 1);
+    for (Metric metric : metrics) {
+      series.merge(new MetricSeries(metric), metric, this::merge);
+    }
+    for (Object aggregated : series.values()) {
+      sink.accept(
+          aggregated instanceof Aggregate
+              ? ((Aggregate) aggregated).toMetric()
+              : (Metric) aggregated);
+    }
+  }
+
+  private Object merge(Object aggregated, Object metric) {
+    Aggregate aggregate =
+        aggregated instanceof Aggregate
+            ? (Aggregate) aggregated
+            : new Aggregate((Metric) aggregated, gaugeAggregation);
+    aggregate.add((Metric) metric);
+    return aggregate;
+  }
+
+  private static class Aggregate {
+    private final Metric first;
+    private final GaugeAggregation gaugeAggregation;
+    private int merged = 1;
+    private double value;
+    private int count;
+    private double sum;
+    private double min;
+    private double max;
+    private long start;
+    private long end;
+
+    private Aggregate(Metric first, GaugeAggregation gaugeAggregation) {
+      this.first = first;
+      this.gaugeAggregation = gaugeAggregation;
+      if (first instanceof Count) {
+        Count count = (Count) first;
+        value = count.getValue();
+        start = count.getStartTimeMs();
+        end = count.getEndTimeMs();
+      } else if (first instanceof Summary) {
+        Summary summary = (Summary) first;
+        count = summary.getCount();
+        sum = summary.getSum();
+        min = summary.getMin();
+        max = summary.getMax();
+        start = summary.getStartTimeMs();
+        end = summary.getEndTimeMs();
+      } else {
+        Gauge gauge = (Gauge) first;
+        value = gauge.getValue();
+        end = gauge.getTimestamp();
+      }
+    }
+
+    private void add(Metric metric) {
+      merged++;
+      if (metric instanceof Count) {
+        Count other = (Count) metric;
+        value += other.getValue();
+        start = Math.min(start, other.getStartTimeMs());
+        end = Math.max(end, other.getEndTimeMs());
+      } else if (metric instanceof Summary) {
+        addSummary((Summary) metric);
+      } else {
+        addGauge((Gauge) metric);
+      }
+    }
+
+    private void addSummary(Summary other) {
+      // empty reservoirs report a min and max of 0, which mustn't win over real values
+      if (other.getCount() > 0) {
+        min = count > 0 ? Math.min(min, other.getMin()) : other.getMin();
+        max = count > 0 ? Math.max(max, other.getMax()) : other.getMax();
+      }
+      count += other.getCount();
+      sum += other.getSum();
+      start = Math.min(start, other.getStartTimeMs());
+      end = Math.max(end, other.getEndTimeMs());
+    }
+
+    private void addGauge(Gauge other) {
+      double otherValue = other.getValue();
+      switch (gaugeAggregation) {
+        case SUM:
+        case AVERAGE:
+          value += otherValue;
+          break;
+        case MIN:
+          value = Math.min(value, otherValue);
+          break;
+        case MAX:
+          value = Math.max(value, otherValue);
+          break;
+        default:
+          value = otherValue;
+      }
+      end = Math.max(end, other.getTimestamp());
+    }
+
+    private Metric toMetric() {
+      Attributes attributes = MetricAccessors.attributes(first);
+      String name = MetricAccessors.name(first);
+      if (first instanceof Count) {
+        return new Count(name, value, start, end, attributes);
+      }
+      if (first instanceof Summary) {
+        return new Summary(name, count, sum, min, max, start, end, attributes);
+      }
+      double gaugeValue = gaugeAggregation == GaugeAggregation.AVERAGE ? value / merged : value;
+      return new Gauge(name, gaugeValue, end, attributes);
+    }
+  }
+}
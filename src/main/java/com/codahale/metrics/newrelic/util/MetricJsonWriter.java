@@ -0,0 +1,326 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.Summary;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the metrics of a harvest as a gzipped Metric API payload while they are transformed, so
+ * that a harvest never holds a list of all its metrics. Only the compressed payload is kept, in a
+ * buffer that is reused by every harvest.
+ *
+ * <p>Metrics with a value that is not finite can't be represented in JSON and are skipped. The
+ * position of each metric in the payload is kept, so that a finished payload can be cut into {@link
+ * #slice slices} when the endpoint rejects it as too large.
+ */
+public class MetricJsonWriter implements Consumer<Metric> {
+
+  private static final int WRITE_BUFFER_CHARS = 16 * 1024;
+  private static final String PAYLOAD_END = "]}]";
+
+  private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+  private CountingWriter json;
+  private CountingOutputStream uncompressed;
+  private int metrics;
+  // the offset in characters at which each metric of the current payload starts
+  private int[] metricStarts = new int[1024];
+  // the finished payload, decompressed once it is sliced or logged
+  private String finishedJson;
+
+  /** Starts a new payload, discarding the previous one. */
+  public void begin(Attributes commonAttributes) {
+    compressed.reset();
+    metrics = 0;
+    finishedJson = null;
+    try {
+      uncompressed = new CountingOutputStream(new GZIPOutputStream(compressed, 8192));
+      json =
+          new CountingWriter(
+              new BufferedWriter(
+                  new OutputStreamWriter(uncompressed, StandardCharsets.UTF_8),
+                  WRITE_BUFFER_CHARS));
+      json.write("[{\"common\":{\"attributes\":");
+      writeAttributes(commonAttributes);
+      json.write("},\"metrics\":[");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void accept(Metric metric) {
+    try {
+      if (metric instanceof Gauge) {
+        writeGauge((Gauge) metric);
+      } else if (metric instanceof Count) {
+        writeCount((Count) metric);
+      } else if (metric instanceof Summary) {
+        writeSummary((Summary) metric);
+      } else {
+        throw new IllegalArgumentException("Unsupported metric type: " + metric.getClass());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** @return the gzipped payload */
+  public byte[] finish() {
+    try {
+      json.write(PAYLOAD_END);
+      json.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  /** @return the number of metrics written to the current payload */
+  public int getMetrics() {
+    return metrics;
+  }
+
+  /** @return the size of the current payload before compression, once it is finished */
+  public long getUncompressedBytes() {
+    return uncompressed.count;
+  }
+
+  /**
+   * @return the compressed size of the current payload so far, which lags the metrics written by
+   *     what the write buffer and the compressor still hold
+   */
+  public long getCompressedBytes() {
+    return compressed.size();
+  }
+
+  /** @return the JSON of the finished payload */
+  public String json() {
+    if (finishedJson == null) {
+      try (InputStream in =
+          new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+        finishedJson = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return finishedJson;
+  }
+
+  /**
+   * @return a gzipped payload with the common attributes and only the metrics {@code from}
+   *     (inclusive) to {@code to} (exclusive) of the finished payload
+   */
+  public byte[] slice(int from, int to) {
+    if (from < 0 || to > metrics || from >= to) {
+      throw new IndexOutOfBoundsException(
+          "Can't slice metrics " + from + " to " + to + " of " + metrics);
+    }
+    String finished = json();
+    int end = to == metrics ? finished.length() - PAYLOAD_END.length() : metricStarts[to] - 1;
+    ByteArrayOutputStream slice = new ByteArrayOutputStream(compressed.size());
+    try (Writer out =
+        new OutputStreamWriter(new GZIPOutputStream(slice), StandardCharsets.UTF_8)) {
+      out.write(finished, 0, metricStarts[0]);
+      out.write(finished, metricStarts[from], end - metricStarts[from]);
+      out.write(PAYLOAD_END);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return slice.toByteArray();
+  }
+
+  private void writeGauge(Gauge gauge) throws IOException {
+    if (!Double.isFinite(gauge.getValue())) {
+      return;
+    }
+    startMetric(gauge.getName(), "gauge");
+    json.write(Double.toString(gauge.getValue()));
+    json.write(",\"timestamp\":");
+    json.write(Long.toString(gauge.getTimestamp()));
+    endMetric(gauge.getAttributes());
+  }
+
+  private void writeCount(Count count) throws IOException {
+    if (!Double.isFinite(count.getValue())) {
+      return;
+    }
+    startMetric(count.getName(), "count");
+    json.write(Double.toString(count.getValue()));
+    writeInterval(count.getStartTimeMs(), count.getEndTimeMs());
+    endMetric(count.getAttributes());
+  }
+
+  private void writeSummary(Summary summary) throws IOException {
+    if (!Double.isFinite(summary.getSum())
+        || !Double.isFinite(summary.getMin())
+        || !Double.isFinite(summary.getMax())) {
+      return;
+    }
+    startMetric(summary.getName(), "summary");
+    json.write("{\"count\":");
+    json.write(Integer.toString(summary.getCount()));
+    json.write(",\"sum\":");
+    json.write(Double.toString(summary.getSum()));
+    json.write(",\"min\":");
+    json.write(Double.toString(summary.getMin()));
+    json.write(",\"max\":");
+    json.write(Double.toString(summary.getMax()));
+    json.write('}');
+    writeInterval(summary.getStartTimeMs(), summary.getEndTimeMs());
+    endMetric(summary.getAttributes());
+  }
+
+  private void startMetric(String name, String type) throws IOException {
+    if (metrics > 0) {
+      json.write(',');
+    }
+    if (metrics == metricStarts.length) {
+      metricStarts = Arrays.copyOf(metricStarts, metrics * 2);
+    }
+    metricStarts[metrics++] = json.count;
+    json.write("{\"name\":");
+    writeString(name);
+    json.write(",\"type\":\"");
+    json.write(type);
+    json.write("\",\"value\":");
+  }
+
+  private void writeInterval(long startTimeMs, long endTimeMs) throws IOException {
+    json.write(",\"timestamp\":");
+    json.write(Long.toString(startTimeMs));
+    json.write(",\"interval.ms\":");
+    json.write(Long.toString(endTimeMs - startTimeMs));
+  }
+
+  private void endMetric(Attributes attributes) throws IOException {
+    json.write(",\"attributes\":");
+    writeAttributes(attributes);
+    json.write('}');
+  }
+
+  private void writeAttributes(Attributes attributes) throws IOException {
+    json.write('{');
+    boolean first = true;
+    for (Map.Entry<String, Object> attribute : attributes.asMap().entrySet()) {
+      Object value = attribute.getValue();
+      if (value instanceof Number && !Double.isFinite(((Number) value).doubleValue())) {
+        continue;
+      }
+      if (!first) {
+        json.write(',');
+      }
+      first = false;
+      writeString(attribute.getKey());
+      json.write(':');
+      if (value instanceof Number || value instanceof Boolean) {
+        json.write(value.toString());
+      } else {
+        writeString(String.valueOf(value));
+      }
+    }
+    json.write('}');
+  }
+
+  private void writeString(String value) throws IOException {
+    json.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          json.write("\\\"");
+          break;
+        case '\\':
+          json.write("\\\\");
+          break;
+        case '\n':
+          json.write("\\n");
+          break;
+        case '\r':
+          json.write("\\r");
+          break;
+        case '\t':
+          json.write("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            json.write(String.format("\\u%04x", (int) c));
+          } else {
+            json.write(c);
+          }
+      }
+    }
+    json.write('"');
+  }
+
+  private static class CountingWriter extends FilterWriter {
+    private int count;
+
+    private CountingWriter(Writer out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      out.write(c);
+      count++;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      out.write(cbuf, off, len);
+      count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      out.write(str, off, len);
+      count += len;
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    private CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
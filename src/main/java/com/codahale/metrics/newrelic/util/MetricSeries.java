@@ -0,0 +1,45 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.Objects;
+
+/** Identifies the series a metric belongs to: its type, name and attributes. */
+final class MetricSeries {
+
+  private final Class<? extends Metric> type;
+  private final String name;
+  private final Attributes attributes;
+
+  MetricSeries(Metric metric) {
+    this.type = metric.getClass();
+    this.name = MetricAccessors.name(metric);
+    this.attributes = MetricAccessors.attributes(metric);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof MetricSeries)) {
+      return false;
+    }
+    MetricSeries series = (MetricSeries) o;
+    return type == series.type
+        && name.equals(series.name)
+        && Objects.equals(attributes, series.attributes);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * name.hashCode() + Objects.hashCode(attributes);
+  }
+}
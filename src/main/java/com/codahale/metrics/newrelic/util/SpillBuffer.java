@@ -0,0 +1,435 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.MetricBatch;
+import com.newrelic.telemetry.metrics.Summary;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size-capped ring buffer of metric batches in a memory-mapped file, which keeps batches that
+ * could not be sent without holding them on the heap. When the buffer is full, the oldest batches
+ * are evicted to make room for new ones. The buffer is forced to disk after every change, so the
+ * batches survive a restart of the application as long as the file and capacity stay the same.
+ * The file is locked while the buffer is open, so that two reporters can't share it.
+ *
+ * <p>A batch is removed from the file as soon as it is {@link #poll() polled}, so delivery is at
+ * most once: a batch that is being replayed when the application stops is lost. A corrupt record
+ * discards all the batches that follow it. Every length and count in a record is checked against
+ * the bytes left in it, so a corrupt record can't make the buffer allocate more than its size.
+ *
+ * <p>Batches are stored in a compact binary form in which attributes shared by several metrics,
+ * such as the attributes of the metrics of one DropWizard timer, are only written once.
+ */
+public class SpillBuffer implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+  private static final int MAGIC = 0x4e52_5350;
+  // magic, capacity, head, tail and batch count, padded
+  private static final int HEADER_BYTES = 32;
+  private static final int LENGTH_BYTES = Integer.BYTES;
+  private static final byte GAUGE = 1;
+  private static final byte COUNT = 2;
+  private static final byte SUMMARY = 3;
+  private static final byte STRING = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte BOOLEAN = 4;
+  private static final int NEW_ATTRIBUTES = -1;
+  // the fewest bytes of a metric, a gauge: type, name length, value, timestamp, attributes index
+  private static final int MIN_METRIC_BYTES = 1 + 4 + 8 + 8 + 4;
+  // the fewest bytes of an attribute (key length, type and a boolean)
+  private static final int MIN_ATTRIBUTE_BYTES = 4 + 1 + 1;
+
+  private final FileChannel channel;
+  private final FileLock lock;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  // positions of the oldest and the next batch, which only grow and wrap around the capacity
+  private long head;
+  private long tail;
+  private int batches;
+  private long evictedBatches;
+
+  public SpillBuffer(Path file, int capacityBytes) throws IOException {
+    if (capacityBytes < 1) {
+      throw new IllegalArgumentException("capacityBytes must be positive: " + capacityBytes);
+    }
+    this.capacity = capacityBytes;
+    this.channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      this.lock = tryLock(channel);
+      if (lock == null) {
+        throw new IOException("The spill file " + file + " is used by another spill buffer");
+      }
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == capacity) {
+      head = buffer.getLong(8);
+      tail = buffer.getLong(16);
+      batches = buffer.getInt(24);
+      if (head < 0 || tail < head || tail - head > capacity || batches < 0) {
+        discardAll(null);
+      }
+    } else {
+      writeHeader();
+    }
+  }
+
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // the file is locked by another buffer of this JVM
+      return null;
+    }
+  }
+
+  /**
+   * Adds a batch, evicting the oldest batches if there isn't enough room for it.
+   *
+   * @return false if the batch alone is larger than the buffer and was not added
+   */
+  public synchronized boolean append(MetricBatch batch) {
+    byte[] bytes = encode(batch);
+    long recordBytes = LENGTH_BYTES + (long) bytes.length;
+    if (recordBytes > capacity) {
+      return false;
+    }
+    while (capacity - (tail - head) < recordBytes) {
+      int length = headLength();
+      if (length < 0) {
+        discardAll(null);
+        break;
+      }
+      head += LENGTH_BYTES + length;
+      batches--;
+      evictedBatches++;
+    }
+    write(tail, ByteBuffer.allocate(LENGTH_BYTES).putInt(0, bytes.length).array());
+    write(tail + LENGTH_BYTES, bytes);
+    tail += recordBytes;
+    batches++;
+    writeHeader();
+    return true;
+  }
+
+  /**
+   * @return the oldest batch, which is removed from the buffer before it is sent, or null if the
+   *     buffer is empty
+   */
+  public synchronized MetricBatch poll() {
+    if (batches == 0) {
+      return null;
+    }
+    int length = headLength();
+    if (length < 0) {
+      discardAll(null);
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    read(head + LENGTH_BYTES, bytes);
+    head += LENGTH_BYTES + length;
+    batches--;
+    writeHeader();
+    try {
+      return decode(bytes);
+    } catch (IOException | RuntimeException e) {
+      discardAll(e);
+      return null;
+    }
+  }
+
+  public synchronized int getBatches() {
+    return batches;
+  }
+
+  public synchronized long getBytes() {
+    return tail - head;
+  }
+
+  /** @return the number of batches evicted to make room for newer ones */
+  public synchronized long getEvictedBatches() {
+    return evictedBatches;
+  }
+
+  /** Releases the lock on the file and closes it. */
+  @Override
+  public synchronized void close() throws IOException {
+    lock.release();
+    channel.close();
+  }
+
+  private void writeHeader() {
+    if (batches == 0) {
+      head = 0;
+      tail = 0;
+    }
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, capacity);
+    buffer.putLong(8, head);
+    buffer.putLong(16, tail);
+    buffer.putInt(24, batches);
+    buffer.force();
+  }
+
+  /** @return the length of the oldest batch, or -1 if its record is corrupt */
+  private int headLength() {
+    if (tail - head < LENGTH_BYTES) {
+      return -1;
+    }
+    int length = readLength(head);
+    return length < 0 || LENGTH_BYTES + (long) length > tail - head ? -1 : length;
+  }
+
+  private void discardAll(Exception cause) {
+    LOG.warn("Discarding {} spilled batches after an unreadable batch", batches, cause);
+    head = tail;
+    batches = 0;
+    writeHeader();
+  }
+
+  private int readLength(long position) {
+    byte[] length = new byte[LENGTH_BYTES];
+    read(position, length);
+    return ByteBuffer.wrap(length).getInt();
+  }
+
+  private void write(long position, byte[] bytes) {
+    int offset = (int) (position % capacity);
+    int first = Math.min(bytes.length, capacity - offset);
+    ByteBuffer view = buffer.duplicate();
+    view.position(HEADER_BYTES + offset);
+    view.put(bytes, 0, first);
+    view.position(HEADER_BYTES);
+    view.put(bytes, first, bytes.length - first);
+  }
+
+  private void read(long position, byte[] bytes) {
+    int offset = (int) (position % capacity);
+    int first = Math.min(bytes.length, capacity - offset);
+    ByteBuffer view = buffer.duplicate();
+    view.position(HEADER_BYTES + offset);
+    view.get(bytes, 0, first);
+    view.position(HEADER_BYTES);
+    view.get(bytes, first, bytes.length - first);
+  }
+
+  static byte[] encode(MetricBatch batch) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      Map<Attributes, Integer> written = new IdentityHashMap<>();
+      writeAttributes(out, batch.getCommonAttributes(), written);
+      out.writeInt(batch.size());
+      for (Metric metric : batch.getTelemetry()) {
+        writeMetric(out, metric, written);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static MetricBatch decode(byte[] bytes) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    List<Attributes> read = new ArrayList<>();
+    Attributes commonAttributes = readAttributes(in, read);
+    int size = readCount(in, MIN_METRIC_BYTES);
+    List<Metric> metrics = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      metrics.add(readMetric(in, read));
+    }
+    if (in.available() > 0) {
+      throw new IOException("Corrupt record: " + in.available() + " bytes left after the batch");
+    }
+    return new MetricBatch(metrics, commonAttributes);
+  }
+
+  private static void writeMetric(
+      DataOutputStream out, Metric metric, Map<Attributes, Integer> written) throws IOException {
+    if (metric instanceof Gauge) {
+      Gauge gauge = (Gauge) metric;
+      out.writeByte(GAUGE);
+      writeString(out, gauge.getName());
+      out.writeDouble(gauge.getValue());
+      out.writeLong(gauge.getTimestamp());
+      writeAttributes(out, gauge.getAttributes(), written);
+    } else if (metric instanceof Count) {
+      Count count = (Count) metric;
+      out.writeByte(COUNT);
+      writeString(out, count.getName());
+      out.writeDouble(count.getValue());
+      out.writeLong(count.getStartTimeMs());
+      out.writeLong(count.getEndTimeMs());
+      writeAttributes(out, count.getAttributes(), written);
+    } else if (metric instanceof Summary) {
+      Summary summary = (Summary) metric;
+      out.writeByte(SUMMARY);
+      writeString(out, summary.getName());
+      out.writeInt(summary.getCount());
+      out.writeDouble(summary.getSum());
+      out.writeDouble(summary.getMin());
+      out.writeDouble(summary.getMax());
+      out.writeLong(summary.getStartTimeMs());
+      out.writeLong(summary.getEndTimeMs());
+      writeAttributes(out, summary.getAttributes(), written);
+    } else {
+      throw new IllegalArgumentException("Unsupported metric type: " + metric.getClass());
+    }
+  }
+
+  private static Metric readMetric(DataInputStream in, List<Attributes> read) throws IOException {
+    byte type = in.readByte();
+    String name = readString(in);
+    switch (type) {
+      case GAUGE:
+        return new Gauge(name, in.readDouble(), in.readLong(), readAttributes(in, read));
+      case COUNT:
+        return new Count(
+            name, in.readDouble(), in.readLong(), in.readLong(), readAttributes(in, read));
+      case SUMMARY:
+        return new Summary(
+            name,
+            in.readInt(),
+            in.readDouble(),
+            in.readDouble(),
+            in.readDouble(),
+            in.readLong(),
+            in.readLong(),
+            readAttributes(in, read));
+      default:
+        throw new IOException("Unknown metric type: " + type);
+    }
+  }
+
+  private static void writeAttributes(
+      DataOutputStream out, Attributes attributes, Map<Attributes, Integer> written)
+      throws IOException {
+    Integer index = written.get(attributes);
+    if (index != null) {
+      out.writeInt(index);
+      return;
+    }
+    written.put(attributes, written.size());
+    out.writeInt(NEW_ATTRIBUTES);
+    Map<String, Object> values = attributes.asMap();
+    out.writeInt(values.size());
+    for (Map.Entry<String, Object> attribute : values.entrySet()) {
+      writeString(out, attribute.getKey());
+      Object value = attribute.getValue();
+      if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else if (value instanceof Double || value instanceof Float) {
+        out.writeByte(DOUBLE);
+        out.writeDouble(((Number) value).doubleValue());
+      } else if (value instanceof Number) {
+        out.writeByte(LONG);
+        out.writeLong(((Number) value).longValue());
+      } else {
+        out.writeByte(STRING);
+        writeString(out, String.valueOf(value));
+      }
+    }
+  }
+
+  private static Attributes readAttributes(DataInputStream in, List<Attributes> read)
+      throws IOException {
+    int index = in.readInt();
+    if (index != NEW_ATTRIBUTES) {
+      if (index < 0 || index >= read.size()) {
+        throw new IOException("Corrupt record: unknown attributes " + index);
+      }
+      return read.get(index);
+    }
+    Attributes attributes = new Attributes();
+    int size = readCount(in, MIN_ATTRIBUTE_BYTES);
+    for (int i = 0; i < size; i++) {
+      String key = readString(in);
+      byte type = in.readByte();
+      switch (type) {
+        case BOOLEAN:
+          attributes.put(key, in.readBoolean());
+          break;
+        case DOUBLE:
+          attributes.put(key, in.readDouble());
+          break;
+        case LONG:
+          attributes.put(key, in.readLong());
+          break;
+        case STRING:
+          attributes.put(key, readString(in));
+          break;
+        default:
+          throw new IOException("Unknown attribute type: " + type);
+      }
+    }
+    read.add(attributes);
+    return attributes;
+  }
+
+  // unlike writeUTF, not limited to 64KB
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[readCount(in, 1)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a length or count and checks it against the bytes left in the record, which the read
+   * bytes are taken from.
+   *
+   * @param minBytes the fewest bytes that each counted element takes
+   */
+  private static int readCount(DataInputStream in, int minBytes) throws IOException {
+    int count = in.readInt();
+    if (count < 0 || (long) count * minBytes > in.available()) {
+      throw new IOException(
+          "Corrupt record: " + count + " elements in the " + in.available() + " bytes left");
+    }
+    return count;
+  }
+}
@@ -10,6 +10,11 @@ package com.codahale.metrics.newrelic.util;
 import com.codahale.metrics.Clock;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Tracks the time of the previous harvest, which starts the interval of the summaries of the next
+ * one. Counts track the start of their interval per metric instead, in {@code
+ * CountingTransformer}, so they don't depend on when the tracker is ticked.
+ */
 public class TimeTracker {
 
   private final Clock clock;
@@ -20,9 +25,10 @@ public class TimeTracker {
     this.previousTime = new AtomicLong(clock.getTime());
   }
 
-  // call this at the end of the harvest/report
+  // call this at the end of the harvest/report. The time never moves backwards, so a tracker can be
+  // shared by harvests that end concurrently.
   public void tick() {
-    previousTime.set(clock.getTime());
+    previousTime.accumulateAndGet(clock.getTime(), Math::max);
   }
 
   public long getCurrentTime() {
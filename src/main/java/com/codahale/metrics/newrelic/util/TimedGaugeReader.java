@@ -0,0 +1,205 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads gauge values on a bounded pool of daemon threads, so that a gauge that blocks can't stall
+ * the harvest of the other metrics. The reads of a harvest are all started by {@link
+ * #startHarvest} and share one deadline, so that slow gauges delay a harvest by at most one
+ * timeout in total.
+ *
+ * <p>A read that has not started by the deadline is cancelled. A read that has started and misses
+ * its deadline is not interrupted. It keeps its thread until it completes, and later harvests don't
+ * start another read of the gauge, nor wait for it, until it has completed. The pool grows by a
+ * thread for each such read, up to twice its size, so that a few stuck gauges don't take the
+ * threads of the others. Timed out reads are counted and, if enabled, answered with the last value
+ * the gauge returned in time.
+ */
+public class TimedGaugeReader implements GaugeReader, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TimedGaugeReader.class);
+  private static final long IDLE_THREAD_SECONDS = 60;
+
+  private final ThreadPoolExecutor executor;
+  private final int threads;
+  private final long timeoutNanos;
+  private final Counter timeouts;
+  // reads that missed their deadline, by registry name, until their value has been taken
+  private final Map<String, GaugeRead> pendingReads = new ConcurrentHashMap<>();
+  // reads submitted for the current harvest, by registry name
+  private final Map<String, GaugeRead> harvestReads = new ConcurrentHashMap<>();
+  private volatile long harvestDeadline;
+  // null unless the last good values are served for timed out reads
+  private final Map<String, Object> lastValues;
+
+  public TimedGaugeReader(
+      int threads, long timeout, TimeUnit unit, boolean serveLastValue, Counter timeouts) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    // the core size grows with the pending reads, see resize()
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads * 2,
+            IDLE_THREAD_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "newrelic-gauge-reader-" + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.executor.allowCoreThreadTimeOut(true);
+    this.threads = threads;
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.timeouts = timeouts;
+    this.lastValues = serveLastValue ? new ConcurrentHashMap<>() : null;
+  }
+
+  /** Starts reading the gauges of a harvest, which must all be read by the timeout from now. */
+  @Override
+  public void startHarvest(Map<String, Gauge> gauges) {
+    harvestReads.clear();
+    harvestDeadline = System.nanoTime() + timeoutNanos;
+    gauges.forEach(
+        (name, gauge) -> {
+          if (!pendingReads.containsKey(name)) {
+            GaugeRead read = submit(gauge);
+            if (read != null) {
+              harvestReads.put(name, read);
+            }
+          }
+        });
+  }
+
+  /**
+   * @return the value of the gauge, the last value it returned in time if the read timed out and
+   *     last values are served, {@link GaugeReader#TIMED_OUT} if it timed out otherwise, or null if
+   *     it threw an exception
+   */
+  @Override
+  public Object read(String name, Gauge<?> gauge) {
+    GaugeRead read = pendingReads.get(name);
+    if (read != null) {
+      if (!read.isDone()) {
+        return timedOut(name);
+      }
+      pendingReads.remove(name);
+      resize();
+      return await(name, read, System.nanoTime());
+    }
+    read = harvestReads.remove(name);
+    if (read != null) {
+      return await(name, read, harvestDeadline);
+    }
+    // the gauge was not part of a harvest, e.g. when its cached value is refreshed
+    read = submit(gauge);
+    return read == null ? timedOut(name) : await(name, read, System.nanoTime() + timeoutNanos);
+  }
+
+  @Override
+  public void forget(String name) {
+    if (pendingReads.remove(name) != null) {
+      resize();
+    }
+    harvestReads.remove(name);
+    if (lastValues != null) {
+      lastValues.remove(name);
+    }
+  }
+
+  /** Stops the threads of the pool, interrupting the reads that are still running. */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    pendingReads.clear();
+    harvestReads.clear();
+  }
+
+  // null once the reader has been closed
+  private GaugeRead submit(Gauge<?> gauge) {
+    GaugeRead read = new GaugeRead(gauge);
+    try {
+      executor.execute(read);
+      return read;
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  private Object await(String name, GaugeRead read, long deadline) {
+    try {
+      Object value = read.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      if (lastValues != null && value != null) {
+        lastValues.put(name, value);
+      }
+      return value;
+    } catch (TimeoutException e) {
+      // a read that is still queued is dropped, and the next harvest submits a new one
+      if (read.started || !read.cancel(false)) {
+        pendingReads.put(name, read);
+        resize();
+      }
+      return timedOut(name);
+    } catch (ExecutionException e) {
+      LOG.debug("Ignoring gauge {} that failed to read its value", name, e.getCause());
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  // the threads of pending reads are not taken from the threads of the other gauges
+  private synchronized void resize() {
+    executor.setCorePoolSize(threads + Math.min(pendingReads.size(), threads));
+  }
+
+  private Object timedOut(String name) {
+    timeouts.inc();
+    Object lastValue = lastValues == null ? null : lastValues.get(name);
+    LOG.debug("Gauge {} did not return a value in time, reporting {}", name, lastValue);
+    return lastValue == null ? TIMED_OUT : lastValue;
+  }
+
+  private static class GaugeRead extends FutureTask<Object> {
+    private volatile boolean started;
+
+    private GaugeRead(Gauge<?> gauge) {
+      super(gauge::getValue);
+    }
+
+    @Override
+    public void run() {
+      started = true;
+      super.run();
+    }
+  }
+}
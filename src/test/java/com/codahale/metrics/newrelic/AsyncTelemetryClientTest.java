@@ -0,0 +1,275 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.newrelic.util.SpillBuffer;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.exceptions.DiscardBatchException;
+import com.newrelic.telemetry.exceptions.ResponseException;
+import com.newrelic.telemetry.exceptions.RetryWithRequestedWaitException;
+import com.newrelic.telemetry.exceptions.RetryWithSplitException;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.MetricBatch;
+import com.newrelic.telemetry.metrics.MetricBatchSender;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AsyncTelemetryClientTest {
+
+  private MetricBatchSender metricBatchSender;
+  private List<MetricBatch> sent;
+  private CountDownLatch firstSendStarted;
+  private CountDownLatch releaseSends;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    metricBatchSender = mock(MetricBatchSender.class);
+    sent = Collections.synchronizedList(new ArrayList<>());
+    firstSendStarted = new CountDownLatch(1);
+    releaseSends = new CountDownLatch(1);
+    when(metricBatchSender.sendBatch(any()))
+        .thenAnswer(
+            invocation -> {
+              firstSendStarted.countDown();
+              releaseSends.await(10, TimeUnit.SECONDS);
+              sent.add(invocation.getArgument(0));
+              return null;
+            });
+  }
+
+  @Test
+  void testShutdownStopsEveryThreadOfTheClient() throws Exception {
+    releaseSends.countDown();
+    Set<Thread> before = Thread.getAllStackTraces().keySet();
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(metricBatchSender, 10, 3, BackpressurePolicy.BLOCK);
+    testClass.sendBatch(batch("a"));
+
+    testClass.shutdown();
+
+    Set<Thread> started = new HashSet<>(Thread.getAllStackTraces().keySet());
+    started.removeAll(before);
+    for (Thread thread : started) {
+      thread.join(1000);
+      assertFalse(thread.isAlive(), thread.getName());
+    }
+  }
+
+  @Test
+  void testBatchesAreSentByTheWorkers() {
+    releaseSends.countDown();
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(metricBatchSender, 10, 2, BackpressurePolicy.BLOCK);
+    MetricBatch batch = batch("a");
+
+    testClass.sendBatch(batch);
+    testClass.shutdown();
+
+    assertEquals(asList(batch), sent);
+    assertEquals(1, testClass.getSentBatches());
+  }
+
+  @Test
+  void testDropOldest() throws Exception {
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(metricBatchSender, 1, 1, BackpressurePolicy.DROP_OLDEST);
+    MetricBatch first = batch("first");
+    MetricBatch oldest = batch("oldest");
+    MetricBatch newest = batch("newest");
+
+    testClass.sendBatch(first);
+    assertTrue(firstSendStarted.await(10, TimeUnit.SECONDS));
+    testClass.sendBatch(oldest);
+    testClass.sendBatch(newest);
+    assertEquals(1, testClass.getQueueDepth());
+    releaseSends.countDown();
+    testClass.shutdown();
+
+    assertEquals(asList(first, newest), sent);
+    assertEquals(1, testClass.getDroppedBatches());
+  }
+
+  @Test
+  void testCoalesce() throws Exception {
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(metricBatchSender, 1, 1, BackpressurePolicy.COALESCE);
+
+    testClass.sendBatch(batch("first"));
+    assertTrue(firstSendStarted.await(10, TimeUnit.SECONDS));
+    testClass.sendBatch(batch("second"));
+    testClass.sendBatch(batch("third"));
+    releaseSends.countDown();
+    testClass.shutdown();
+
+    assertEquals(2, sent.size());
+    List<Metric> coalesced = new ArrayList<>(sent.get(1).getTelemetry());
+    assertEquals(asList(gauge("second"), gauge("third")), coalesced);
+    assertEquals(0, testClass.getDroppedBatches());
+  }
+
+  @Test
+  void testCoalescedBatchesAreCapped() throws Exception {
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(metricBatchSender, 1, 1, BackpressurePolicy.COALESCE, null, 0, 1);
+    MetricBatch first = batch("first");
+    MetricBatch third = batch("third");
+
+    testClass.sendBatch(first);
+    assertTrue(firstSendStarted.await(10, TimeUnit.SECONDS));
+    testClass.sendBatch(batch("second"));
+    // merging would exceed one metric, so the queued batch is dropped instead
+    testClass.sendBatch(third);
+    releaseSends.countDown();
+    testClass.shutdown();
+
+    assertEquals(asList(first, third), sent);
+    assertEquals(1, testClass.getDroppedBatches());
+  }
+
+  @Test
+  void testBatchesAreRetriedAfterTheRequestedWait() throws Exception {
+    MetricBatchSender throttledSender = mock(MetricBatchSender.class);
+    when(throttledSender.sendBatch(any()))
+        .thenThrow(new RetryWithRequestedWaitException(1, TimeUnit.MILLISECONDS))
+        .thenAnswer(
+            invocation -> {
+              sent.add(invocation.getArgument(0));
+              return null;
+            });
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(throttledSender, 10, 1, BackpressurePolicy.BLOCK);
+    MetricBatch batch = batch("throttled");
+
+    testClass.sendBatch(batch);
+    // batches are no longer retried once the client is shutting down
+    for (int attempt = 0; attempt < 1000 && testClass.getSentBatches() == 0; attempt++) {
+      Thread.sleep(10);
+    }
+    testClass.shutdown();
+
+    assertEquals(asList(batch), sent);
+    assertEquals(0, testClass.getFailedBatches());
+  }
+
+  @Test
+  void testBatchesThatAreTooLargeAreSplit() throws Exception {
+    MetricBatchSender limitedSender = mock(MetricBatchSender.class);
+    when(limitedSender.sendBatch(any()))
+        .thenAnswer(
+            invocation -> {
+              MetricBatch batch = invocation.getArgument(0);
+              if (batch.size() > 1) {
+                throw new RetryWithSplitException();
+              }
+              sent.add(batch);
+              return null;
+            });
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(limitedSender, 10, 1, BackpressurePolicy.BLOCK);
+
+    testClass.sendBatch(
+        new MetricBatch(asList(gauge("a"), gauge("b"), gauge("c")), new Attributes()));
+    testClass.shutdown();
+
+    List<Metric> metrics = new ArrayList<>();
+    sent.forEach(batch -> metrics.addAll(batch.getTelemetry()));
+    assertEquals(asList(gauge("a"), gauge("b"), gauge("c")), metrics);
+    assertEquals(1, testClass.getSentBatches());
+    assertEquals(0, testClass.getFailedBatches());
+  }
+
+  @Test
+  void testFailedBatchesAreSpilledAndReplayed(@TempDir Path directory) throws Exception {
+    MetricBatchSender flakySender = mock(MetricBatchSender.class);
+    when(flakySender.sendBatch(any()))
+        .thenThrow(new ResponseException("unavailable"))
+        .thenAnswer(
+            invocation -> {
+              sent.add(invocation.getArgument(0));
+              return null;
+            });
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(
+            flakySender,
+            10,
+            1,
+            BackpressurePolicy.BLOCK,
+            new SpillBuffer(directory.resolve("spill"), 4096),
+            1);
+    MetricBatch failed = batch("failed");
+    MetricBatch next = batch("next");
+
+    testClass.sendBatch(failed);
+    testClass.sendBatch(next);
+    // replays stop on shutdown, leaving the spilled batches for the next start
+    for (int attempt = 0; attempt < 1000 && testClass.getReplayedBatches() == 0; attempt++) {
+      Thread.sleep(10);
+    }
+    testClass.shutdown();
+
+    assertEquals(asList(next, failed), sent);
+    assertEquals(1, testClass.getSpilledBatches());
+    assertEquals(1, testClass.getReplayedBatches());
+    assertEquals(0, testClass.getDroppedBatches());
+  }
+
+  @Test
+  void testRejectedBatchesAreNotSpilled(@TempDir Path directory) throws Exception {
+    MetricBatchSender rejectingSender = mock(MetricBatchSender.class);
+    when(rejectingSender.sendBatch(any())).thenThrow(new DiscardBatchException());
+    SpillBuffer spillBuffer = new SpillBuffer(directory.resolve("spill"), 4096);
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(rejectingSender, 10, 1, BackpressurePolicy.BLOCK, spillBuffer, 1);
+
+    testClass.sendBatch(batch("malformed"));
+    testClass.shutdown();
+
+    assertEquals(1, testClass.getFailedBatches());
+    assertEquals(0, testClass.getSpilledBatches());
+    assertEquals(0, spillBuffer.getBatches());
+  }
+
+  @Test
+  void testMetrics() {
+    releaseSends.countDown();
+    AsyncTelemetryClient testClass =
+        new AsyncTelemetryClient(metricBatchSender, 1, 1, BackpressurePolicy.BLOCK);
+    testClass.shutdown();
+
+    assertEquals(
+        new HashSet<>(
+            asList("queue.depth", "batches.sent", "batches.dropped", "batches.failed")),
+        testClass.getMetrics().keySet());
+  }
+
+  private static MetricBatch batch(String name) {
+    return new MetricBatch(Collections.singletonList(gauge(name)), new Attributes());
+  }
+
+  private static Gauge gauge(String name) {
+    return new Gauge(name, 1, 0, new Attributes());
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for the New Relic metric API, which accepts every payload and records it
+ * unless it has been told to reject payloads. Point {@code NewRelicReporterFactory.overrideUri} or
+ * a {@code MetricBatchSender} endpoint at {@link #uri()} to exercise the real serialization,
+ * compression and HTTP path.
+ */
+class FakeIngestServer implements AutoCloseable {
+
+  static final String PATH = "/metric/v1";
+  private static final byte[] ACCEPTED =
+      "{\"requestId\":\"fake-ingest\"}".getBytes(StandardCharsets.UTF_8);
+
+  private final HttpServer server;
+  private final ExecutorService handlers = Executors.newFixedThreadPool(4);
+  private final List<Payload> payloads = new ArrayList<>();
+  private final Semaphore received = new Semaphore(0);
+  // the status codes with which the next payloads are rejected
+  private final Deque<Integer> failures = new ArrayDeque<>();
+  // payloads with more metrics than this are rejected as too large
+  private int maxMetrics = Integer.MAX_VALUE;
+
+  FakeIngestServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(PATH, this::handle);
+    server.setExecutor(handlers);
+    server.start();
+  }
+
+  URI uri() {
+    InetSocketAddress address = server.getAddress();
+    return URI.create("http://" + address.getHostString() + ":" + address.getPort() + PATH);
+  }
+
+  /** @return whether {@code count} more payloads were received within the timeout */
+  boolean awaitPayloads(int count, long timeout, TimeUnit unit) throws InterruptedException {
+    return received.tryAcquire(count, timeout, unit);
+  }
+
+  synchronized List<Payload> payloads() {
+    return new ArrayList<>(payloads);
+  }
+
+  /** Forgets the payloads received so far, which {@link #awaitPayloads} then no longer counts. */
+  synchronized void clear() {
+    payloads.clear();
+    received.drainPermits();
+  }
+
+  /** Rejects the next payload that would be accepted with {@code code}, once per call. */
+  synchronized void failNext(int code) {
+    failures.add(code);
+  }
+
+  /** Rejects the payloads with more than {@code maxMetrics} metrics with a 413. */
+  synchronized void rejectPayloadsOver(int maxMetrics) {
+    this.maxMetrics = maxMetrics;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    handlers.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    byte[] body;
+    try (InputStream in = exchange.getRequestBody()) {
+      body = in.readAllBytes();
+    }
+    String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+    byte[] json = "gzip".equalsIgnoreCase(encoding) ? gunzip(body) : body;
+    Payload payload =
+        new Payload(
+            body.length,
+            new String(json, StandardCharsets.UTF_8),
+            exchange.getRequestHeaders().getFirst("User-Agent"));
+    Integer failure;
+    synchronized (this) {
+      failure = payload.metrics() > maxMetrics ? Integer.valueOf(413) : failures.poll();
+      if (failure == null) {
+        payloads.add(payload);
+      }
+    }
+    if (failure != null) {
+      exchange.sendResponseHeaders(failure, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(202, ACCEPTED.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(ACCEPTED);
+    }
+    received.release();
+  }
+
+  private static byte[] gunzip(byte[] body) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      return in.readAllBytes();
+    }
+  }
+
+  static class Payload {
+    private static final String TYPE = "\"type\":";
+
+    final int bytes;
+    final String json;
+    final String userAgent;
+
+    Payload(int bytes, String json, String userAgent) {
+      this.bytes = bytes;
+      this.json = json;
+      this.userAgent = userAgent;
+    }
+
+    int uncompressedBytes() {
+      return json.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** @return the number of metrics, counted by their type property */
+    int metrics() {
+      int metrics = 0;
+      int index = json.indexOf(TYPE);
+      while (index >= 0) {
+        metrics++;
+        index = json.indexOf(TYPE, index + TYPE.length());
+      }
+      return metrics;
+    }
+  }
+}
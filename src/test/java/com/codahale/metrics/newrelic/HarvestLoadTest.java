@@ -0,0 +1,195 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.MetricBatchSenderFactory;
+import com.newrelic.telemetry.OkHttpPoster;
+import com.newrelic.telemetry.SenderConfiguration;
+import com.newrelic.telemetry.exceptions.ResponseException;
+import com.newrelic.telemetry.http.HttpPoster;
+import com.newrelic.telemetry.http.HttpResponse;
+import com.newrelic.telemetry.metrics.MetricBatch;
+import com.newrelic.telemetry.metrics.MetricBatchSender;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives registries of increasing size through full harvests of reporters built by {@link
+ * NewRelicReporterBuilder}, including serialization, gzip and HTTP through OkHttp, against a {@link
+ * FakeIngestServer}, and prints the payload size, send latency and CPU time of the reporter thread
+ * per harvest. Each size is harvested by a reporter that sends batches and by one that streams its
+ * payloads. Run with {@code ./gradlew loadTest}.
+ *
+ * <p>Setting the {@code newrelic.loadTest.maxCpuMicrosPerMetric} system property fails the test
+ * when a harvest uses more CPU per metric than that budget.
+ */
+@Tag("load")
+class HarvestLoadTest {
+
+  private static final int[] REGISTRY_SIZES = {100, 1_000, 10_000, 50_000};
+  private static final int WARMUP_HARVESTS = 5;
+  private static final int HARVESTS = 10;
+  private static final String CPU_BUDGET_PROPERTY = "newrelic.loadTest.maxCpuMicrosPerMetric";
+
+  private enum Mode {
+    BATCH,
+    STREAMING
+  }
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  @Test
+  void testHarvestThroughput() throws Exception {
+    try (FakeIngestServer server = new FakeIngestServer()) {
+      TimingHttpPoster poster = new TimingHttpPoster(new OkHttpPoster());
+      SenderConfiguration configuration =
+          MetricBatchSenderFactory.fromHttpImplementation(() -> poster)
+              .configureWith("fake-api-key")
+              .endpoint(server.uri().toURL())
+              .build();
+      for (int size : REGISTRY_SIZES) {
+        for (Mode mode : Mode.values()) {
+          harvest(size, mode, configuration, poster, server);
+        }
+      }
+    }
+  }
+
+  private void harvest(
+      int size,
+      Mode mode,
+      SenderConfiguration configuration,
+      TimingHttpPoster poster,
+      FakeIngestServer server)
+      throws InterruptedException {
+    MetricRegistry registry = RegistryFixture.registry(size, false);
+    NewRelicReporter reporter = reporter(registry, mode, configuration);
+    try {
+      for (int i = 0; i < WARMUP_HARVESTS; i++) {
+        reporter.report();
+      }
+      assertTrue(server.awaitPayloads(WARMUP_HARVESTS, 30, TimeUnit.SECONDS));
+      server.clear();
+      poster.postNanos = 0;
+
+      long cpuNanos = 0;
+      for (int i = 0; i < HARVESTS; i++) {
+        long start = threads.getCurrentThreadCpuTime();
+        reporter.report();
+        cpuNanos += threads.getCurrentThreadCpuTime() - start;
+      }
+      // both modes post on the reporter thread, so every payload has been received by now
+      List<FakeIngestServer.Payload> payloads = server.payloads();
+      long metrics = 0;
+      long bytes = 0;
+      long uncompressedBytes = 0;
+      for (FakeIngestServer.Payload payload : payloads) {
+        metrics += payload.metrics();
+        bytes += payload.bytes;
+        uncompressedBytes += payload.uncompressedBytes();
+      }
+      // large streamed harvests are rolled over into several payloads
+      assertEquals(0, metrics % HARVESTS);
+      double cpuMicrosPerMetric = cpuNanos / 1_000.0 / metrics;
+      System.out.printf(
+          "%-9s %,7d registered, %,8d reported: %,7d B gzip, %,9d B json, %7.2f ms send,"
+              + " %7.2f ms cpu, %5.2f us cpu/metric per harvest%n",
+          mode,
+          size,
+          metrics / HARVESTS,
+          bytes / HARVESTS,
+          uncompressedBytes / HARVESTS,
+          poster.postNanos / 1e6 / HARVESTS,
+          cpuNanos / 1e6 / HARVESTS,
+          cpuMicrosPerMetric);
+
+      String budget = System.getProperty(CPU_BUDGET_PROPERTY);
+      if (budget != null) {
+        assertTrue(
+            cpuMicrosPerMetric <= Double.parseDouble(budget),
+            mode + " " + size + " metrics used " + cpuMicrosPerMetric + "us of CPU per metric");
+      }
+    } finally {
+      reporter.close();
+    }
+  }
+
+  private static NewRelicReporter reporter(
+      MetricRegistry registry, Mode mode, SenderConfiguration configuration) {
+    NewRelicReporterBuilder builder;
+    if (mode == Mode.STREAMING) {
+      builder = NewRelicReporterBuilder.forStreaming(registry, configuration);
+    } else {
+      MetricBatchSender metricBatchSender = MetricBatchSender.create(configuration);
+      builder =
+          NewRelicReporterBuilder.forRegistry(registry, metricBatchSender)
+              .batchSender(new SynchronousBatchSender(metricBatchSender));
+    }
+    return builder
+        .name("load-test")
+        .commonAttributes(new Attributes().put("host", "load-test"))
+        .build();
+  }
+
+  /** Sends on the reporter thread, so that serialization and compression count towards its CPU. */
+  private static class SynchronousBatchSender implements BatchSender {
+
+    private final MetricBatchSender metricBatchSender;
+
+    private SynchronousBatchSender(MetricBatchSender metricBatchSender) {
+      this.metricBatchSender = metricBatchSender;
+    }
+
+    @Override
+    public void sendBatch(MetricBatch batch) {
+      try {
+        metricBatchSender.sendBatch(batch);
+      } catch (ResponseException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public void shutdown() {}
+  }
+
+  /** Times the HTTP requests of both modes, without the serialization that precedes them. */
+  private static class TimingHttpPoster implements HttpPoster {
+
+    private final HttpPoster delegate;
+    // the reporters of the test post on the test thread only
+    private long postNanos;
+
+    private TimingHttpPoster(HttpPoster delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public HttpResponse post(URL url, Map<String, String> headers, byte[] body, String mediaType)
+        throws IOException {
+      long start = System.nanoTime();
+      try {
+        return delegate.post(url, headers, body, mediaType);
+      } finally {
+        postNanos += System.nanoTime() - start;
+      }
+    }
+  }
+}
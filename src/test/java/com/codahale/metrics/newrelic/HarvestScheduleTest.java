@@ -0,0 +1,42 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.codahale.metrics.newrelic.util.TimeTracker;
+import org.junit.jupiter.api.Test;
+
+class HarvestScheduleTest {
+
+  @Test
+  void testTypesAreDueEveryPeriods() {
+    TimeTracker timerTimeTracker = mock(TimeTracker.class);
+    HarvestSchedule testClass =
+        new HarvestSchedule(
+            singletonMap(MetricType.TIMER, 3), singletonMap(MetricType.TIMER, timerTimeTracker));
+
+    for (int harvest = 0; harvest < 7; harvest++) {
+      assertTrue(testClass.isDue(MetricType.COUNTER));
+      if (harvest % 3 == 0) {
+        assertTrue(testClass.isDue(MetricType.TIMER));
+      } else {
+        assertFalse(testClass.isDue(MetricType.TIMER));
+      }
+      testClass.endHarvest();
+    }
+
+    // harvests 0, 3 and 6
+    verify(timerTimeTracker, times(3)).tick();
+  }
+}
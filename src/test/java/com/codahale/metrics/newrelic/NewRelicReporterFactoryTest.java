@@ -0,0 +1,75 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class NewRelicReporterFactoryTest {
+
+  @Test
+  void testReportsToTheOverriddenUri() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("requests").inc(3);
+
+    try (FakeIngestServer server = new FakeIngestServer()) {
+      NewRelicReporterFactory factory = new NewRelicReporterFactory();
+      // set the way Jackson does when the reporter is configured in YAML
+      set(factory, "apiKey", "fake-api-key");
+      set(factory, "overrideUri", server.uri().toString());
+      ScheduledReporter reporter = factory.build(registry);
+      try {
+        reporter.report();
+        assertTrue(server.awaitPayloads(1, 10, TimeUnit.SECONDS));
+      } finally {
+        reporter.close();
+      }
+
+      FakeIngestServer.Payload payload = server.payloads().get(0);
+      assertEquals(1, payload.metrics());
+      assertTrue(payload.json.contains("\"name\":\"requests\""));
+    }
+  }
+
+  @Test
+  void testStreamsToTheOverriddenUri() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("requests").inc(3);
+
+    try (FakeIngestServer server = new FakeIngestServer()) {
+      NewRelicReporterFactory factory = new NewRelicReporterFactory();
+      set(factory, "apiKey", "fake-api-key");
+      set(factory, "overrideUri", server.uri().toString());
+      set(factory, "streaming", true);
+      ScheduledReporter reporter = factory.build(registry);
+      try {
+        reporter.report();
+        assertTrue(server.awaitPayloads(1, 10, TimeUnit.SECONDS));
+      } finally {
+        reporter.close();
+      }
+
+      FakeIngestServer.Payload payload = server.payloads().get(0);
+      assertEquals(1, payload.metrics());
+      assertTrue(payload.json.contains("\"name\":\"requests\""));
+    }
+  }
+
+  private static void set(NewRelicReporterFactory factory, String name, Object value)
+      throws ReflectiveOperationException {
+    Field field = NewRelicReporterFactory.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(factory, value);
+  }
+}
@@ -7,26 +7,34 @@
 
 package com.codahale.metrics.newrelic;
 
+import static com.codahale.metrics.newrelic.transformer.MetricSinkTestUtils.emitting;
 import static java.util.Collections.emptySet;
-import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.newrelic.transformer.CounterTransformer;
 import com.codahale.metrics.newrelic.transformer.GaugeTransformer;
 import com.codahale.metrics.newrelic.transformer.HistogramTransformer;
 import com.codahale.metrics.newrelic.transformer.MeterTransformer;
 import com.codahale.metrics.newrelic.transformer.TimerTransformer;
+import com.codahale.metrics.newrelic.util.BatchSplitter;
 import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.TelemetryClient;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
 import com.newrelic.telemetry.metrics.MetricBatch;
+import java.io.Closeable;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -73,13 +81,21 @@ class NewRelicReporterTest {
                 .put("collector.name", "dropwizard-metrics-newrelic")
                 .put("collector.version", "Unknown Version"));
 
-    when(gaugeTransformer.transform("gauge", testData.gauge)).thenReturn(singleton(expected.gauge));
-    when(histogramTransformer.transform("histogram", testData.histogram))
-        .thenReturn(singleton(expected.histogram));
-    when(counterTransformer.transform("counter", testData.counter))
-        .thenReturn(singleton(expected.counter));
-    when(meterTransformer.transform("meter", testData.meter)).thenReturn(singleton(expected.meter));
-    when(timerTransformer.transform("timer", testData.timer)).thenReturn(singleton(expected.timer));
+    doAnswer(emitting(expected.gauge))
+        .when(gaugeTransformer)
+        .transform(eq("gauge"), eq(testData.gauge), any());
+    doAnswer(emitting(expected.histogram))
+        .when(histogramTransformer)
+        .transform(eq("histogram"), eq(testData.histogram), any());
+    doAnswer(emitting(expected.counter))
+        .when(counterTransformer)
+        .transform(eq("counter"), eq(testData.counter), any());
+    doAnswer(emitting(expected.meter))
+        .when(meterTransformer)
+        .transform(eq("meter"), eq(testData.meter), any());
+    doAnswer(emitting(expected.timer))
+        .when(timerTransformer)
+        .transform(eq("timer"), eq(testData.timer), any());
 
     NewRelicReporter testClass =
         new NewRelicReporter(
@@ -109,6 +125,229 @@ class NewRelicReporterTest {
     verify(timeTracker).tick();
   }
 
+  @Test
+  void testParallelReportKeepsRegistryOrder() {
+    InputTestData testData = InputTestData.build();
+    ExpectedMetrics expected = ExpectedMetrics.build();
+
+    MetricBatch expectedBatch =
+        new MetricBatch(
+            expected.toList(),
+            new Attributes()
+                .put("name", "the best")
+                .put("foo", false)
+                .put("instrumentation.provider", "dropwizard")
+                .put("collector.name", "dropwizard-metrics-newrelic")
+                .put("collector.version", "Unknown Version"));
+
+    doAnswer(emitting(expected.gauge))
+        .when(gaugeTransformer)
+        .transform(eq("gauge"), eq(testData.gauge), any());
+    doAnswer(emitting(expected.histogram))
+        .when(histogramTransformer)
+        .transform(eq("histogram"), eq(testData.histogram), any());
+    doAnswer(emitting(expected.counter))
+        .when(counterTransformer)
+        .transform(eq("counter"), eq(testData.counter), any());
+    doAnswer(emitting(expected.meter))
+        .when(meterTransformer)
+        .transform(eq("meter"), eq(testData.meter), any());
+    doAnswer(emitting(expected.timer))
+        .when(timerTransformer)
+        .transform(eq("timer"), eq(testData.timer), any());
+
+    ForkJoinPool harvestPool = new ForkJoinPool(4);
+    try {
+      NewRelicReporter testClass =
+          new NewRelicReporter(
+              timeTracker,
+              metricRegistry,
+              "reporter",
+              null,
+              TimeUnit.DAYS,
+              TimeUnit.SECONDS,
+              sender,
+              commonAttributes,
+              histogramTransformer,
+              gaugeTransformer,
+              counterTransformer,
+              meterTransformer,
+              timerTransformer,
+              emptySet(),
+              new ReporterOptions().harvestExecutor(harvestPool, 1));
+
+      testClass.report(
+          testData.gauges(),
+          testData.counters(),
+          testData.histograms(),
+          testData.meters(),
+          testData.timers());
+    } finally {
+      harvestPool.shutdown();
+    }
+
+    verify(sender).sendBatch(expectedBatch);
+    verify(timeTracker).tick();
+  }
+
+  @Test
+  void testReportSplitsBatches() {
+    InputTestData testData = InputTestData.build();
+    ExpectedMetrics expected = ExpectedMetrics.build();
+
+    Attributes expectedCommonAttributes =
+        new Attributes()
+            .put("name", "the best")
+            .put("foo", false)
+            .put("instrumentation.provider", "dropwizard")
+            .put("collector.name", "dropwizard-metrics-newrelic")
+            .put("collector.version", "Unknown Version");
+
+    doAnswer(emitting(expected.gauge))
+        .when(gaugeTransformer)
+        .transform(eq("gauge"), eq(testData.gauge), any());
+    doAnswer(emitting(expected.histogram))
+        .when(histogramTransformer)
+        .transform(eq("histogram"), eq(testData.histogram), any());
+    doAnswer(emitting(expected.counter))
+        .when(counterTransformer)
+        .transform(eq("counter"), eq(testData.counter), any());
+    doAnswer(emitting(expected.meter))
+        .when(meterTransformer)
+        .transform(eq("meter"), eq(testData.meter), any());
+    doAnswer(emitting(expected.timer))
+        .when(timerTransformer)
+        .transform(eq("timer"), eq(testData.timer), any());
+
+    NewRelicReporter testClass =
+        new NewRelicReporter(
+            timeTracker,
+            metricRegistry,
+            "reporter",
+            null,
+            TimeUnit.DAYS,
+            TimeUnit.SECONDS,
+            sender,
+            commonAttributes,
+            histogramTransformer,
+            gaugeTransformer,
+            counterTransformer,
+            meterTransformer,
+            timerTransformer,
+            emptySet(),
+            new ReporterOptions().batchSplitter(new BatchSplitter(2, Long.MAX_VALUE)));
+
+    testClass.report(
+        testData.gauges(),
+        testData.counters(),
+        testData.histograms(),
+        testData.meters(),
+        testData.timers());
+
+    verify(sender)
+        .sendBatch(
+            new MetricBatch(
+                Arrays.asList(expected.gauge, expected.histogram), expectedCommonAttributes));
+    verify(sender)
+        .sendBatch(
+            new MetricBatch(
+                Arrays.asList(expected.counter, expected.meter), expectedCommonAttributes));
+    verify(sender)
+        .sendBatch(new MetricBatch(Arrays.asList(expected.timer), expectedCommonAttributes));
+  }
+
+  @Test
+  void testReportRecordsSelfMetrics() {
+    InputTestData testData = InputTestData.build();
+    ExpectedMetrics expected = ExpectedMetrics.build();
+
+    doAnswer(emitting(expected.gauge))
+        .when(gaugeTransformer)
+        .transform(eq("gauge"), eq(testData.gauge), any());
+    doAnswer(emitting(expected.histogram))
+        .when(histogramTransformer)
+        .transform(eq("histogram"), eq(testData.histogram), any());
+    doAnswer(emitting(expected.counter))
+        .when(counterTransformer)
+        .transform(eq("counter"), eq(testData.counter), any());
+    doAnswer(emitting(expected.meter))
+        .when(meterTransformer)
+        .transform(eq("meter"), eq(testData.meter), any());
+    doAnswer(emitting(expected.timer))
+        .when(timerTransformer)
+        .transform(eq("timer"), eq(testData.timer), any());
+
+    MetricRegistry selfMetrics = new MetricRegistry();
+    NewRelicReporter testClass =
+        new NewRelicReporter(
+            timeTracker,
+            metricRegistry,
+            "reporter",
+            null,
+            TimeUnit.DAYS,
+            TimeUnit.SECONDS,
+            sender,
+            commonAttributes,
+            histogramTransformer,
+            gaugeTransformer,
+            counterTransformer,
+            meterTransformer,
+            timerTransformer,
+            emptySet(),
+            new ReporterOptions()
+                .batchSplitter(new BatchSplitter(2, Long.MAX_VALUE))
+                .reporterMetrics(new ReporterMetrics(selfMetrics)));
+
+    testClass.report(
+        testData.gauges(),
+        testData.counters(),
+        testData.histograms(),
+        testData.meters(),
+        testData.timers());
+
+    assertEquals(1, selfMetrics.timer("newrelic.reporter.report").getCount());
+    assertEquals(1, selfMetrics.timer("newrelic.reporter.harvest.gauge").getCount());
+    assertEquals(1, selfMetrics.counter("newrelic.reporter.metrics.emitted.timer").getCount());
+    assertEquals(3, selfMetrics.timer("newrelic.reporter.handoff").getCount());
+    assertEquals(0, selfMetrics.timer("newrelic.reporter.send").getCount());
+    assertEquals(3, selfMetrics.histogram("newrelic.reporter.batch.size").getCount());
+    assertEquals(2, selfMetrics.histogram("newrelic.reporter.batch.size").getSnapshot().getMax());
+  }
+
+  @Test
+  void testReportWalksTheRegistryIndex() {
+    Counter counter = metricRegistry.counter("counter");
+    metricRegistry.counter("filtered");
+
+    NewRelicReporter testClass =
+        new NewRelicReporter(
+            timeTracker,
+            metricRegistry,
+            "reporter",
+            (name, metric) -> !name.equals("filtered"),
+            TimeUnit.DAYS,
+            TimeUnit.SECONDS,
+            sender,
+            commonAttributes,
+            histogramTransformer,
+            gaugeTransformer,
+            counterTransformer,
+            meterTransformer,
+            timerTransformer,
+            emptySet(),
+            new ReporterOptions()
+                .registryIndex(new RegistryIndex((name, metric) -> !name.equals("filtered"))));
+    testClass.start(1, TimeUnit.DAYS);
+    try {
+      testClass.report();
+    } finally {
+      testClass.stop();
+    }
+
+    verify(counterTransformer).transform(eq("counter"), eq(counter), any());
+    verify(counterTransformer, never()).transform(eq("filtered"), any(), any());
+  }
+
   static class ExpectedMetrics {
 
     final Gauge gauge;
@@ -216,4 +455,28 @@ class NewRelicReporterTest {
     testClass.close();
     verify(sender).shutdown();
   }
+
+  @Test
+  void testCloseClosesTheResourcesOfTheReporter() throws Exception {
+    Closeable resource = mock(Closeable.class);
+    NewRelicReporter testClass =
+        new NewRelicReporter(
+            null,
+            metricRegistry,
+            null,
+            null,
+            TimeUnit.SECONDS,
+            TimeUnit.MILLISECONDS,
+            sender,
+            null,
+            null,
+            null,
+            null,
+            null,
+            null,
+            emptySet(),
+            new ReporterOptions().closeOnClose(resource));
+    testClass.close();
+    verify(resource).close();
+  }
 }
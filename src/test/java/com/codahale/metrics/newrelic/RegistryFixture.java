@@ -0,0 +1,75 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** The registries harvested by the load test and the benchmarks. */
+final class RegistryFixture {
+
+  private static final int SAMPLES_PER_METRIC = 100;
+
+  private RegistryFixture() {}
+
+  /**
+   * @param tagged whether to encode tags in the name as {@code name[key:value,...]}, like the
+   *     example in the README
+   */
+  static String name(String type, int index, boolean tagged) {
+    String name = "service." + type + "." + index;
+    if (!tagged) {
+      return name;
+    }
+    return name + "[shard:" + (index % 16) + ",region:region-" + (index % 4) + "]";
+  }
+
+  /**
+   * Fills a registry with {@code count} metrics: 40% counters, 20% gauges, 20% timers, 10% meters
+   * and 10% histograms. Timers and histograms are fed a fixed set of samples.
+   */
+  static MetricRegistry registry(int count, boolean tagged) {
+    MetricRegistry registry = new MetricRegistry();
+    Random random = new Random(42);
+    for (int i = 0; i < count; i++) {
+      switch (i % 10) {
+        case 0:
+        case 1:
+        case 2:
+        case 3:
+          registry.counter(name("counter", i, tagged)).inc(random.nextInt(1000));
+          break;
+        case 4:
+        case 5:
+          long value = random.nextInt(1000);
+          registry.register(name("gauge", i, tagged), (Gauge<Long>) () -> value);
+          break;
+        case 6:
+        case 7:
+          Timer timer = registry.timer(name("timer", i, tagged));
+          for (int sample = 0; sample < SAMPLES_PER_METRIC; sample++) {
+            timer.update(random.nextInt(10_000), TimeUnit.MICROSECONDS);
+          }
+          break;
+        case 8:
+          registry.meter(name("meter", i, tagged)).mark(random.nextInt(1000));
+          break;
+        default:
+          Histogram histogram = registry.histogram(name("histogram", i, tagged));
+          for (int sample = 0; sample < SAMPLES_PER_METRIC; sample++) {
+            histogram.update(random.nextInt(10_000));
+          }
+      }
+    }
+    return registry;
+  }
+}
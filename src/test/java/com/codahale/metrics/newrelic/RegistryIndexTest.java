@@ -0,0 +1,92 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.SortedMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RegistryIndexTest {
+
+  private MetricRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    registry = new MetricRegistry();
+  }
+
+  @Test
+  void testExistingMetricsAreIndexed() {
+    Counter counter = registry.counter("counter");
+    Gauge<Integer> gauge = registry.register("gauge", () -> 1);
+    Histogram histogram = registry.histogram("histogram");
+    Meter meter = registry.meter("meter");
+    Timer timer = registry.timer("timer");
+    RegistryIndex testClass = new RegistryIndex(null);
+
+    registry.addListener(testClass);
+
+    assertEquals(registry.getCounters(), testClass.counters());
+    assertEquals(registry.getGauges(), testClass.gauges());
+    assertEquals(registry.getHistograms(), testClass.histograms());
+    assertEquals(registry.getMeters(), testClass.meters());
+    assertEquals(registry.getTimers(), testClass.timers());
+    assertEquals(counter, testClass.counters().get("counter"));
+    assertEquals(gauge, testClass.gauges().get("gauge"));
+    assertEquals(histogram, testClass.histograms().get("histogram"));
+    assertEquals(meter, testClass.meters().get("meter"));
+    assertEquals(timer, testClass.timers().get("timer"));
+  }
+
+  @Test
+  void testAddedAndRemovedMetricsAreTracked() {
+    RegistryIndex testClass = new RegistryIndex(null);
+    registry.addListener(testClass);
+
+    registry.counter("b");
+    registry.counter("a");
+    registry.counter("c");
+    registry.remove("c");
+
+    SortedMap<String, Counter> counters = testClass.counters();
+    assertEquals(registry.getCounters(), counters);
+    assertEquals("a", counters.firstKey());
+  }
+
+  @Test
+  void testFilterIsApplied() {
+    RegistryIndex testClass = new RegistryIndex((name, metric) -> name.startsWith("keep"));
+    registry.addListener(testClass);
+
+    registry.counter("keep.me");
+    registry.counter("drop.me");
+
+    assertEquals(1, testClass.counters().size());
+    assertTrue(testClass.counters().containsKey("keep.me"));
+  }
+
+  @Test
+  void testClear() {
+    RegistryIndex testClass = new RegistryIndex(null);
+    registry.addListener(testClass);
+    registry.counter("counter");
+
+    testClass.clear();
+
+    assertTrue(testClass.counters().isEmpty());
+  }
+}
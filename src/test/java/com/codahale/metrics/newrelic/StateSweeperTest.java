@@ -0,0 +1,81 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.newrelic.transformer.DropWizardMetricTransformer;
+import java.util.EnumMap;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StateSweeperTest {
+
+  private DropWizardMetricTransformer<?> counterTransformer;
+  private DropWizardMetricTransformer<?> timerTransformer;
+  private Map<MetricType, DropWizardMetricTransformer<?>> transformers;
+  private Counter evicted;
+
+  @BeforeEach
+  void setUp() {
+    counterTransformer = mock(DropWizardMetricTransformer.class);
+    timerTransformer = mock(DropWizardMetricTransformer.class);
+    transformers = new EnumMap<>(MetricType.class);
+    transformers.put(MetricType.COUNTER, counterTransformer);
+    transformers.put(MetricType.TIMER, timerTransformer);
+    evicted = new Counter();
+  }
+
+  @Test
+  void testMetricsAreForgottenAfterKeptHarvests() {
+    StateSweeper testClass = new StateSweeper(2, transformers, emptyList(), evicted);
+
+    testClass.harvested(MetricType.COUNTER, singleton("requests"));
+    testClass.harvested(MetricType.TIMER, singleton("latency"));
+    testClass.endHarvest();
+    // only the timer is harvested from now on
+    testClass.harvested(MetricType.TIMER, singleton("latency"));
+    testClass.endHarvest();
+    verify(counterTransformer, never()).onCounterRemoved("requests");
+
+    testClass.harvested(MetricType.TIMER, singleton("latency"));
+    testClass.endHarvest();
+    verify(counterTransformer).onCounterRemoved("requests");
+    verify(timerTransformer, never()).onTimerRemoved("latency");
+    assertEquals(1, evicted.getCount());
+    assertEquals(1, testClass.getEntries());
+  }
+
+  @Test
+  void testEntriesIncludeAllState() {
+    when(timerTransformer.stateSize()).thenReturn(5);
+    StateSweeper testClass = new StateSweeper(1, transformers, singletonList(() -> 7), evicted);
+
+    testClass.harvested(MetricType.TIMER, singleton("latency"));
+
+    assertEquals(13, testClass.getEntries());
+    assertEquals(13L * StateSweeper.ESTIMATED_BYTES_PER_ENTRY, testClass.getEstimatedBytes());
+  }
+
+  @Test
+  void testKeptHarvestsMustBePositive() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new StateSweeper(0, transformers, emptyList(), evicted));
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.MetricBatchSenderFactory;
+import com.newrelic.telemetry.OkHttpPoster;
+import com.newrelic.telemetry.SenderConfiguration;
+import com.newrelic.telemetry.metrics.Gauge;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StreamingSenderTest {
+
+  private FakeIngestServer server;
+  private SenderConfiguration configuration;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = new FakeIngestServer();
+    configuration =
+        MetricBatchSenderFactory.fromHttpImplementation(OkHttpPoster::new)
+            .configureWith("fake-api-key")
+            .endpoint(server.uri().toURL())
+            .secondaryUserAgent("my-app")
+            .build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.close();
+  }
+
+  @Test
+  void testPayloadsAreRolledOverAtTheMaxSize() throws Exception {
+    // every metric fills a payload
+    StreamingSender testClass = new StreamingSender(configuration, 1, 1);
+
+    testClass.begin(new Attributes());
+    writeGauges(testClass, 3);
+    testClass.send();
+
+    assertTrue(server.awaitPayloads(3, 10, TimeUnit.SECONDS));
+    List<FakeIngestServer.Payload> payloads = server.payloads();
+    assertEquals(3, payloads.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(1, payloads.get(i).metrics());
+      assertTrue(payloads.get(i).json.contains("\"name\":\"gauge" + i + "\""));
+    }
+    assertEquals(3, testClass.getMetrics());
+  }
+
+  @Test
+  void testPayloadsThatAreTooLargeAreSplit() throws Exception {
+    server.rejectPayloadsOver(2);
+    StreamingSender testClass =
+        new StreamingSender(configuration, StreamingSender.MAX_PAYLOAD_BYTES, 1);
+
+    testClass.begin(new Attributes().put("host", "localhost"));
+    writeGauges(testClass, 5);
+    testClass.send();
+
+    // 5 metrics are split into 2 and 3, and the 3 into 1 and 2
+    assertTrue(server.awaitPayloads(3, 10, TimeUnit.SECONDS));
+    List<FakeIngestServer.Payload> payloads = server.payloads();
+    assertEquals(3, payloads.size());
+    assertEquals(2, payloads.get(0).metrics());
+    assertEquals(1, payloads.get(1).metrics());
+    assertEquals(2, payloads.get(2).metrics());
+    for (FakeIngestServer.Payload payload : payloads) {
+      assertTrue(payload.json.contains("\"common\":{\"attributes\":{\"host\":\"localhost\"}}"));
+    }
+    assertTrue(payloads.get(2).json.contains("\"name\":\"gauge4\""));
+  }
+
+  @Test
+  void testServerErrorsAreRetried() throws Exception {
+    server.failNext(503);
+    server.failNext(429);
+    StreamingSender testClass =
+        new StreamingSender(configuration, StreamingSender.MAX_PAYLOAD_BYTES, 1);
+
+    testClass.begin(new Attributes());
+    writeGauges(testClass, 1);
+    testClass.send();
+
+    assertTrue(server.awaitPayloads(1, 10, TimeUnit.SECONDS));
+    assertEquals(1, server.payloads().get(0).metrics());
+  }
+
+  @Test
+  void testUserAgentNamesTheReporterAndTheSecondaryUserAgent() throws Exception {
+    StreamingSender testClass = new StreamingSender(configuration);
+
+    testClass.begin(new Attributes());
+    writeGauges(testClass, 1);
+    testClass.send();
+
+    assertTrue(server.awaitPayloads(1, 10, TimeUnit.SECONDS));
+    String userAgent = server.payloads().get(0).userAgent;
+    assertTrue(userAgent.startsWith("dropwizard-metrics-newrelic/"), userAgent);
+    assertTrue(userAgent.endsWith(" my-app"), userAgent);
+  }
+
+  private static void writeGauges(StreamingSender sender, int count) {
+    for (int i = 0; i < count; i++) {
+      sender.accept(new Gauge("gauge" + i, i, 1000, new Attributes()));
+    }
+  }
+}
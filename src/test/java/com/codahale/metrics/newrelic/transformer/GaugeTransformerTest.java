@@ -14,9 +14,14 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.RatioGauge.Ratio;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
+import com.codahale.metrics.newrelic.util.GaugeReader;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Metric;
 import java.math.BigDecimal;
@@ -103,6 +108,47 @@ class GaugeTransformerTest {
     assertTrue(newRelicMetric.isEmpty());
   }
 
+  @Test
+  void testDroppedGaugesAreCounted() {
+    // Given
+    Counter droppedGauges = new Counter();
+    GaugeTransformer converter =
+        new GaugeTransformer(
+            clock,
+            MetricCustomizations.uncached(
+                MetricNameCustomizer.DEFAULT, MetricAttributesCustomizer.DEFAULT),
+            droppedGauges,
+            GaugeReader.DIRECT);
+
+    // When
+    converter.transform(GAUGE_NAME, () -> null);
+    converter.transform(GAUGE_NAME, () -> "amanaplanacanalpanama");
+    converter.transform(GAUGE_NAME, () -> 12d);
+
+    // Then
+    assertEquals(2, droppedGauges.getCount());
+  }
+
+  @Test
+  void testTimedOutGaugesAreNotCountedAsDropped() {
+    // Given
+    Counter droppedGauges = new Counter();
+    GaugeTransformer converter =
+        new GaugeTransformer(
+            clock,
+            MetricCustomizations.uncached(
+                MetricNameCustomizer.DEFAULT, MetricAttributesCustomizer.DEFAULT),
+            droppedGauges,
+            (name, gauge) -> GaugeReader.TIMED_OUT);
+
+    // When
+    Collection<Metric> result = converter.transform(GAUGE_NAME, () -> 12d);
+
+    // Then
+    assertTrue(result.isEmpty());
+    assertEquals(0, droppedGauges.getCount());
+  }
+
   @Test
   void testOtherNumericValue() {
     // Given
@@ -7,14 +7,14 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.Collections.singleton;
+import static com.codahale.metrics.newrelic.transformer.MetricSinkTestUtils.emitting;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 import com.codahale.metrics.ExponentiallyDecayingReservoir;
 import com.codahale.metrics.Histogram;
@@ -54,10 +54,12 @@ class HistogramTransformerTest {
 
     Collection<Metric> expectedMetrics = Sets.newSet(expectedCount, expectedSamplingResult);
 
-    when(counter.transform(eq("history"), eq(histogram), notNull()))
-        .thenReturn(singleton(expectedCount));
-    when(sampler.transform(eq("history"), eq(histogram), notNull()))
-        .thenReturn(singleton(expectedSamplingResult));
+    doAnswer(emitting(expectedCount))
+        .when(counter)
+        .transform(eq("history"), eq("history"), eq(histogram), notNull(), notNull());
+    doAnswer(emitting(expectedSamplingResult))
+        .when(sampler)
+        .transform(eq("history"), eq(histogram), notNull(), notNull());
 
     HistogramTransformer testClass = new HistogramTransformer(counter, sampler);
     Collection<Metric> result = testClass.transform("history", histogram);
@@ -80,10 +82,12 @@ class HistogramTransformerTest {
 
     Collection<Metric> expectedMetrics = Sets.newSet(expectedCount, expectedSamplingResult);
 
-    when(counter.transform(eq("history"), eq(histogram), notNull()))
-        .thenReturn(singleton(expectedCount));
-    when(sampler.transform(eq("history"), eq(histogram), notNull()))
-        .thenReturn(singleton(expectedSamplingResult));
+    doAnswer(emitting(expectedCount))
+        .when(counter)
+        .transform(eq(name), eq("history"), eq(histogram), notNull(), notNull());
+    doAnswer(emitting(expectedSamplingResult))
+        .when(sampler)
+        .transform(eq("history"), eq(histogram), notNull(), notNull());
 
     HistogramTransformer testClass =
         new HistogramTransformer(
@@ -114,6 +118,7 @@ class HistogramTransformerTest {
             MetricCustomizerTestUtils.NAME_TAG_STRIPPER,
             MetricAttributesCustomizer.DEFAULT);
     testClass.onHistogramRemoved("jim[tag:value]");
-    verify(counting).remove("jim");
+    // previous counts are kept per registry name, not per customized name
+    verify(counting).remove("jim[tag:value]");
   }
 }
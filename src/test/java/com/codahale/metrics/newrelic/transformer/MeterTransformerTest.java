@@ -7,24 +7,30 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.Collections.singleton;
+import static com.codahale.metrics.newrelic.transformer.MetricSinkTestUtils.emitting;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizerTestUtils;
 import com.codahale.metrics.newrelic.transformer.interfaces.CountingTransformer;
 import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
+import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Count;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.internal.util.collections.Sets;
@@ -49,9 +55,12 @@ class MeterTransformerTest {
 
     Collection<Metric> expectedMeters = Sets.newSet(expectedMetric, expectedCount);
 
-    when(converter.transform(eq(baseName), eq(meter), notNull())).thenReturn(expectedMeters);
-    when(countingTransformer.transform(eq(baseName), eq(meter), notNull()))
-        .thenReturn(singleton(expectedCount));
+    doAnswer(emitting(expectedMetric, expectedCount))
+        .when(converter)
+        .transform(eq(baseName), eq(meter), notNull(), notNull());
+    doAnswer(emitting(expectedCount))
+        .when(countingTransformer)
+        .transform(eq(baseName), eq(baseName), eq(meter), notNull(), notNull());
 
     MeterTransformer testClass = new MeterTransformer(converter, countingTransformer);
 
@@ -69,9 +78,17 @@ class MeterTransformerTest {
 
     Collection<Metric> expectedMeters = Sets.newSet(expectedMetric, expectedCount);
 
-    when(converter.transform(eq(baseName), eq(meter), notNull())).thenReturn(expectedMeters);
-    when(countingTransformer.transform(eq(baseName), eq(meter), notNull()))
-        .thenReturn(singleton(expectedCount));
+    doAnswer(emitting(expectedMetric, expectedCount))
+        .when(converter)
+        .transform(eq(baseName), eq(meter), notNull(), notNull());
+    doAnswer(emitting(expectedCount))
+        .when(countingTransformer)
+        .transform(
+            eq(baseName + "[tag:value,otherTag:otherValue]"),
+            eq(baseName),
+            eq(meter),
+            notNull(),
+            notNull());
 
     MeterTransformer testClass =
         new MeterTransformer(
@@ -100,7 +117,41 @@ class MeterTransformerTest {
     MeterTransformer testClass =
         new MeterTransformer(null, counting, MetricCustomizerTestUtils.NAME_TAG_STRIPPER, null);
     testClass.onMeterRemoved("something[tag:value]");
-    verify(counting).remove("something");
+    // previous counts are kept per registry name, not per customized name
+    verify(counting).remove("something[tag:value]");
+  }
+
+  @Test
+  void testMetricsSharingACustomizedNameKeepTheirOwnCounts() {
+    Meter worker1 = new Meter();
+    Meter worker2 = new Meter();
+    worker1.mark(100);
+    worker2.mark(50);
+    MeterTransformer testClass =
+        new MeterTransformer(
+            new MeteredTransformer(1L, attribute -> true),
+            new CountingTransformer(new TimeTracker(Clock.defaultClock())),
+            name -> name.replaceAll("-\\d+", ""),
+            MetricAttributesCustomizer.DEFAULT);
+    testClass.onMeterAdded("pool.worker-1.latency", worker1);
+    testClass.onMeterAdded("pool.worker-2.latency", worker2);
+
+    testClass.transform("pool.worker-1.latency", worker1, metric -> {});
+    testClass.transform("pool.worker-2.latency", worker2, metric -> {});
+    worker1.mark(10);
+    worker2.mark(5);
+    List<Metric> metrics = new ArrayList<>();
+    testClass.transform("pool.worker-1.latency", worker1, metrics::add);
+    testClass.transform("pool.worker-2.latency", worker2, metrics::add);
+
+    List<Double> counts = new ArrayList<>();
+    for (Metric metric : metrics) {
+      if (metric instanceof Count) {
+        assertEquals("pool.worker.latency", ((Count) metric).getName());
+        counts.add(((Count) metric).getValue());
+      }
+    }
+    assertEquals(Arrays.asList(10d, 5d), counts);
   }
 
   private Metric createExpectedGaugeMetric(Attributes optionalAttributes) {
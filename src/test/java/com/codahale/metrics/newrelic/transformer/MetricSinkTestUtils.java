@@ -0,0 +1,20 @@
+package com.codahale.metrics.newrelic.transformer;
+
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.mockito.stubbing.Answer;
+
+public class MetricSinkTestUtils {
+
+  /** Stubs a sink-based transform by pushing the given metrics into its trailing sink argument. */
+  public static Answer<Void> emitting(Metric... metrics) {
+    return invocation -> {
+      Object[] arguments = invocation.getArguments();
+      @SuppressWarnings("unchecked")
+      Consumer<Metric> sink = (Consumer<Metric>) arguments[arguments.length - 1];
+      Stream.of(metrics).forEach(sink);
+      return null;
+    };
+  }
+}
@@ -7,24 +7,40 @@
 
 package com.codahale.metrics.newrelic.transformer;
 
-import static java.util.Collections.singleton;
+import static com.codahale.metrics.newrelic.transformer.MetricSinkTestUtils.emitting;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.Timer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricAttributesCustomizer;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizations;
 import com.codahale.metrics.newrelic.transformer.customizer.MetricCustomizerTestUtils;
+import com.codahale.metrics.newrelic.transformer.customizer.MetricNameCustomizer;
 import com.codahale.metrics.newrelic.transformer.interfaces.CountingTransformer;
 import com.codahale.metrics.newrelic.transformer.interfaces.MeteredTransformer;
 import com.codahale.metrics.newrelic.transformer.interfaces.SamplingTransformer;
+import com.codahale.metrics.newrelic.transformer.interfaces.SnapshotSum;
+import com.codahale.metrics.newrelic.util.CardinalityLimiter;
+import com.codahale.metrics.newrelic.util.MetricAggregator.GaugeAggregation;
+import com.codahale.metrics.newrelic.util.TimeTracker;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Count;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 import org.mockito.internal.util.collections.Sets;
@@ -45,12 +61,15 @@ class TimerTransformerTest {
     MeteredTransformer meteredTransformer = mock(MeteredTransformer.class);
     CountingTransformer countingTransformer = mock(CountingTransformer.class);
 
-    when(samplingTransformer.transform(eq(baseName), eq(timer), notNull()))
-        .thenReturn(singleton(result1));
-    when(meteredTransformer.transform(eq(baseName), eq(timer), notNull()))
-        .thenReturn(singleton(result2));
-    when(countingTransformer.transform(eq(baseName), eq(timer), notNull()))
-        .thenReturn(singleton(expectedCount));
+    doAnswer(emitting(result1))
+        .when(samplingTransformer)
+        .transform(eq(baseName), eq(timer), notNull(), notNull());
+    doAnswer(emitting(result2))
+        .when(meteredTransformer)
+        .transform(eq(baseName), eq(timer), notNull(), notNull());
+    doAnswer(emitting(expectedCount))
+        .when(countingTransformer)
+        .transform(eq(baseName), eq(baseName), eq(timer), notNull(), notNull());
 
     TimerTransformer timerTransformer =
         new TimerTransformer(samplingTransformer, meteredTransformer, countingTransformer);
@@ -73,12 +92,20 @@ class TimerTransformerTest {
     MeteredTransformer meteredTransformer = mock(MeteredTransformer.class);
     CountingTransformer countingTransformer = mock(CountingTransformer.class);
 
-    when(samplingTransformer.transform(eq(baseName), eq(timer), notNull()))
-        .thenReturn(singleton(result1));
-    when(meteredTransformer.transform(eq(baseName), eq(timer), notNull()))
-        .thenReturn(singleton(result2));
-    when(countingTransformer.transform(eq(baseName), eq(timer), notNull()))
-        .thenReturn(singleton(expectedCount));
+    doAnswer(emitting(result1))
+        .when(samplingTransformer)
+        .transform(eq(baseName), eq(timer), notNull(), notNull());
+    doAnswer(emitting(result2))
+        .when(meteredTransformer)
+        .transform(eq(baseName), eq(timer), notNull(), notNull());
+    doAnswer(emitting(expectedCount))
+        .when(countingTransformer)
+        .transform(
+            eq(baseName + "[tag:value,otherTag:otherValue]"),
+            eq(baseName),
+            eq(timer),
+            notNull(),
+            notNull());
 
     TimerTransformer timerTransformer =
         new TimerTransformer(
@@ -95,6 +122,77 @@ class TimerTransformerTest {
     assertEquals(expected, results);
   }
 
+  @Test
+  void testAttributesAreCustomizedOncePerTimer() {
+    AtomicInteger customizerCalls = new AtomicInteger();
+    MetricAttributesCustomizer countingCustomizer =
+        (name, metric, attributes) -> {
+          customizerCalls.incrementAndGet();
+          return attributes.put("tag", "value");
+        };
+    Timer timer = new Timer();
+    timer.update(5, TimeUnit.MILLISECONDS);
+
+    TimerTransformer timerTransformer =
+        TimerTransformer.build(
+            new TimeTracker(Clock.defaultClock()),
+            1L,
+            1d,
+            attribute -> true,
+            MetricNameCustomizer.DEFAULT,
+            countingCustomizer);
+
+    Collection<Metric> results = timerTransformer.transform(baseName, timer);
+
+    // summary, count, 6 percentiles and 4 rates, all from a single customizer call
+    assertEquals(12, results.size());
+    assertEquals(1, customizerCalls.get());
+  }
+
+  @Test
+  void testLimitedTimerKeepsItsPercentileAttributes() {
+    CardinalityLimiter limiter = new CardinalityLimiter(1, GaugeAggregation.MAX);
+    TimeTracker timeTracker = new TimeTracker(Clock.defaultClock());
+    TimerTransformer timerTransformer =
+        new TimerTransformer(
+            new SamplingTransformer(timeTracker, 1d, SnapshotSum.EXACT, new double[] {0.5d, 0.99d}),
+            new MeteredTransformer(1L, attribute -> false),
+            new CountingTransformer(timeTracker),
+            MetricCustomizations.uncached(
+                    MetricCustomizerTestUtils.NAME_TAG_STRIPPER,
+                    MetricCustomizerTestUtils.ATTRIBUTES_FROM_TAGGED_NAME)
+                .limitCardinality(limiter));
+    Timer first = new Timer();
+    first.update(5, TimeUnit.MILLISECONDS);
+    Timer second = new Timer();
+    second.update(7, TimeUnit.MILLISECONDS);
+
+    Collection<Metric> admitted = timerTransformer.transform(baseName + "[request:a]", first);
+    Collection<Metric> limited = timerTransformer.transform(baseName + "[request:b]", second);
+    List<Metric> overflow = new ArrayList<>();
+    limiter.flushOverflow(overflow::add);
+
+    // summary, count and 2 percentiles
+    assertEquals(4, admitted.size());
+    assertTrue(limited.isEmpty());
+    assertEquals(4, overflow.size());
+    Set<Map<String, Object>> percentileAttributes = new HashSet<>();
+    for (Metric metric : overflow) {
+      if (metric instanceof Gauge) {
+        percentileAttributes.add(((Gauge) metric).getAttributes().asMap());
+      }
+    }
+    assertEquals(
+        Sets.newSet(
+            new Attributes()
+                .put("series", "other")
+                .put("percentile", 50d)
+                .put("commonName", "median")
+                .asMap(),
+            new Attributes().put("series", "other").put("percentile", 99d).asMap()),
+        percentileAttributes);
+  }
+
   @Test
   void testRemove() throws Exception {
     CountingTransformer counting = mock(CountingTransformer.class);
@@ -110,7 +208,8 @@ class TimerTransformerTest {
         new TimerTransformer(
             null, null, counting, MetricCustomizerTestUtils.NAME_TAG_STRIPPER, null);
     testClass.onTimerRemoved("money[tag:value]");
-    verify(counting).remove("money");
+    // previous counts are kept per registry name, not per customized name
+    verify(counting).remove("money[tag:value]");
   }
 
   @NotNull
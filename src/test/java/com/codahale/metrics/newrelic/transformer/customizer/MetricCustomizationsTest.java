@@ -0,0 +1,98 @@
+package com.codahale.metrics.newrelic.transformer.customizer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.codahale.metrics.Counter;
+import com.newrelic.telemetry.Attributes;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MetricCustomizationsTest {
+
+  private static final String NAME = "requests[tag:value,otherTag:otherValue]";
+
+  private final Counter counter = new Counter();
+  private AtomicInteger nameCalls;
+  private AtomicInteger attributeCalls;
+  private MetricNameCustomizer nameCustomizer;
+  private MetricAttributesCustomizer attributeCustomizer;
+
+  @BeforeEach
+  void setUp() {
+    nameCalls = new AtomicInteger();
+    attributeCalls = new AtomicInteger();
+    nameCustomizer =
+        name -> {
+          nameCalls.incrementAndGet();
+          return MetricCustomizerTestUtils.NAME_TAG_STRIPPER.customizeMetricName(name);
+        };
+    attributeCustomizer =
+        (name, metric, attributes) -> {
+          attributeCalls.incrementAndGet();
+          return MetricCustomizerTestUtils.ATTRIBUTES_FROM_TAGGED_NAME.customizeMetricAttributes(
+              name, metric, attributes);
+        };
+  }
+
+  @Test
+  void testUncachedCustomizesEveryCall() {
+    MetricCustomizations testClass =
+        MetricCustomizations.uncached(nameCustomizer, attributeCustomizer);
+    testClass.register(NAME, counter);
+
+    testClass.customizeName(NAME);
+    testClass.customizeName(NAME);
+    testClass.customizeAttributes(NAME, counter);
+    testClass.customizeAttributes(NAME, counter);
+
+    assertEquals(2, nameCalls.get());
+    assertEquals(2, attributeCalls.get());
+  }
+
+  @Test
+  void testCachedCustomizesOnlyOnRegistration() {
+    MetricCustomizations testClass =
+        MetricCustomizations.cached(nameCustomizer, attributeCustomizer);
+    testClass.register(NAME, counter);
+
+    assertEquals("requests", testClass.customizeName(NAME));
+    assertEquals("requests", testClass.customizeName(NAME));
+    Attributes expected = expectedAttributes();
+    assertEquals(expected, testClass.customizeAttributes(NAME, counter));
+    assertEquals(expected, testClass.customizeAttributes(NAME, counter));
+
+    assertEquals(1, nameCalls.get());
+    assertEquals(1, attributeCalls.get());
+  }
+
+  @Test
+  void testCachedAttributesAreShared() {
+    MetricCustomizations testClass =
+        MetricCustomizations.cached(nameCustomizer, attributeCustomizer);
+    testClass.register(NAME, counter);
+
+    assertSame(
+        testClass.customizeAttributes(NAME, counter), testClass.customizeAttributes(NAME, counter));
+  }
+
+  @Test
+  void testEvictedMetricsAreCustomizedAgain() {
+    MetricCustomizations testClass =
+        MetricCustomizations.cached(nameCustomizer, attributeCustomizer);
+    testClass.register(NAME, counter);
+    testClass.evict(NAME);
+
+    assertEquals("requests", testClass.customizeName(NAME));
+    assertEquals(expectedAttributes(), testClass.customizeAttributes(NAME, counter));
+
+    assertEquals(2, nameCalls.get());
+    assertEquals(2, attributeCalls.get());
+  }
+
+  private Attributes expectedAttributes() {
+    return MetricCustomizerTestUtils.ATTRIBUTES_FROM_TAGGED_NAME.customizeMetricAttributes(
+        NAME, counter, new Attributes());
+  }
+}
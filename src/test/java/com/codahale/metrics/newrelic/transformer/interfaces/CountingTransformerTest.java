@@ -18,7 +18,6 @@ import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Count;
 import com.newrelic.telemetry.metrics.Metric;
 import java.util.Collection;
-import java.util.function.Supplier;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -26,13 +25,13 @@ class CountingTransformerTest {
 
   private TimeTracker timeTracker;
   private Counting counting;
-  private Supplier<Attributes> baseAttributes;
+  private Attributes baseAttributes;
 
   @BeforeEach
   void setUp() {
     timeTracker = mock(TimeTracker.class);
     counting = mock(Counting.class);
-    baseAttributes = Attributes::new;
+    baseAttributes = new Attributes();
   }
 
   @Test
@@ -40,8 +39,8 @@ class CountingTransformerTest {
     long now = System.currentTimeMillis();
 
     when(counting.getCount()).thenReturn(37L);
-    when(timeTracker.getCurrentTime()).thenReturn(now);
-    when(timeTracker.getPreviousTime()).thenReturn(now - 5000);
+    // created 5 seconds before the first harvest
+    when(timeTracker.getCurrentTime()).thenReturn(now - 5000, now);
 
     Count expected = new Count("chocula", 37d, now - 5000, now, new Attributes());
 
@@ -55,8 +54,7 @@ class CountingTransformerTest {
     long now = System.currentTimeMillis();
 
     when(counting.getCount()).thenReturn(37L, 49L);
-    when(timeTracker.getCurrentTime()).thenReturn(now, now + 5000);
-    when(timeTracker.getPreviousTime()).thenReturn(now - 5000, now);
+    when(timeTracker.getCurrentTime()).thenReturn(now - 5000, now, now + 5000);
 
     Count firstExpected = new Count("chocula", 37d, now - 5000, now, new Attributes());
     Count secondExpected = new Count("chocula", 12d, now, now + 5000, new Attributes());
@@ -75,8 +73,7 @@ class CountingTransformerTest {
     long now = System.currentTimeMillis();
 
     when(counting.getCount()).thenReturn(37L, 12L);
-    when(timeTracker.getCurrentTime()).thenReturn(now, now + 5000);
-    when(timeTracker.getPreviousTime()).thenReturn(now - 5000, now);
+    when(timeTracker.getCurrentTime()).thenReturn(now - 5000, now, now + 5000);
 
     Count firstExpected = new Count("chocula", 37d, now - 5000, now, new Attributes());
     Count secondExpected = new Count("chocula", 12d, now, now + 5000, new Attributes());
@@ -90,13 +87,72 @@ class CountingTransformerTest {
         countingTransformer.transform("chocula", counting, baseAttributes));
   }
 
+  @Test
+  void testRegistrationKeepsPreviousCount() throws Exception {
+    long now = System.currentTimeMillis();
+
+    when(counting.getCount()).thenReturn(37L, 49L);
+    // created, then registered 5 seconds before the first harvest
+    when(timeTracker.getCurrentTime()).thenReturn(now - 10000, now - 5000, now, now + 5000);
+
+    Count firstExpected = new Count("chocula", 37d, now - 5000, now, new Attributes());
+    Count secondExpected = new Count("chocula", 12d, now, now + 5000, new Attributes());
+
+    CountingTransformer countingTransformer = new CountingTransformer(timeTracker);
+    countingTransformer.register("chocula");
+    assertEquals(
+        singleton(firstExpected),
+        countingTransformer.transform("chocula", counting, baseAttributes));
+    countingTransformer.register("chocula");
+    assertEquals(
+        singleton(secondExpected),
+        countingTransformer.transform("chocula", counting, baseAttributes));
+  }
+
+  @Test
+  void testIntervalStartsAtRegistration() throws Exception {
+    long now = System.currentTimeMillis();
+
+    when(counting.getCount()).thenReturn(37L);
+    // registered 2 seconds after the transformer was created
+    when(timeTracker.getCurrentTime()).thenReturn(now - 5000, now - 3000, now);
+
+    Count expected = new Count("chocula", 37d, now - 3000, now, new Attributes());
+
+    CountingTransformer countingTransformer = new CountingTransformer(timeTracker);
+    countingTransformer.register("chocula");
+    assertEquals(
+        singleton(expected), countingTransformer.transform("chocula", counting, baseAttributes));
+  }
+
+  @Test
+  void testIntervalsArePerMetric() throws Exception {
+    long now = System.currentTimeMillis();
+
+    when(counting.getCount()).thenReturn(37L, 40L, 49L);
+    when(timeTracker.getCurrentTime()).thenReturn(now - 5000, now, now + 1000, now + 5000);
+    // a late tick of the tracker, after a slow send, doesn't change the intervals
+    when(timeTracker.getPreviousTime()).thenReturn(now + 2000);
+
+    Count first = new Count("chocula", 37d, now - 5000, now, new Attributes());
+    Count other = new Count("count", 40d, now - 5000, now + 1000, new Attributes());
+    Count second = new Count("chocula", 12d, now, now + 5000, new Attributes());
+
+    CountingTransformer countingTransformer = new CountingTransformer(timeTracker);
+    assertEquals(
+        singleton(first), countingTransformer.transform("chocula", counting, baseAttributes));
+    assertEquals(
+        singleton(other), countingTransformer.transform("count", counting, baseAttributes));
+    assertEquals(
+        singleton(second), countingTransformer.transform("chocula", counting, baseAttributes));
+  }
+
   @Test
   public void testAfterRemoval() throws Exception {
     long now = System.currentTimeMillis();
 
     when(counting.getCount()).thenReturn(37L);
-    when(timeTracker.getCurrentTime()).thenReturn(now);
-    when(timeTracker.getPreviousTime()).thenReturn(now - 5000);
+    when(timeTracker.getCurrentTime()).thenReturn(now - 5000, now);
 
     Count expected = new Count("chocula", 37d, now - 5000, now, new Attributes());
 
@@ -0,0 +1,90 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer.interfaces;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.newrelic.telemetry.Attributes;
+import org.junit.jupiter.api.Test;
+
+class DerivedAttributesTest {
+
+  private static final DerivedAttributes.Derivation SLOT =
+      (baseAttributes, slot) -> baseAttributes.copy().put("slot", slot);
+
+  @Test
+  void testReusedAttributesAreDerivedOncePerBaseAttributes() {
+    DerivedAttributes testClass = DerivedAttributes.reused(SLOT);
+    Attributes a = new Attributes().put("host", "a");
+    Attributes b = new Attributes().put("host", "b");
+
+    Attributes first = testClass.get(a, 2);
+    Attributes second = testClass.get(a, 2);
+
+    assertEquals(new Attributes().put("host", "a").put("slot", 2), first);
+    assertSame(first, second);
+    assertNotSame(first, testClass.get(b, 2));
+    assertEquals(new Attributes().put("host", "a").put("slot", 0), testClass.get(a, 0));
+    assertSame(first, testClass.get(a, 2));
+    assertEquals(2, testClass.size());
+  }
+
+  @Test
+  void testFreshAttributesAreDerivedOnEveryCall() {
+    DerivedAttributes testClass = DerivedAttributes.fresh(SLOT);
+    Attributes baseAttributes = new Attributes().put("host", "a");
+
+    Attributes first = testClass.get(baseAttributes, 1);
+
+    assertEquals(new Attributes().put("host", "a").put("slot", 1), first);
+    assertNotSame(first, testClass.get(baseAttributes, 1));
+    assertEquals(0, testClass.size());
+  }
+
+  @Test
+  void testBaseAttributesAreToldApartByIdentity() {
+    DerivedAttributes testClass = DerivedAttributes.reused(SLOT);
+
+    Attributes first = testClass.get(new Attributes().put("host", "a"), 0);
+    Attributes second = testClass.get(new Attributes().put("host", "a"), 0);
+
+    assertEquals(first, second);
+    assertNotSame(first, second);
+  }
+
+  @Test
+  void testBaseAttributesPastTheLimitAreNotKept() {
+    DerivedAttributes testClass = DerivedAttributes.reused(SLOT, 2);
+    Attributes a = new Attributes().put("host", "a");
+    Attributes b = new Attributes().put("host", "b");
+    Attributes c = new Attributes().put("host", "c");
+    Attributes first = testClass.get(a, 0);
+    Attributes second = testClass.get(b, 0);
+
+    Attributes overLimit = testClass.get(c, 0);
+
+    assertEquals(new Attributes().put("host", "c").put("slot", 0), overLimit);
+    assertNotSame(overLimit, testClass.get(c, 0));
+    assertSame(first, testClass.get(a, 0));
+    assertSame(second, testClass.get(b, 0));
+  }
+
+  @Test
+  void testSlotsPastTheMaximumAreNotReused() {
+    DerivedAttributes testClass = DerivedAttributes.reused(SLOT);
+    Attributes baseAttributes = new Attributes();
+
+    Attributes first = testClass.get(baseAttributes, DerivedAttributes.MAX_SLOTS);
+
+    assertEquals(new Attributes().put("slot", DerivedAttributes.MAX_SLOTS), first);
+    assertNotSame(first, testClass.get(baseAttributes, DerivedAttributes.MAX_SLOTS));
+    assertEquals(0, testClass.size());
+  }
+}
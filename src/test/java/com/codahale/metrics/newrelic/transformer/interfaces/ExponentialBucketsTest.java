@@ -0,0 +1,145 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer.interfaces;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.codahale.metrics.UniformSnapshot;
+import com.codahale.metrics.WeightedSnapshot;
+import com.codahale.metrics.WeightedSnapshot.WeightedSample;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ExponentialBucketsTest {
+
+  private static final long now = System.currentTimeMillis();
+
+  @Test
+  void testValuesAreCountedPerBucket() {
+    ExponentialBuckets testClass = new ExponentialBuckets(2);
+    Attributes baseAttributes = new Attributes().put("host", "a");
+    List<Metric> result = new ArrayList<>();
+
+    testClass.transform(
+        "latency",
+        new UniformSnapshot(new long[] {0, 1, 3, 4, 4, 5, 100}),
+        1,
+        now,
+        baseAttributes,
+        result::add);
+
+    assertEquals(
+        Arrays.asList(
+            new Gauge(
+                "latency.buckets", 1, now, new Attributes().put("host", "a").put("le", 0d)),
+            bucket(0.5, 1, 1),
+            bucket(2, 4, 3),
+            bucket(4, 8, 1),
+            bucket(64, 128, 1)),
+        result);
+    assertEquals(new Attributes().put("host", "a"), baseAttributes);
+  }
+
+  @Test
+  void testBoundsAreInTheReportedUnit() {
+    ExponentialBuckets testClass = new ExponentialBuckets(10);
+    List<Metric> result = new ArrayList<>();
+
+    testClass.transform(
+        "latency",
+        new UniformSnapshot(new long[] {5_000_000, 50_000_000}),
+        1_000_000,
+        now,
+        new Attributes(),
+        result::add);
+
+    assertEquals(
+        Arrays.asList(
+            new Gauge("latency.buckets", 1, now, new Attributes().put("gt", 1d).put("le", 10d)),
+            new Gauge(
+                "latency.buckets", 1, now, new Attributes().put("gt", 10d).put("le", 100d))),
+        result);
+  }
+
+  @Test
+  void testReusedAttributesAreSharedAcrossHarvests() {
+    ExponentialBuckets testClass = new ExponentialBuckets(2, true);
+    UniformSnapshot snapshot = new UniformSnapshot(new long[] {0, 250, 500, 1_000, 3_000});
+    List<Metric> first = new ArrayList<>();
+    List<Metric> second = new ArrayList<>();
+    // the cached customizations of a metric pass the same base attributes on every harvest
+    Attributes baseAttributes = new Attributes();
+
+    testClass.transform("latency", snapshot, 1_000, now, baseAttributes, first::add);
+    testClass.transform("latency", snapshot, 1_000, now, baseAttributes, second::add);
+
+    assertEquals(
+        Arrays.asList(
+            new Gauge("latency.buckets", 1, now, new Attributes().put("le", 0d)),
+            new Gauge(
+                "latency.buckets", 1, now, new Attributes().put("gt", 0.125d).put("le", 0.25d)),
+            new Gauge(
+                "latency.buckets", 1, now, new Attributes().put("gt", 0.25d).put("le", 0.5d)),
+            new Gauge("latency.buckets", 1, now, new Attributes().put("gt", 0.5d).put("le", 1d)),
+            new Gauge("latency.buckets", 1, now, new Attributes().put("gt", 2d).put("le", 4d))),
+        first);
+    assertEquals(first, second);
+    for (int i = 0; i < first.size(); i++) {
+      assertSame(
+          ((Gauge) first.get(i)).getAttributes(), ((Gauge) second.get(i)).getAttributes());
+    }
+  }
+
+  @Test
+  void testWeightedSnapshotsAreNotBucketed() {
+    ExponentialBuckets testClass = new ExponentialBuckets(2);
+    List<Metric> result = new ArrayList<>();
+
+    testClass.transform(
+        "latency",
+        new WeightedSnapshot(Arrays.asList(new WeightedSample(1, 1d), new WeightedSample(100, 9d))),
+        1,
+        now,
+        new Attributes(),
+        result::add);
+
+    assertEquals(Collections.emptyList(), result);
+  }
+
+  @Test
+  void testUpperBounds() {
+    ExponentialBuckets testClass = new ExponentialBuckets(2);
+
+    assertEquals(0d, testClass.upperBound(-3));
+    assertEquals(1d, testClass.upperBound(0.75));
+    assertEquals(1d, testClass.upperBound(1));
+    assertEquals(8d, testClass.upperBound(8));
+    assertEquals(16d, testClass.upperBound(8.5));
+  }
+
+  @Test
+  void testBaseMustBeGreaterThanOne() {
+    assertThrows(IllegalArgumentException.class, () -> new ExponentialBuckets(1));
+  }
+
+  private static Gauge bucket(double lowerBound, double upperBound, int count) {
+    return new Gauge(
+        "latency.buckets",
+        count,
+        now,
+        new Attributes().put("host", "a").put("gt", lowerBound).put("le", upperBound));
+  }
+}
@@ -13,6 +13,7 @@ import static com.codahale.metrics.MetricAttribute.M5_RATE;
 import static com.codahale.metrics.MetricAttribute.MEAN_RATE;
 import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -22,8 +23,10 @@ import com.codahale.metrics.MetricAttribute;
 import com.newrelic.telemetry.Attributes;
 import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.function.Supplier;
+import java.util.List;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -41,7 +44,7 @@ class MeteredTransformerTest {
       new Gauge(METER_NAME + ".rates", 3000, timestamp, attributeTo(M5_RATE));
   private final Gauge fifteenMinuteRate =
       new Gauge(METER_NAME + ".rates", 4000, timestamp, attributeTo(M15_RATE));
-  private final Supplier<Attributes> baseAttributes = Attributes::new;
+  private final Attributes baseAttributes = new Attributes();
   private Clock clock;
   private Meter meter;
 
@@ -73,6 +76,7 @@ class MeteredTransformerTest {
 
     // Then
     assertEquals(expectedMetrics, newRelicMetrics);
+    assertEquals(new Attributes(), baseAttributes);
   }
 
   @Test
@@ -93,6 +97,25 @@ class MeteredTransformerTest {
     assertEquals(expectedMetrics, newRelicMetrics);
   }
 
+  @Test
+  void testReusedRateAttributes() {
+    MeteredTransformer converter = new MeteredTransformer(clock, 10L, x -> true, true);
+
+    List<Metric> first = new ArrayList<>();
+    List<Metric> second = new ArrayList<>();
+
+    converter.transform(METER_NAME, meter, baseAttributes, first::add);
+    converter.transform(METER_NAME, meter, baseAttributes, second::add);
+
+    assertEquals(Arrays.asList(mean, oneMinuteRate, fiveMinuteRate, fifteenMinuteRate), first);
+    assertEquals(first, second);
+    for (int i = 0; i < first.size(); i++) {
+      assertSame(
+          ((Gauge) first.get(i)).getAttributes(), ((Gauge) second.get(i)).getAttributes());
+    }
+    assertEquals(new Attributes(), baseAttributes);
+  }
+
   private Attributes attributeTo(MetricAttribute attribute) {
     return new Attributes().put("rate", attribute.getCode());
   }
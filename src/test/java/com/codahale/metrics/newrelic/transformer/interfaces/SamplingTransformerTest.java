@@ -8,6 +8,8 @@
 package com.codahale.metrics.newrelic.transformer.interfaces;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -23,7 +25,6 @@ import com.newrelic.telemetry.metrics.Gauge;
 import com.newrelic.telemetry.metrics.Metric;
 import com.newrelic.telemetry.metrics.Summary;
 import java.util.Collection;
-import java.util.function.Supplier;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.internal.util.collections.Sets;
@@ -31,11 +32,11 @@ import org.mockito.internal.util.collections.Sets;
 class SamplingTransformerTest {
 
   private static final long now = System.currentTimeMillis();
-  private Supplier<Attributes> baseAttributes;
+  private Attributes baseAttributes;
 
   @BeforeEach
   void setUp() {
-    baseAttributes = Attributes::new;
+    baseAttributes = new Attributes();
   }
 
   @Test
@@ -87,6 +88,7 @@ class SamplingTransformerTest {
     Collection<Metric> result = testClass.transform("blobby", sampling, baseAttributes);
 
     assertEquals(expected, result);
+    assertEquals(new Attributes(), baseAttributes);
   }
 
   private Histogram buildSampling() {
@@ -148,6 +150,83 @@ class SamplingTransformerTest {
     assertEquals(expected, result);
   }
 
+  @Test
+  void testSumComesFromTheSnapshotSum() {
+    Histogram histogram = buildSampling();
+    TimeTracker timeTracker = mock(TimeTracker.class);
+    when(timeTracker.getCurrentTime()).thenReturn(now);
+    when(timeTracker.getPreviousTime()).thenReturn(now);
+
+    SamplingTransformer testClass = new SamplingTransformer(timeTracker, 10, snapshot -> 42d);
+    Collection<Metric> result = testClass.transform("blobby", histogram, baseAttributes);
+
+    assertTrue(result.contains(new Summary("blobby", 6, 42, .3, .5, now, now, new Attributes())));
+  }
+
+  @Test
+  void testConfiguredPercentiles() {
+    Histogram histogram = buildSampling();
+    TimeTracker timeTracker = mock(TimeTracker.class);
+    when(timeTracker.getCurrentTime()).thenReturn(now);
+    when(timeTracker.getPreviousTime()).thenReturn(now);
+
+    SamplingTransformer testClass =
+        new SamplingTransformer(timeTracker, 1, SnapshotSum.EXACT, new double[] {0.99d});
+    Collection<Metric> result = testClass.transform("blobby", histogram, baseAttributes);
+
+    Collection<Metric> expected =
+        Sets.newSet(
+            new Summary("blobby", 6, 23, 3, 5, now, now, new Attributes()),
+            new Gauge(
+                "blobby.percentiles",
+                histogram.getSnapshot().get99thPercentile(),
+                now,
+                percentileAttributes(99.0)));
+    assertEquals(expected, result);
+  }
+
+  @Test
+  void testNoPercentiles() {
+    Histogram histogram = buildSampling();
+    TimeTracker timeTracker = mock(TimeTracker.class);
+    when(timeTracker.getCurrentTime()).thenReturn(now);
+    when(timeTracker.getPreviousTime()).thenReturn(now);
+
+    SamplingTransformer testClass =
+        new SamplingTransformer(timeTracker, 1, SnapshotSum.EXACT, new double[0]);
+    Collection<Metric> result = testClass.transform("blobby", histogram, baseAttributes);
+
+    assertEquals(
+        Sets.newSet(new Summary("blobby", 6, 23, 3, 5, now, now, new Attributes())), result);
+  }
+
+  @Test
+  void testBucketsInsteadOfPercentiles() {
+    Histogram histogram = buildSampling();
+    TimeTracker timeTracker = mock(TimeTracker.class);
+    when(timeTracker.getCurrentTime()).thenReturn(now);
+    when(timeTracker.getPreviousTime()).thenReturn(now);
+
+    SamplingTransformer testClass =
+        new SamplingTransformer(
+            timeTracker, 1, SnapshotSum.EXACT, new double[0], new ExponentialBuckets(2));
+    Collection<Metric> result = testClass.transform("blobby", histogram, baseAttributes);
+
+    Collection<Metric> expected =
+        Sets.newSet(
+            new Summary("blobby", 6, 23, 3, 5, now, now, new Attributes()),
+            new Gauge("blobby.buckets", 4, now, new Attributes().put("gt", 2d).put("le", 4d)),
+            new Gauge("blobby.buckets", 2, now, new Attributes().put("gt", 4d).put("le", 8d)));
+    assertEquals(expected, result);
+  }
+
+  @Test
+  void testPercentilesMustBeQuantiles() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new SamplingTransformer(null, 1, SnapshotSum.EXACT, new double[] {99d}));
+  }
+
   private void recordSomeData(Histogram histogram) {
     histogram.update(3);
     histogram.update(3);
@@ -0,0 +1,79 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.transformer.interfaces;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import com.codahale.metrics.WeightedSnapshot;
+import com.codahale.metrics.WeightedSnapshot.WeightedSample;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class SnapshotSumTest {
+
+  private final Snapshot snapshot = new UniformSnapshot(new long[] {3, 3, 5, 4, 3, 5});
+
+  @Test
+  void testExactSum() {
+    assertEquals(23d, SnapshotSum.EXACT.sum(snapshot), 1e-9);
+  }
+
+  @Test
+  void testExactSumOfUniformSnapshotDoesNotCopyValues() {
+    Snapshot uniform =
+        new UniformSnapshot(new long[] {3, 3, 5, 4, 3, 5}) {
+          @Override
+          public long[] getValues() {
+            throw new AssertionError("values copied");
+          }
+        };
+
+    assertEquals(23d, SnapshotSum.EXACT.sum(uniform), 1e-9);
+  }
+
+  @Test
+  void testExactSumOfWeightedSnapshotAddsValues() {
+    Snapshot weighted =
+        new WeightedSnapshot(
+            Arrays.asList(
+                new WeightedSample(1, 1d), new WeightedSample(2, 1d), new WeightedSample(9, 8d)));
+
+    assertEquals(12d, SnapshotSum.EXACT.sum(weighted));
+    assertEquals(22.5d, SnapshotSum.MEAN_TIMES_SIZE.sum(weighted), 1e-9);
+  }
+
+  @Test
+  void testExactSumOfOtherSnapshotAddsValues() {
+    Snapshot other = mock(Snapshot.class);
+    when(other.getValues()).thenReturn(new long[] {3, 3, 5, 4, 3, 5});
+
+    assertEquals(23d, SnapshotSum.EXACT.sum(other));
+    verify(other, never()).getMean();
+  }
+
+  @Test
+  void testValuesSum() {
+    assertEquals(23d, SnapshotSum.VALUES.sum(snapshot));
+  }
+
+  @Test
+  void testExactSumOfEmptySnapshot() {
+    assertEquals(0d, SnapshotSum.EXACT.sum(new UniformSnapshot(new long[0])), 0d);
+  }
+
+  @Test
+  void testMeanTimesSize() {
+    assertEquals(23d, SnapshotSum.MEAN_TIMES_SIZE.sum(snapshot), 1e-9);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BatchSplitterTest {
+
+  private final Metric a = new Gauge("a", 1, 0, new Attributes());
+  private final Metric b = new Gauge("b", 2, 0, new Attributes());
+  private final Metric c = new Gauge("c", 3, 0, new Attributes());
+  private final List<Metric> metrics = asList(a, b, c);
+
+  @Test
+  void testSmallHarvestsAreNotSplit() {
+    BatchSplitter testClass = new BatchSplitter(3, Long.MAX_VALUE);
+
+    assertEquals(singletonList(metrics), testClass.split(metrics));
+  }
+
+  @Test
+  void testSplitByCount() {
+    BatchSplitter testClass = new BatchSplitter(2, Long.MAX_VALUE);
+
+    assertEquals(asList(asList(a, b), singletonList(c)), testClass.split(metrics));
+  }
+
+  @Test
+  void testSplitByBytes() {
+    // every metric is estimated at the overhead plus its one character name
+    BatchSplitter testClass =
+        new BatchSplitter(Integer.MAX_VALUE, 2 * (BatchSplitter.METRIC_OVERHEAD_BYTES + 1));
+
+    assertEquals(asList(asList(a, b), singletonList(c)), testClass.split(metrics));
+  }
+
+  @Test
+  void testOversizedMetricsGetTheirOwnShard() {
+    BatchSplitter testClass = new BatchSplitter(Integer.MAX_VALUE, 1);
+
+    assertEquals(
+        asList(singletonList(a), singletonList(b), singletonList(c)), testClass.split(metrics));
+  }
+
+  @Test
+  void testAttributesCountTowardsTheSize() {
+    Metric tagged = new Gauge("d", 4, 0, new Attributes().put("host", "abc"));
+    BatchSplitter testClass =
+        new BatchSplitter(Integer.MAX_VALUE, 2 * (BatchSplitter.METRIC_OVERHEAD_BYTES + 1));
+
+    assertEquals(
+        asList(singletonList(tagged), singletonList(a)), testClass.split(asList(tagged, a)));
+  }
+
+  @Test
+  void testLimitsMustBePositive() {
+    assertThrows(IllegalArgumentException.class, () -> new BatchSplitter(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new BatchSplitter(1, 0));
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.newrelic.util.MetricAggregator.GaugeAggregation;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CardinalityLimiterTest {
+
+  private static final Attributes OTHER = new Attributes().put("series", "other");
+
+  private final Counter overflow = new Counter();
+
+  @Test
+  void testSeriesWithinTheLimitArePassedThrough() {
+    CardinalityLimiter testClass = new CardinalityLimiter(2, 1, GaugeAggregation.MAX, overflow);
+    Count first = new Count("requests", 1, 0, 10, request("a"));
+    Count second = new Count("requests", 2, 0, 10, request("b"));
+    Count otherName = new Count("errors", 3, 0, 10, request("c"));
+
+    List<Metric> result = harvest(testClass, first, second, otherName, first);
+
+    assertEquals(asList(first, second, otherName, first), result);
+    assertEquals(0, overflow.getCount());
+  }
+
+  @Test
+  void testOverflowIsMergedIntoTheOtherSeries() {
+    CardinalityLimiter testClass = new CardinalityLimiter(1, 1, GaugeAggregation.MAX, overflow);
+    Count first = new Count("requests", 1, 0, 10, request("a"));
+    Gauge gauge = new Gauge("in.flight", 4, 10, request("a"));
+
+    List<Metric> result =
+        harvest(
+            testClass,
+            first,
+            new Count("requests", 2, 0, 10, request("b")),
+            new Count("requests", 3, 0, 10, request("c")),
+            gauge,
+            new Gauge("in.flight", 7, 10, request("b")),
+            new Gauge("in.flight", 5, 10, request("c")));
+
+    assertEquals(
+        asList(
+            first,
+            gauge,
+            new Count("requests", 5, 0, 10, OTHER),
+            new Gauge("in.flight", 7, 10, OTHER)),
+        result);
+    assertEquals(4, overflow.getCount());
+    assertEquals(3, testClass.estimatedSeries("requests"));
+  }
+
+  @Test
+  void testAdmittedSeriesKeepReporting() {
+    CardinalityLimiter testClass = new CardinalityLimiter(1, 1, GaugeAggregation.MAX, overflow);
+    Count first = new Count("requests", 1, 0, 10, request("a"));
+    harvest(testClass, first, new Count("requests", 2, 0, 10, request("b")));
+
+    List<Metric> result =
+        harvest(testClass, first, new Count("requests", 2, 0, 10, request("b")));
+
+    assertEquals(asList(first, new Count("requests", 2, 0, 10, OTHER)), result);
+  }
+
+  @Test
+  void testForgottenSeriesMakeRoom() {
+    CardinalityLimiter testClass = new CardinalityLimiter(1, 2, GaugeAggregation.MAX, overflow);
+    harvest(testClass, new Count("requests", 1, 0, 10, request("a")));
+    harvest(testClass);
+    harvest(testClass);
+    Count next = new Count("requests", 2, 10, 20, request("b"));
+
+    List<Metric> result = harvest(testClass, next);
+
+    assertEquals(asList(next), result);
+    assertEquals(0, overflow.getCount());
+  }
+
+  @Test
+  void testManySeriesAreEstimated() {
+    CardinalityLimiter testClass = new CardinalityLimiter(10, 1, GaugeAggregation.MAX, overflow);
+    List<Metric> metrics = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      metrics.add(new Count("requests", 1, 0, 10, request("request-" + i)));
+    }
+
+    List<Metric> result = harvest(testClass, metrics.toArray(new Metric[0]));
+
+    assertEquals(11, result.size());
+    assertEquals(new Count("requests", 9_990, 0, 10, OTHER), result.get(10));
+    long estimate = testClass.estimatedSeries("requests");
+    assertTrue(estimate > 8_000 && estimate < 12_000, "estimated " + estimate);
+  }
+
+  @Test
+  void testLimitMustBePositive() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new CardinalityLimiter(0, GaugeAggregation.MAX));
+  }
+
+  private static List<Metric> harvest(CardinalityLimiter testClass, Metric... metrics) {
+    List<Metric> result = new ArrayList<>();
+    for (Metric metric : metrics) {
+      // each metric stands for a DropWizard metric that nothing is derived from
+      if (testClass.admit(MetricAccessors.name(metric), MetricAccessors.attributes(metric))) {
+        result.add(metric);
+      } else {
+        testClass
+            .overflow()
+            .accept(MetricAccessors.withAttributes(metric, CardinalityLimiter.otherAttributes()));
+      }
+    }
+    testClass.flushOverflow(result::add);
+    testClass.endHarvest();
+    return result;
+  }
+
+  private static Attributes request(String id) {
+    return new Attributes().put("request.id", id);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.Summary;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+class ChangedMetricsFilterTest {
+
+  private final ChangedMetricsFilter testClass = new ChangedMetricsFilter(60_000);
+
+  @Test
+  void testFirstHarvestSendsEverything() {
+    Gauge gauge = new Gauge("gauge", 1, 0, new Attributes());
+    Count count = new Count("count", 0, 0, 0, new Attributes());
+
+    assertEquals(asList(gauge, count), harvest(0, gauge, count));
+  }
+
+  @Test
+  void testUnchangedGaugesAreDropped() {
+    harvest(0, new Gauge("gauge", 1, 0, new Attributes()));
+
+    assertEquals(emptyList(), harvest(1000, new Gauge("gauge", 1, 1000, new Attributes())));
+    Gauge changed = new Gauge("gauge", 2, 2000, new Attributes());
+    assertEquals(asList(changed), harvest(2000, changed));
+  }
+
+  @Test
+  void testZeroCountsAreDropped() {
+    harvest(0, new Count("count", 3, 0, 0, new Attributes()));
+
+    Count repeated = new Count("count", 3, 0, 1000, new Attributes());
+    assertEquals(asList(repeated), harvest(1000, repeated));
+    assertEquals(emptyList(), harvest(2000, new Count("count", 0, 1000, 2000, new Attributes())));
+  }
+
+  @Test
+  void testUnchangedSummariesAreDropped() {
+    harvest(0, new Summary("summary", 2, 5, 1, 4, 0, 0, new Attributes()));
+
+    assertEquals(
+        emptyList(), harvest(1000, new Summary("summary", 2, 5, 1, 4, 0, 1000, new Attributes())));
+    Summary changed = new Summary("summary", 3, 6, 1, 4, 1000, 2000, new Attributes());
+    assertEquals(asList(changed), harvest(2000, changed));
+  }
+
+  @Test
+  void testSeriesAreIdentifiedByAttributes() {
+    harvest(0, new Gauge("gauge", 1, 0, new Attributes().put("host", "a")));
+
+    Gauge otherHost = new Gauge("gauge", 1, 1000, new Attributes().put("host", "b"));
+    assertEquals(asList(otherHost), harvest(1000, otherHost));
+  }
+
+  @Test
+  void testStaleMetricsAreSentAgain() {
+    harvest(0, new Gauge("gauge", 1, 0, new Attributes()));
+    harvest(30_000, new Gauge("gauge", 1, 30_000, new Attributes()));
+
+    Gauge heartbeat = new Gauge("gauge", 1, 60_000, new Attributes());
+    assertEquals(asList(heartbeat), harvest(60_000, heartbeat));
+  }
+
+  @Test
+  void testRemovedMetricsAreForgotten() {
+    harvest(0, new Gauge("gauge", 1, 0, new Attributes()));
+    harvest(1000);
+
+    Gauge readded = new Gauge("gauge", 1, 2000, new Attributes());
+    assertEquals(asList(readded), harvest(2000, readded));
+  }
+
+  @Test
+  void testSeriesAreKeptForTheGivenNumberOfHarvests() {
+    ChangedMetricsFilter testClass = new ChangedMetricsFilter(60_000, 3);
+    harvest(testClass, 0, new Gauge("gauge", 1, 0, new Attributes()));
+    harvest(testClass, 1000);
+    harvest(testClass, 2000);
+
+    assertEquals(
+        emptyList(), harvest(testClass, 3000, new Gauge("gauge", 1, 3000, new Attributes())));
+  }
+
+  private List<Metric> harvest(long now, Metric... metrics) {
+    return harvest(testClass, now, metrics);
+  }
+
+  private static List<Metric> harvest(ChangedMetricsFilter testClass, long now, Metric... metrics) {
+    List<Metric> sent = new ArrayList<>();
+    Consumer<Metric> sink = testClass.filter(sent::add, now);
+    for (Metric metric : metrics) {
+      sink.accept(metric);
+    }
+    testClass.endHarvest();
+    return sent;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class GaugeValueCacheTest {
+
+  private static final long TTL = 1000;
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final Gauge<Integer> countingGauge = calls::incrementAndGet;
+  private final List<Runnable> refreshes = new ArrayList<>();
+  private final List<Long> delays = new ArrayList<>();
+  private long tick = 0;
+  private final Clock clock =
+      new Clock() {
+        @Override
+        public long getTick() {
+          return tick;
+        }
+      };
+
+  @Test
+  void testValuesAreCachedUntilTheRefreshIsDue() {
+    GaugeValueCache testClass = cache(emptyMap());
+
+    assertEquals(1, testClass.read("gauge", countingGauge));
+    tick = 700;
+    assertEquals(1, testClass.read("gauge", countingGauge));
+    assertEquals(1, calls.get());
+    assertEquals(Arrays.asList(750L), delays);
+  }
+
+  @Test
+  void testValuesAreRefreshedInTheBackground() {
+    GaugeValueCache testClass = cache(emptyMap());
+    testClass.read("gauge", countingGauge);
+    tick = 750;
+
+    refreshes.remove(0).run();
+
+    assertEquals(2, calls.get());
+    tick = 1200;
+    assertEquals(2, testClass.read("gauge", countingGauge));
+    assertEquals(2, calls.get());
+    assertEquals(Arrays.asList(750L, 750L), delays);
+  }
+
+  @Test
+  void testLaterReadsScheduleTheRefreshWhenItIsDue() {
+    GaugeValueCache testClass = cache(emptyMap());
+    testClass.read("gauge", countingGauge);
+    refreshes.remove(0).run();
+    // no harvest read the value since, so it is left to expire
+    refreshes.remove(0).run();
+    tick = 500;
+
+    testClass.read("gauge", countingGauge);
+
+    assertEquals(Arrays.asList(750L, 750L, 250L), delays);
+  }
+
+  @Test
+  void testUnusedValuesAreNotRefreshed() {
+    GaugeValueCache testClass = cache(emptyMap());
+    testClass.read("gauge", countingGauge);
+    refreshes.remove(0).run();
+
+    refreshes.remove(0).run();
+
+    assertEquals(2, calls.get());
+    assertTrue(refreshes.isEmpty());
+  }
+
+  @Test
+  void testForgottenValuesAreNotRefreshed() {
+    GaugeValueCache testClass = cache(emptyMap());
+    testClass.read("gauge", countingGauge);
+    testClass.forget("gauge");
+
+    refreshes.remove(0).run();
+
+    assertEquals(1, calls.get());
+    assertTrue(refreshes.isEmpty());
+  }
+
+  @Test
+  void testExpiredValuesAreServedWhileRefreshing() {
+    GaugeValueCache testClass = cache(emptyMap());
+    List<Object> readWhileRefreshing = new ArrayList<>();
+    Gauge<Integer> gauge =
+        () -> {
+          int call = calls.incrementAndGet();
+          if (call == 2) {
+            tick = 2000;
+            readWhileRefreshing.add(testClass.read("gauge", countingGauge));
+          }
+          return call;
+        };
+    testClass.read("gauge", gauge);
+
+    refreshes.remove(0).run();
+
+    assertEquals(Arrays.asList(1), readWhileRefreshing);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void testExpiredValuesAreReloaded() {
+    GaugeValueCache testClass = cache(emptyMap());
+    testClass.read("gauge", countingGauge);
+
+    tick = 2000;
+    assertEquals(2, testClass.read("gauge", countingGauge));
+    assertEquals(1, refreshes.size());
+  }
+
+  @Test
+  void testOverridesMatchTheRegistryName() {
+    GaugeValueCache testClass = cache(singletonMap(Pattern.compile("uncached\\..*"), 0L));
+
+    assertEquals(1, testClass.read("uncached.gauge", countingGauge));
+    assertEquals(2, testClass.read("uncached.gauge", countingGauge));
+    assertEquals(3, testClass.read("cached.gauge", countingGauge));
+    assertEquals(3, testClass.read("cached.gauge", countingGauge));
+  }
+
+  @Test
+  void testForgottenValuesAreReloaded() {
+    GaugeValueCache testClass = cache(emptyMap());
+    testClass.read("gauge", countingGauge);
+
+    testClass.forget("gauge");
+
+    assertEquals(2, testClass.read("gauge", countingGauge));
+  }
+
+  @Test
+  void testHarvestsStartOnlyTheReadsOfValuesToLoad() {
+    List<String> started = new ArrayList<>();
+    GaugeReader delegate =
+        new GaugeReader() {
+          @Override
+          public void startHarvest(Map<String, Gauge> gauges) {
+            started.addAll(gauges.keySet());
+          }
+
+          @Override
+          public Object read(String name, Gauge<?> gauge) {
+            return gauge.getValue();
+          }
+        };
+    GaugeValueCache testClass =
+        new GaugeValueCache(
+            delegate,
+            TTL,
+            singletonMap(Pattern.compile("uncached\\..*"), 0L),
+            this::schedule,
+            null,
+            clock);
+    testClass.read("cached.gauge", countingGauge);
+    Map<String, Gauge> gauges = new TreeMap<>();
+    gauges.put("cached.gauge", countingGauge);
+    gauges.put("new.gauge", countingGauge);
+    gauges.put("uncached.gauge", countingGauge);
+
+    testClass.startHarvest(gauges);
+
+    assertEquals(Arrays.asList("new.gauge", "uncached.gauge"), started);
+  }
+
+  @Test
+  void testTimedOutValuesAreNotCached() {
+    AtomicInteger reads = new AtomicInteger();
+    GaugeReader delegate =
+        (name, gauge) -> reads.incrementAndGet() == 1 ? GaugeReader.TIMED_OUT : gauge.getValue();
+    GaugeValueCache testClass =
+        new GaugeValueCache(delegate, TTL, emptyMap(), this::schedule, null, clock);
+
+    assertSame(GaugeReader.TIMED_OUT, testClass.read("gauge", countingGauge));
+    assertEquals(1, testClass.read("gauge", countingGauge));
+  }
+
+  @Test
+  void testClosingLeavesASuppliedRefresherRunning() {
+    ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+    try {
+      new GaugeValueCache(GaugeReader.DIRECT, TTL, emptyMap(), refresher, clock).close();
+
+      assertFalse(refresher.isShutdown());
+    } finally {
+      refresher.shutdown();
+    }
+  }
+
+  private GaugeValueCache cache(Map<Pattern, Long> overrides) {
+    return new GaugeValueCache(GaugeReader.DIRECT, TTL, overrides, this::schedule, null, clock);
+  }
+
+  private void schedule(Runnable refresh, long delayNanos) {
+    refreshes.add(refresh);
+    delays.add(delayNanos);
+  }
+}
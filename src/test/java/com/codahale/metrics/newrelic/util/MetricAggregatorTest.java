@@ -0,0 +1,85 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.codahale.metrics.newrelic.util.MetricAggregator.GaugeAggregation;
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.Summary;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MetricAggregatorTest {
+
+  private final Attributes attributes = new Attributes().put("pool", "worker");
+
+  @Test
+  void testUniqueMetricsArePassedThrough() {
+    Gauge gauge = new Gauge("gauge", 1, 10, attributes);
+    Gauge otherAttributes = new Gauge("gauge", 2, 10, new Attributes());
+    Count count = new Count("gauge", 3, 0, 10, attributes);
+
+    List<Metric> result = aggregate(GaugeAggregation.SUM, gauge, otherAttributes, count);
+
+    assertEquals(asList(gauge, otherAttributes, count), result);
+    assertSame(gauge, result.get(0));
+  }
+
+  @Test
+  void testCountsAreAddedUp() {
+    List<Metric> result =
+        aggregate(
+            GaugeAggregation.SUM,
+            new Count("requests", 3, 5, 10, attributes),
+            new Count("requests", 4, 0, 12, attributes));
+
+    assertEquals(asList(new Count("requests", 7, 0, 12, attributes)), result);
+  }
+
+  @Test
+  void testSummariesAreCombined() {
+    List<Metric> result =
+        aggregate(
+            GaugeAggregation.SUM,
+            new Summary("latency", 2, 10, 3, 7, 0, 10, attributes),
+            new Summary("latency", 0, 0, 0, 0, 0, 10, attributes),
+            new Summary("latency", 3, 20, 1, 9, 0, 10, attributes));
+
+    assertEquals(asList(new Summary("latency", 5, 30, 1, 9, 0, 10, attributes)), result);
+  }
+
+  @Test
+  void testGaugeAggregations() {
+    assertEquals(asList(gauge(6, 30)), aggregate(GaugeAggregation.SUM, gauges()));
+    assertEquals(asList(gauge(1, 30)), aggregate(GaugeAggregation.MIN, gauges()));
+    assertEquals(asList(gauge(3, 30)), aggregate(GaugeAggregation.MAX, gauges()));
+    assertEquals(asList(gauge(2, 30)), aggregate(GaugeAggregation.AVERAGE, gauges()));
+    assertEquals(asList(gauge(2, 30)), aggregate(GaugeAggregation.LAST, gauges()));
+  }
+
+  private Metric[] gauges() {
+    return new Metric[] {gauge(1, 10), gauge(3, 30), gauge(2, 20)};
+  }
+
+  private Gauge gauge(double value, long timestamp) {
+    return new Gauge("size", value, timestamp, attributes);
+  }
+
+  private static List<Metric> aggregate(GaugeAggregation gaugeAggregation, Metric... metrics) {
+    List<Metric> result = new ArrayList<>();
+    new MetricAggregator(gaugeAggregation).aggregate(asList(metrics), result::add);
+    return result;
+  }
+}
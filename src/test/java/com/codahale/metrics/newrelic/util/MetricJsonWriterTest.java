@@ -0,0 +1,112 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Summary;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+class MetricJsonWriterTest {
+
+  private final MetricJsonWriter testClass = new MetricJsonWriter();
+
+  @Test
+  void testWritesTheMetricApiFormat() throws Exception {
+    testClass.begin(new Attributes().put("host", "localhost"));
+    testClass.accept(new Gauge("gauge", 1.5, 1000, new Attributes().put("flag", true)));
+    testClass.accept(new Count("count", 3, 1000, 6000, new Attributes().put("shard", 2)));
+    testClass.accept(new Summary("summary", 2, 10, 4, 6, 1000, 6000, new Attributes()));
+    byte[] payload = testClass.finish();
+
+    assertEquals(
+        "[{\"common\":{\"attributes\":{\"host\":\"localhost\"}},\"metrics\":["
+            + "{\"name\":\"gauge\",\"type\":\"gauge\",\"value\":1.5,\"timestamp\":1000,"
+            + "\"attributes\":{\"flag\":true}},"
+            + "{\"name\":\"count\",\"type\":\"count\",\"value\":3.0,\"timestamp\":1000,"
+            + "\"interval.ms\":5000,\"attributes\":{\"shard\":2}},"
+            + "{\"name\":\"summary\",\"type\":\"summary\","
+            + "\"value\":{\"count\":2,\"sum\":10.0,\"min\":4.0,\"max\":6.0},\"timestamp\":1000,"
+            + "\"interval.ms\":5000,\"attributes\":{}}]}]",
+        gunzip(payload));
+    assertEquals(3, testClass.getMetrics());
+    assertEquals(gunzip(payload).length(), testClass.getUncompressedBytes());
+  }
+
+  @Test
+  void testEscapesStrings() throws Exception {
+    testClass.begin(new Attributes());
+    testClass.accept(new Gauge("say \"hi\"\n", 1, 0, new Attributes().put("path", "C:\\tmp")));
+
+    assertEquals(
+        "[{\"common\":{\"attributes\":{}},\"metrics\":["
+            + "{\"name\":\"say \\\"hi\\\"\\n\",\"type\":\"gauge\",\"value\":1.0,\"timestamp\":0,"
+            + "\"attributes\":{\"path\":\"C:\\\\tmp\"}}]}]",
+        gunzip(testClass.finish()));
+  }
+
+  @Test
+  void testSkipsValuesThatAreNotFinite() throws Exception {
+    testClass.begin(new Attributes());
+    testClass.accept(new Gauge("nan", Double.NaN, 0, new Attributes()));
+    testClass.accept(new Count("infinite", Double.POSITIVE_INFINITY, 0, 1, new Attributes()));
+
+    assertEquals("[{\"common\":{\"attributes\":{}},\"metrics\":[]}]", gunzip(testClass.finish()));
+    assertEquals(0, testClass.getMetrics());
+  }
+
+  @Test
+  void testBuffersAreReusedAcrossPayloads() throws Exception {
+    testClass.begin(new Attributes());
+    testClass.accept(new Gauge("first", 1, 0, new Attributes()));
+    testClass.finish();
+
+    testClass.begin(new Attributes());
+    byte[] payload = testClass.finish();
+
+    assertEquals("[{\"common\":{\"attributes\":{}},\"metrics\":[]}]", gunzip(payload));
+  }
+
+  @Test
+  void testSlicesKeepTheCommonAttributes() throws Exception {
+    testClass.begin(new Attributes().put("host", "localhost"));
+    testClass.accept(new Gauge("first", 1, 0, new Attributes()));
+    testClass.accept(new Gauge("skipped", Double.NaN, 0, new Attributes()));
+    testClass.accept(new Gauge("second", 2, 0, new Attributes()));
+    testClass.accept(new Gauge("third", 3, 0, new Attributes()));
+    testClass.finish();
+
+    String common = "[{\"common\":{\"attributes\":{\"host\":\"localhost\"}},\"metrics\":[";
+    assertEquals(
+        common
+            + "{\"name\":\"first\",\"type\":\"gauge\",\"value\":1.0,\"timestamp\":0,"
+            + "\"attributes\":{}}]}]",
+        gunzip(testClass.slice(0, 1)));
+    assertEquals(
+        common
+            + "{\"name\":\"second\",\"type\":\"gauge\",\"value\":2.0,\"timestamp\":0,"
+            + "\"attributes\":{}},"
+            + "{\"name\":\"third\",\"type\":\"gauge\",\"value\":3.0,\"timestamp\":0,"
+            + "\"attributes\":{}}]}]",
+        gunzip(testClass.slice(1, 3)));
+  }
+
+  private static String gunzip(byte[] payload) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
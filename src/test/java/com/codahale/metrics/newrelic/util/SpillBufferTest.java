@@ -0,0 +1,205 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.newrelic.telemetry.Attributes;
+import com.newrelic.telemetry.metrics.Count;
+import com.newrelic.telemetry.metrics.Gauge;
+import com.newrelic.telemetry.metrics.Metric;
+import com.newrelic.telemetry.metrics.MetricBatch;
+import com.newrelic.telemetry.metrics.Summary;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillBufferTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void testBatchesRoundTrip() throws Exception {
+    Attributes attributes =
+        new Attributes()
+            .put("string", "value")
+            .put("long", 3L)
+            .put("double", 0.5)
+            .put("flag", true);
+    MetricBatch batch =
+        new MetricBatch(
+            asList(
+                new Gauge("gauge", 1.5, 1000, attributes),
+                new Count("count", 7, 1000, 2000, attributes),
+                new Summary("summary", 2, 10, 4, 6, 1000, 2000, new Attributes())),
+            new Attributes().put("host", "localhost"));
+
+    try (SpillBuffer testClass = new SpillBuffer(directory.resolve("spill"), 4096)) {
+      testClass.append(batch);
+
+      assertEquals(batch, testClass.poll());
+      assertNull(testClass.poll());
+    }
+  }
+
+  @Test
+  void testSharedAttributesAreDecodedOnce() throws Exception {
+    Attributes attributes = new Attributes().put("shared", "value");
+    MetricBatch batch =
+        new MetricBatch(
+            asList(new Gauge("a", 1, 0, attributes), new Gauge("b", 2, 0, attributes)),
+            new Attributes());
+
+    List<Metric> decoded =
+        new ArrayList<>(SpillBuffer.decode(SpillBuffer.encode(batch)).getTelemetry());
+
+    assertSame(((Gauge) decoded.get(0)).getAttributes(), ((Gauge) decoded.get(1)).getAttributes());
+  }
+
+  @Test
+  void testOldestBatchesAreEvictedWhenFull() throws Exception {
+    int batchBytes = 4 + SpillBuffer.encode(batch("first")).length;
+    try (SpillBuffer testClass = new SpillBuffer(directory.resolve("spill"), batchBytes * 2 + 1)) {
+      testClass.append(batch("first"));
+      testClass.append(batch("secnd"));
+      testClass.append(batch("third"));
+
+      assertEquals(2, testClass.getBatches());
+      assertEquals(1, testClass.getEvictedBatches());
+      assertEquals(batch("secnd"), testClass.poll());
+      assertEquals(batch("third"), testClass.poll());
+    }
+  }
+
+  @Test
+  void testBatchesWrapAroundTheEndOfTheBuffer() throws Exception {
+    int batchBytes = 4 + SpillBuffer.encode(batch("first")).length;
+    try (SpillBuffer testClass = new SpillBuffer(directory.resolve("spill"), batchBytes * 2 + 7)) {
+      testClass.append(batch("first"));
+      testClass.append(batch("secnd"));
+      testClass.poll();
+      testClass.append(batch("third"));
+
+      assertEquals(batch("secnd"), testClass.poll());
+      assertEquals(batch("third"), testClass.poll());
+    }
+  }
+
+  @Test
+  void testBatchesLargerThanTheBufferAreRejected() throws Exception {
+    try (SpillBuffer testClass = new SpillBuffer(directory.resolve("spill"), 16)) {
+      assertFalse(testClass.append(batch("too large")));
+      assertEquals(0, testClass.getBatches());
+    }
+  }
+
+  @Test
+  void testBatchesSurviveReopening() throws Exception {
+    Path file = directory.resolve("spill");
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      testClass.append(batch("first"));
+      testClass.append(batch("second"));
+      testClass.poll();
+    }
+
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      assertEquals(1, testClass.getBatches());
+      assertEquals(batch("second"), testClass.poll());
+    }
+  }
+
+  @Test
+  void testCorruptRecordsDiscardTheBuffer() throws Exception {
+    Path file = directory.resolve("spill");
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      testClass.append(batch("first"));
+    }
+    // overwrite the length of the first record, right after the 32 byte header
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(4).putInt(0, -1), 32);
+    }
+
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      assertNull(testClass.poll());
+      assertEquals(0, testClass.getBatches());
+      testClass.append(batch("second"));
+      assertEquals(batch("second"), testClass.poll());
+    }
+  }
+
+  @Test
+  void testCorruptLengthsAndCountsAreRejected() {
+    byte[] bytes = SpillBuffer.encode(batch("first"));
+
+    // the common attributes take 8 bytes, followed by the metric count
+    assertThrows(IOException.class, () -> SpillBuffer.decode(withInt(bytes, 8, Integer.MAX_VALUE)));
+    assertThrows(IOException.class, () -> SpillBuffer.decode(withInt(bytes, 8, -2)));
+    // the first metric starts with its type and the length of its name
+    assertThrows(
+        IOException.class, () -> SpillBuffer.decode(withInt(bytes, 13, Integer.MAX_VALUE)));
+    assertThrows(IOException.class, () -> SpillBuffer.decode(withInt(bytes, 13, -1)));
+    // the attributes of the metric refer to unknown attributes
+    assertThrows(IOException.class, () -> SpillBuffer.decode(withInt(bytes, bytes.length - 8, 5)));
+    // the attributes of the metric have more entries than bytes
+    assertThrows(
+        IOException.class, () -> SpillBuffer.decode(withInt(bytes, bytes.length - 4, 1_000_000)));
+  }
+
+  @Test
+  void testCorruptRecordContentsDiscardTheBuffer() throws Exception {
+    Path file = directory.resolve("spill");
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      testClass.append(batch("first"));
+      testClass.append(batch("second"));
+    }
+    // overwrite the metric count of the first record, after the header, length and attributes
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), 32 + 4 + 8);
+    }
+
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      assertNull(testClass.poll());
+      assertEquals(0, testClass.getBatches());
+      testClass.append(batch("third"));
+      assertEquals(batch("third"), testClass.poll());
+    }
+  }
+
+  @Test
+  void testFileIsLockedWhileOpen() throws Exception {
+    Path file = directory.resolve("spill");
+    try (SpillBuffer testClass = new SpillBuffer(file, 4096)) {
+      assertThrows(IOException.class, () -> new SpillBuffer(file, 4096));
+    }
+
+    new SpillBuffer(file, 4096).close();
+  }
+
+  private static byte[] withInt(byte[] bytes, int position, int value) {
+    byte[] copy = bytes.clone();
+    ByteBuffer.wrap(copy).putInt(position, value);
+    return copy;
+  }
+
+  private static MetricBatch batch(String name) {
+    return new MetricBatch(
+        Collections.singletonList(new Gauge(name, 1, 0, new Attributes())), new Attributes());
+  }
+}
@@ -48,4 +48,21 @@ class TimeTrackerTest {
     assertEquals(evenLater, timeTracker.getCurrentTime());
     assertEquals(later, timeTracker.getPreviousTime());
   }
+
+  @Test
+  @DisplayName("Make sure the ticker never goes backwards")
+  void testTickIsMonotonic() throws Exception {
+    Clock clock = mock(Clock.class);
+
+    long now = System.currentTimeMillis();
+    long later = now + 5000;
+    when(clock.getTime()).thenReturn(now, later, now);
+
+    TimeTracker timeTracker = new TimeTracker(clock);
+
+    timeTracker.tick();
+    timeTracker.tick();
+
+    assertEquals(later, timeTracker.getPreviousTime());
+  }
 }
@@ -0,0 +1,180 @@
+/*
+ * ---------------------------------------------------------------------------------------------
+ *  Copyright (c) 2019 New Relic Corporation. All rights reserved.
+ *  Licensed under the Apache 2.0 License. See LICENSE in the project root directory for license information.
+ * --------------------------------------------------------------------------------------------
+ */
+
+package com.codahale.metrics.newrelic.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimedGaugeReaderTest {
+
+  private final Counter timeouts = new Counter();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger slowReads = new AtomicInteger();
+  private volatile boolean slow;
+
+  private final Gauge<Integer> sometimesSlowGauge =
+      () -> {
+        if (slow) {
+          slowReads.incrementAndGet();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return 42;
+      };
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+  }
+
+  @Test
+  void testReadsInTime() {
+    TimedGaugeReader testClass = new TimedGaugeReader(1, 1, TimeUnit.SECONDS, false, timeouts);
+
+    assertEquals(42, testClass.read("gauge", sometimesSlowGauge));
+    assertEquals(0, timeouts.getCount());
+  }
+
+  @Test
+  void testTimedOutReadsAreCounted() {
+    TimedGaugeReader testClass =
+        new TimedGaugeReader(1, 10, TimeUnit.MILLISECONDS, false, timeouts);
+    slow = true;
+
+    assertSame(GaugeReader.TIMED_OUT, testClass.read("gauge", sometimesSlowGauge));
+    assertEquals(1, timeouts.getCount());
+  }
+
+  @Test
+  void testTimedOutReadsServeTheLastValue() {
+    TimedGaugeReader testClass = new TimedGaugeReader(1, 10, TimeUnit.MILLISECONDS, true, timeouts);
+    assertEquals(42, testClass.read("gauge", sometimesSlowGauge));
+    slow = true;
+
+    assertEquals(42, testClass.read("gauge", sometimesSlowGauge));
+    assertEquals(1, timeouts.getCount());
+  }
+
+  @Test
+  void testStuckGaugesAreNotReadAgain() {
+    TimedGaugeReader testClass =
+        new TimedGaugeReader(2, 10, TimeUnit.MILLISECONDS, false, timeouts);
+    slow = true;
+
+    testClass.read("gauge", sometimesSlowGauge);
+    testClass.read("gauge", sometimesSlowGauge);
+
+    assertEquals(1, slowReads.get());
+    assertEquals(2, timeouts.getCount());
+  }
+
+  @Test
+  void testStuckGaugesDoNotTakeTheThreadsOfOtherGauges() {
+    TimedGaugeReader testClass =
+        new TimedGaugeReader(1, 100, TimeUnit.MILLISECONDS, false, timeouts);
+    slow = true;
+    testClass.read("slow", sometimesSlowGauge);
+
+    assertEquals(1, testClass.read("other", () -> 1));
+    assertEquals(1, timeouts.getCount());
+  }
+
+  @Test
+  void testReadsTimeOutWhenStuckGaugesTakeEveryThread() {
+    TimedGaugeReader testClass =
+        new TimedGaugeReader(1, 10, TimeUnit.MILLISECONDS, false, timeouts);
+    slow = true;
+    // the pool grows by one thread at most, which the second stuck gauge takes
+    testClass.read("slow", sometimesSlowGauge);
+    testClass.read("slower", sometimesSlowGauge);
+
+    long start = System.nanoTime();
+    assertSame(GaugeReader.TIMED_OUT, testClass.read("other", () -> 1));
+    assertEquals(3, timeouts.getCount());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  void testPendingReadsTimeOutWithoutWaiting() {
+    TimedGaugeReader testClass = new TimedGaugeReader(1, 1, TimeUnit.SECONDS, false, timeouts);
+    slow = true;
+    testClass.read("gauge", sometimesSlowGauge);
+
+    long start = System.nanoTime();
+    assertSame(GaugeReader.TIMED_OUT, testClass.read("gauge", sometimesSlowGauge));
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(2, timeouts.getCount());
+  }
+
+  @Test
+  void testTheGaugesOfAHarvestShareOneDeadline() {
+    TimedGaugeReader testClass =
+        new TimedGaugeReader(4, 300, TimeUnit.MILLISECONDS, false, timeouts);
+    Map<String, Gauge> gauges = new TreeMap<>();
+    for (int i = 0; i < 3; i++) {
+      gauges.put("gauge" + i, sometimesSlowGauge);
+    }
+    slow = true;
+
+    long start = System.nanoTime();
+    testClass.startHarvest(gauges);
+    gauges.forEach(
+        (name, gauge) -> assertSame(GaugeReader.TIMED_OUT, testClass.read(name, gauge)));
+
+    // each read would wait for its own timeout without the shared deadline
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+    assertEquals(3, slowReads.get());
+    assertEquals(3, timeouts.getCount());
+  }
+
+  @Test
+  void testPendingReadsCompleteLater() throws Exception {
+    TimedGaugeReader testClass =
+        new TimedGaugeReader(1, 10, TimeUnit.MILLISECONDS, false, timeouts);
+    slow = true;
+    testClass.read("gauge", sometimesSlowGauge);
+
+    release.countDown();
+    assertEquals(42, readEventually(testClass));
+    assertEquals(1, slowReads.get());
+  }
+
+  @Test
+  void testClosedReadersTimeOut() {
+    TimedGaugeReader testClass = new TimedGaugeReader(1, 1, TimeUnit.SECONDS, false, timeouts);
+
+    testClass.close();
+
+    assertSame(GaugeReader.TIMED_OUT, testClass.read("gauge", sometimesSlowGauge));
+  }
+
+  private Object readEventually(TimedGaugeReader testClass) throws InterruptedException {
+    for (int attempt = 0; attempt < 100; attempt++) {
+      Object value = testClass.read("gauge", sometimesSlowGauge);
+      if (value != GaugeReader.TIMED_OUT) {
+        return value;
+      }
+      Thread.sleep(10);
+    }
+    return null;
+  }
+}